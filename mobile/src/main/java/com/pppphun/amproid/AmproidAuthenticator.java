@@ -37,6 +37,7 @@ import android.content.Intent;
 import android.os.Bundle;
 
 import com.pppphun.amproid.service.AmpacheAPICaller;
+import com.pppphun.amproid.shared.Amproid;
 
 
 public class AmproidAuthenticator extends AbstractAccountAuthenticator
@@ -110,9 +111,13 @@ public class AmproidAuthenticator extends AbstractAccountAuthenticator
 
         String token = "";
 
+        AmpacheAPICaller.setApiFormat(url, Amproid.getServerApiFormat(account));
         AmpacheAPICaller ampacheAPICaller = new AmpacheAPICaller(url);
         if (ampacheAPICaller.getErrorMessage().isEmpty()) {
             token = ampacheAPICaller.handshake(user, psw);
+
+            // so that the service doesn't have to validate a token known to be fresh
+            Amproid.setSessionExpire(account, token.isEmpty() ? 0 : ampacheAPICaller.getSessionExpire());
         }
 
         if (!ampacheAPICaller.getErrorMessage().isEmpty()) {
@@ -45,6 +45,7 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.ProgressBar;
 import android.widget.Spinner;
 import android.widget.TextView;
@@ -55,6 +56,7 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.google.android.material.textfield.TextInputEditText;
 import com.pppphun.amproid.service.AmproidService;
+import com.pppphun.amproid.shared.Amproid;
 
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -290,6 +292,7 @@ public class AmproidAuthenticatorActivity extends AppCompatActivity
         final TextInputEditText urlEditor  = view.findViewById(R.id.url_input);
         final TextInputEditText userEditor = view.findViewById(R.id.user_input);
         final TextInputEditText pswEditor  = view.findViewById(R.id.psw_input);
+        final CheckBox          jsonApi    = view.findViewById(R.id.use_json_api);
         final Button            demoButton = view.findViewById(R.id.use_demo_server);
         final TextView          demoNote   = view.findViewById(R.id.login_test_note_view);
 
@@ -394,6 +397,7 @@ public class AmproidAuthenticatorActivity extends AppCompatActivity
                 Bundle extra = new Bundle();
                 extra.putString("url", urlInstance.toString());
                 extra.putString("user", user);
+                extra.putString("api_format", jsonApi.isChecked() ? Amproid.API_FORMAT_JSON : Amproid.API_FORMAT_XML);
 
                 accountManager.addAccountExplicitly(account, psw, extra);
 
@@ -355,6 +355,9 @@ public class AmproidMainActivity extends AppCompatActivity
         final CheckBox titleCurlyIsExtra = view.findViewById(R.id.title_curly_is_extra);
         titleCurlyIsExtra.setChecked(preferences.getBoolean(getString(R.string.title_curly_is_extra_preference), Amproid.DEFAULT_CURLY_IN_TITLE_IS_EXTRA));
 
+        final CheckBox gapless = view.findViewById(R.id.gapless);
+        gapless.setChecked(preferences.getBoolean(getString(R.string.gapless_preference), Amproid.DEFAULT_GAPLESS));
+
         final TextView sleepTimeLabel = view.findViewById(R.id.sleep_time_label);
         sleepTimeLabel.setTextColor(showRadios.getCurrentTextColor());
 
@@ -379,6 +382,7 @@ public class AmproidMainActivity extends AppCompatActivity
                 preferencesEditor.putBoolean(getString(R.string.show_radios_preference), showRadios.isChecked());
                 preferencesEditor.putBoolean(getString(R.string.show_shuffle_in_title_preference), showShuffleInTitle.isChecked());
                 preferencesEditor.putBoolean(getString(R.string.title_curly_is_extra_preference), titleCurlyIsExtra.isChecked());
+                preferencesEditor.putBoolean(getString(R.string.gapless_preference), gapless.isChecked());
                 preferencesEditor.putInt(getString(R.string.random_count_preference), recentCount.getProgress());
                 preferencesEditor.commit();
 
@@ -742,6 +746,58 @@ public class AmproidMainActivity extends AppCompatActivity
     }
 
 
+    // returns false if the item can't be kept offline
+    boolean offlineDialog(final String mediaId, String title)
+    {
+        if ((amproidServiceBinder == null) || !amproidServiceBinder.getAmproidService().isPinnable(mediaId)) {
+            return false;
+        }
+
+        boolean pinned = amproidServiceBinder.getAmproidService().isPinned(mediaId);
+
+        AlertDialog.Builder offlineDialogBuilder = new AlertDialog.Builder(AmproidMainActivity.this)
+                .setTitle(title)
+                .setMessage(pinned ? R.string.offline_is_pinned : R.string.offline_not_pinned)
+                .setPositiveButton(pinned ? R.string.offline_update : R.string.offline_keep, new DialogInterface.OnClickListener()
+                    {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which)
+                        {
+                            if (amproidServiceBinder != null) {
+                                amproidServiceBinder.getAmproidService().setPinned(mediaId, true);
+                            }
+                        }
+                    })
+                .setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener()
+                    {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which)
+                        {
+                            dialog.cancel();
+                        }
+                    });
+        if (pinned) {
+            offlineDialogBuilder.setNeutralButton(R.string.offline_remove, new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which)
+                    {
+                        if (amproidServiceBinder != null) {
+                            amproidServiceBinder.getAmproidService().setPinned(mediaId, false);
+                        }
+                    }
+                });
+        }
+        try {
+            offlineDialogBuilder.show();
+        }
+        catch (WindowManager.BadTokenException ignored) {
+        }
+
+        return true;
+    }
+
+
     void startAuthenticatorActivity()
     {
         Intent intent = new Intent(this, AmproidAuthenticatorActivity.class);
@@ -514,7 +514,7 @@ public class MediaBrowserFragment extends Fragment
         }
 
 
-        public class MediaItemViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener
+        public class MediaItemViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener, View.OnLongClickListener
         {
             final LinearLayout row;
 
@@ -531,6 +531,10 @@ public class MediaBrowserFragment extends Fragment
 
                 itemView.setOnClickListener(this);
 
+                // playlists and albums can be kept offline
+                title.setOnLongClickListener(this);
+                itemView.setOnLongClickListener(this);
+
                 row = itemView;
             }
 
@@ -569,6 +573,20 @@ public class MediaBrowserFragment extends Fragment
                     }
                 }
             }
+
+
+            @Override
+            public boolean onLongClick(View v)
+            {
+                int position = getAdapterPosition();
+
+                FragmentActivity activity = getActivity();
+                if ((activity == null) || (position < 0)) {
+                    return false;
+                }
+
+                return ((AmproidMainActivity) activity).offlineDialog(items[position].getId(), items[position].getTitle());
+            }
         }
     }
 }
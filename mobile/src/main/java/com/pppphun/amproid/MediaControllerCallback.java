@@ -27,7 +27,6 @@ import static android.support.v4.media.MediaMetadataCompat.METADATA_KEY_ART;
 import static android.support.v4.media.MediaMetadataCompat.METADATA_KEY_ARTIST;
 import static android.support.v4.media.MediaMetadataCompat.METADATA_KEY_DURATION;
 import static android.support.v4.media.MediaMetadataCompat.METADATA_KEY_TITLE;
-import static android.support.v4.media.session.PlaybackStateCompat.STATE_PLAYING;
 
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
@@ -78,9 +77,7 @@ final class MediaControllerCallback extends MediaControllerCompat.Callback
             }
 
             if (position != null) {
-                synchronized (this) {
-                    ((NowPlayingFragment) nowPlaying).setIncreasePosition(state.getState() == STATE_PLAYING);
-                }
+                ((NowPlayingFragment) nowPlaying).setPlaybackState(state);
 
                 int pos = (int) (state.getPosition() / 1000);
                 if ((pos >= 0) && (pos <= position.getMax())) {
@@ -23,6 +23,11 @@ package com.pppphun.amproid;
 
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.media.session.MediaControllerCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
 import android.transition.Transition;
 import android.transition.TransitionInflater;
 import android.view.View;
@@ -37,14 +42,43 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 
 public class NowPlayingFragment extends Fragment
 {
-    private Timer   positionTimer    = null;
-    private boolean increasePosition = false;
+    private final Handler             positionHandler = new Handler(Looper.getMainLooper());
+    private       PlaybackStateCompat playbackState   = null;
+    private       boolean             started         = false;
+
+    // the service only reports the position when the state changes, in between it's worked out from the time of that report
+    private final Runnable positionTick = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            if ((playbackState == null) || (playbackState.getState() != PlaybackStateCompat.STATE_PLAYING)) {
+                return;
+            }
+
+            SeekBar position = null;
+            try {
+                position = requireView().findViewById(R.id.positionIndicator);
+            }
+            catch (Exception ignored) {
+            }
+            if (position == null) {
+                return;
+            }
+
+            long pos = playbackState.getPosition() + (long) ((SystemClock.elapsedRealtime() - playbackState.getLastPositionUpdateTime()) * playbackState.getPlaybackSpeed());
+            if (pos < 0) {
+                pos = 0;
+            }
+            position.setProgress((int) Math.min(pos / 1000, position.getMax()));
+
+            // next when the second turns
+            positionHandler.postDelayed(positionTick, 1000 - (pos % 1000));
+        }
+    };
 
 
     public NowPlayingFragment()
@@ -151,36 +185,18 @@ public class NowPlayingFragment extends Fragment
     {
         super.onStart();
 
-        if (positionTimer == null) {
-            positionTimer = new Timer();
-        }
-        positionTimer.schedule(new TimerTask()
-        {
-            @Override
-            public void run()
-            {
-                boolean inc;
-                synchronized (this) {
-                    inc = increasePosition;
-                }
+        started = true;
 
-                if (inc) {
-                    SeekBar position = null;
-                    try {
-                        position = requireView().findViewById(R.id.positionIndicator);
-                    }
-                    catch (Exception ignored) {
-                    }
-
-                    if (position != null) {
-                        int pos = position.getProgress();
-                        if (pos < position.getMax()) {
-                            position.setProgress(pos + 1);
-                        }
-                    }
-                }
+        PlaybackStateCompat state = playbackState;
+        try {
+            MediaControllerCompat mediaController = MediaControllerCompat.getMediaController(requireActivity());
+            if (mediaController != null) {
+                state = mediaController.getPlaybackState();
             }
-        }, 100, 1000);
+        }
+        catch (Exception ignored) {
+        }
+        setPlaybackState(state);
     }
 
 
@@ -189,14 +205,19 @@ public class NowPlayingFragment extends Fragment
     {
         super.onStop();
 
-        positionTimer.cancel();
-        positionTimer.purge();
-        positionTimer = null;
+        started = false;
+        positionHandler.removeCallbacks(positionTick);
     }
 
 
-    public void setIncreasePosition(boolean increasePosition)
+    // ticks only while playing, and not at all while not started
+    public void setPlaybackState(PlaybackStateCompat playbackState)
     {
-        this.increasePosition = increasePosition;
+        this.playbackState = playbackState;
+
+        positionHandler.removeCallbacks(positionTick);
+        if (started && (playbackState != null) && (playbackState.getState() == PlaybackStateCompat.STATE_PLAYING)) {
+            positionHandler.post(positionTick);
+        }
     }
 }
@@ -32,21 +32,27 @@ import android.os.Bundle;
 import com.pppphun.amproid.shared.Amproid;
 
 import org.jetbrains.annotations.NotNull;
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserFactory;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 
 
@@ -68,12 +74,44 @@ public class AmpacheAPICaller
     private static final int    SEARCH_MAX_RADIOS  = 5;
     private static final int    MIN_API_VERSION    = 5000000;
     private static final String API_PATH           = "/server/xml.server.php";
+    private static final String API_PATH_JSON      = "/server/json.server.php";
+
+    // timeouts are this many times the usual (95th percentile) latency of the action, within limits
+    private static final int  TIMEOUT_FACTOR      = 4;
+    private static final int  MIN_CONNECT_TIMEOUT = 5000;
+    private static final int  MIN_READ_TIMEOUT    = 10000;
+    private static final long MIN_HEDGE_DELAY     = 500;
+
+    private static final HashMap<String, String>   apiFormats        = new HashMap<>();
+    private static final HashMap<String, InFlight> inFlights         = new HashMap<>();
+    private static final HashSet<String>           idempotentActions = new HashSet<>();
+
+    static {
+        // read-only actions, sending them twice does no harm; playlist_generate isn't here, it's random by nature
+        idempotentActions.add("advanced_search");
+        idempotentActions.add("album");
+        idempotentActions.add("album_songs");
+        idempotentActions.add("albums");
+        idempotentActions.add("artist");
+        idempotentActions.add("artist_albums");
+        idempotentActions.add("artists");
+        idempotentActions.add("genres");
+        idempotentActions.add("live_stream");
+        idempotentActions.add("live_streams");
+        idempotentActions.add("playlist");
+        idempotentActions.add("playlist_songs");
+        idempotentActions.add("playlists");
+        idempotentActions.add("song");
+        idempotentActions.add("songs");
+        idempotentActions.add("stats");
+    }
 
 
     public enum GetTracksIdType
     {
         GET_TRACKS_ID_TYPE_NONE,
         GET_TRACKS_ID_TYPE_SONG,
+        GET_TRACKS_ID_TYPE_SONGS,
         GET_TRACKS_ID_TYPE_ARTIST,
         GET_TRACKS_ID_TYPE_ALBUM,
         GET_TRACKS_ID_TYPE_PLAYLIST,
@@ -87,9 +125,34 @@ public class AmpacheAPICaller
     }
 
 
+    // called on the calling thread while the response is still being parsed
+    public interface TrackListener
+    {
+        void trackParsed(Track track);
+    }
+
+
+    interface RowListener
+    {
+        void rowParsed(HashMap<String, String> row);
+    }
+
+
     private URL     baseUrl;
+    private String  apiFormat        = Amproid.API_FORMAT_XML;
+    private String  apiPath          = API_PATH;
     private String  errorMessage     = "";
     private boolean loginShouldRetry = true;
+    private boolean concurrentSearch = false;
+    private boolean networkFailure   = false;
+    private int     lastResultCount  = 0;
+    private long    sessionExpire    = 0;
+
+    private volatile boolean           cancelled        = false;
+    private volatile HttpURLConnection activeConnection = null;
+
+    private final Vector<AmpacheAPICaller> workers       = new Vector<>();
+    private final Vector<Future<?>>        searchFutures = new Vector<>();
 
 
     public AmpacheAPICaller(String url)
@@ -101,6 +164,72 @@ public class AmpacheAPICaller
             errorMessage = e.getMessage();
             baseUrl      = null;
         }
+
+        synchronized (apiFormats) {
+            String registeredApiFormat = apiFormats.get(url);
+            if (registeredApiFormat != null) {
+                apiFormat = registeredApiFormat;
+            }
+        }
+        apiPath = apiFormat.equals(Amproid.API_FORMAT_JSON) ? API_PATH_JSON : API_PATH;
+    }
+
+
+    private AmpacheAPICaller(URL baseUrl, String apiFormat, String apiPath)
+    {
+        this.baseUrl   = baseUrl;
+        this.apiFormat = apiFormat;
+        this.apiPath   = apiPath;
+    }
+
+
+    public static boolean isServerAvailable(String url)
+    {
+        if (url == null) {
+            return true;
+        }
+
+        try {
+            return CircuitBreaker.isAvailable(new URL(url).toString());
+        }
+        catch (Exception e) {
+            return true;
+        }
+    }
+
+
+    public static void setApiFormat(String url, String apiFormat)
+    {
+        if (url == null) {
+            return;
+        }
+
+        synchronized (apiFormats) {
+            apiFormats.put(url, Amproid.API_FORMAT_JSON.equals(apiFormat) ? Amproid.API_FORMAT_JSON : Amproid.API_FORMAT_XML);
+        }
+    }
+
+
+    public void cancel()
+    {
+        cancelled = true;
+
+        synchronized (searchFutures) {
+            for (Future<?> searchFuture : searchFutures) {
+                searchFuture.cancel(true);
+            }
+        }
+        synchronized (workers) {
+            for (AmpacheAPICaller worker : workers) {
+                worker.cancel();
+            }
+        }
+
+        // blocking reads don't respond to interrupts, but they do to their connection going away
+        HttpURLConnection connection = activeConnection;
+        if (connection != null) {
+            connection.disconnect();
+        }
     }
 
 
@@ -124,7 +253,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
@@ -135,7 +264,7 @@ public class AmpacheAPICaller
         tagsNeeded.add("name");
         tagsNeeded.add("art");
 
-        return blockingTransactionMulti(callUrl, "album", tagsNeeded);
+        return cachedTransactionMulti(callUrl, "album", tagsNeeded);
     }
 
 
@@ -160,7 +289,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
@@ -171,7 +300,7 @@ public class AmpacheAPICaller
         tagsNeeded.add("name");
         tagsNeeded.add("art");
 
-        return blockingTransactionMulti(callUrl, "album", tagsNeeded);
+        return cachedTransactionMulti(callUrl, "album", tagsNeeded);
     }
 
 
@@ -195,7 +324,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
@@ -206,7 +335,7 @@ public class AmpacheAPICaller
         tagsNeeded.add("name");
         tagsNeeded.add("art");
 
-        return blockingTransactionMulti(callUrl, "artist", tagsNeeded);
+        return cachedTransactionMulti(callUrl, "artist", tagsNeeded);
     }
 
 
@@ -216,6 +345,20 @@ public class AmpacheAPICaller
     }
 
 
+    // rows in the last getTracks response, including the ones that couldn't be turned into tracks; for paging
+    public int getLastResultCount()
+    {
+        return lastResultCount;
+    }
+
+
+    // of the session started by the last handshake or extended by the last ping, milliseconds since epoch, 0 if not known
+    public long getSessionExpire()
+    {
+        return sessionExpire;
+    }
+
+
     public Vector<HashMap<String, String>> getLiveStreams(String token)
     {
         if (baseUrl == null) {
@@ -236,7 +379,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
@@ -247,7 +390,7 @@ public class AmpacheAPICaller
         tagsNeeded.add("name");
         tagsNeeded.add("url");
 
-        return blockingTransactionMulti(callUrl, "live_stream", tagsNeeded);
+        return cachedTransactionMulti(callUrl, "live_stream", tagsNeeded);
     }
 
 
@@ -271,7 +414,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
@@ -282,7 +425,7 @@ public class AmpacheAPICaller
         tagsNeeded.add("name");
         tagsNeeded.add("art");
 
-        return blockingTransactionMulti(callUrl, "playlist", tagsNeeded);
+        return cachedTransactionMulti(callUrl, "playlist", tagsNeeded);
     }
 
 
@@ -306,7 +449,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
@@ -317,7 +460,7 @@ public class AmpacheAPICaller
         tagsNeeded.add("name");
         tagsNeeded.add("art");
 
-        return blockingTransactionMulti(callUrl, "playlist", tagsNeeded);
+        return cachedTransactionMulti(callUrl, "playlist", tagsNeeded);
     }
 
 
@@ -349,7 +492,7 @@ public class AmpacheAPICaller
 
             URL tempUrl;
             try {
-                tempUrl = new URL(baseUrl.toString() + API_PATH + "?" + tempQueryString.getQueryString());
+                tempUrl = new URL(baseUrl.toString() + apiPath + "?" + tempQueryString.getQueryString());
             }
             catch (Exception e) {
                 errorMessage = e.getMessage();
@@ -379,7 +522,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
@@ -390,11 +533,24 @@ public class AmpacheAPICaller
         tagsNeeded.add("name");
         tagsNeeded.add("art");
 
-        return blockingTransactionMulti(callUrl, "album", tagsNeeded);
+        return cachedTransactionMulti(callUrl, "album", tagsNeeded);
     }
 
 
     public Vector<Track> getTracks(String token, int count, String id, GetTracksIdType idType)
+    {
+        return getTracks(token, count, 0, id, idType);
+    }
+
+
+    public Vector<Track> getTracks(String token, int count, int offset, String id, GetTracksIdType idType)
+    {
+        return getTracks(token, count, offset, id, idType, null);
+    }
+
+
+    // with trackListener each track is handed out as soon as its row is parsed, the returned tracks are the same objects
+    public Vector<Track> getTracks(String token, int count, int offset, String id, GetTracksIdType idType, TrackListener trackListener)
     {
         if (baseUrl == null) {
             setErrorMessage(com.pppphun.amproid.shared.R.string.error_invalid_server_url);
@@ -405,7 +561,8 @@ public class AmpacheAPICaller
             return new Vector<>();
         }
 
-        errorMessage = "";
+        errorMessage    = "";
+        lastResultCount = 0;
 
         QueryStringBuilder queryString = new QueryStringBuilder();
         queryString.addNameValue("auth", token);
@@ -417,6 +574,9 @@ public class AmpacheAPICaller
         else {
             queryString.addNameValue("limit", String.valueOf(count));
         }
+        if (offset > 0) {
+            queryString.addNameValue("offset", String.valueOf(offset));
+        }
 
         if (idType == GetTracksIdType.GET_TRACKS_ID_TYPE_ARTIST) {
             queryString.addNameValue("action", "playlist_generate");
@@ -446,6 +606,19 @@ public class AmpacheAPICaller
             queryString.addNameValue("action", "song");
             queryString.addNameValue("filter", id);
         }
+        else if (idType == GetTracksIdType.GET_TRACKS_ID_TYPE_SONGS) {
+            // comma separated song IDs, all in one call instead of one call each, the limit (set above) is the number of IDs
+            queryString.addNameValue("action", "advanced_search");
+            queryString.addNameValue("type", "song");
+            queryString.addNameValue("operator", "or");
+
+            String[] songIds = id.split(",");
+            for (int i = 0; i < songIds.length; i++) {
+                queryString.addNameValue(String.format(Locale.US, "rule_%d", i + 1), "id");
+                queryString.addNameValue(String.format(Locale.US, "rule_%d_operator", i + 1), "2");
+                queryString.addNameValue(String.format(Locale.US, "rule_%d_input", i + 1), songIds[i]);
+            }
+        }
         else if (idType == GetTracksIdType.GET_TRACKS_ID_TYPE_FLAGGED) {
             queryString.addNameValue("action", "advanced_search");
             queryString.addNameValue("random", "1");
@@ -502,7 +675,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
@@ -524,61 +697,29 @@ public class AmpacheAPICaller
         }
         tagsNeeded.add("url");
 
-        Vector<HashMap<String, String>> results = blockingTransactionMulti(callUrl, repeatingTag, tagsNeeded);
+        TrackBuilder                    trackBuilder = new TrackBuilder(idType, trackListener);
+        Vector<HashMap<String, String>> results;
+        if (trackListener == null) {
+            results = sharedTransactionMulti(callUrl, repeatingTag, tagsNeeded);
+            for (HashMap<String, String> result : results) {
+                trackBuilder.rowParsed(result);
+            }
+        }
+        else {
+            // tracks handed out while parsing can't be taken back, so this call is neither shared nor hedged
+            results = blockingTransactionMulti(callUrl, repeatingTag, tagsNeeded, trackBuilder);
+        }
 
         if (!errorMessage.isEmpty()) {
             return new Vector<>();
         }
+        lastResultCount = results.size();
 
-        String        localErrorMessage = "";
-        Vector<Track> returnValue       = new Vector<>();
-        for (HashMap<String, String> result : results) {
-            URL url;
-            try {
-                url = new URL(result.get("url"));
-            }
-            catch (Exception e) {
-                localErrorMessage = e.getMessage();
-                continue;
-            }
-
-            URL pictureURL = null;
-            try {
-                pictureURL = new URL(result.get("art"));
-            }
-            catch (Exception ignored) {
-            }
-
-            Track track = new Track();
-            track.setId(result.get("id"));
-            if (idType == GetTracksIdType.GET_TRACKS_ID_TYPE_RADIO) {
-                track.setTitle(result.get("name"));
-                track.setArtist(Amproid.getAppContext().getString(R.string.radio_station));
-                track.setAlbum("");
-                track.setRadio(true);
-            }
-            else {
-                track.setAlbumId(result.get("album_id"));
-                track.setArtistId(result.get("artist_id"));
-                track.setPictureUrl(pictureURL);
-                track.setTitle(result.get("title"));
-                track.setAlbum(result.get("album"));
-                track.setArtist(result.get("artist"));
-            }
-            track.setUrl(url);
-
-            if (result.containsKey("genre")) {
-                track.addTags(result.get("genre"));
-            }
-
-            returnValue.add(track);
-        }
-
-        if (returnValue.isEmpty()) {
-            errorMessage = localErrorMessage;
+        if (trackBuilder.tracks.isEmpty()) {
+            errorMessage = trackBuilder.errorMessage;
         }
 
-        return returnValue;
+        return trackBuilder.tracks;
     }
 
 
@@ -595,6 +736,7 @@ public class AmpacheAPICaller
 
         errorMessage     = "";
         loginShouldRetry = true;
+        sessionExpire    = 0;
 
         String timeStr      = String.valueOf(System.currentTimeMillis() / 1000);
         String psw256       = toHexSHA256(psw);
@@ -611,7 +753,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
@@ -622,6 +764,7 @@ public class AmpacheAPICaller
         tagsNeeded.add("error");
         tagsNeeded.add("auth");
         tagsNeeded.add("api");
+        tagsNeeded.add("session_expire");
 
         HashMap<String, String> results = blockingTransaction(callUrl, tagsNeeded);
 
@@ -647,6 +790,8 @@ public class AmpacheAPICaller
             return "";
         }
 
+        sessionExpire = parseSessionExpire(results.get("session_expire"));
+
         return results.get("auth");
     }
 
@@ -657,158 +802,104 @@ public class AmpacheAPICaller
     }
 
 
-    public HashMap<Integer, Vector<HashMap<String, String>>> search(String token, Bundle searchParameters)
+    // a valid session is extended by the server, and its new expiry is returned; without a valid session there's no expiry in the response
+    public boolean ping(String token)
     {
         if (baseUrl == null) {
             setErrorMessage(com.pppphun.amproid.shared.R.string.error_invalid_server_url);
-            return new HashMap<>();
+            return false;
         }
         if (token.isEmpty()) {
             setErrorMessage(com.pppphun.amproid.shared.R.string.error_blank_token);
-            return new HashMap<>();
+            return false;
         }
 
-        String query  = bundleGetString(searchParameters, "query");
-        String artist = bundleGetString(searchParameters, "android.intent.extra.artist");
-        String album  = bundleGetString(searchParameters, "android.intent.extra.album");
-        String title  = bundleGetString(searchParameters, "android.intent.extra.title");
-
-        errorMessage = "";
-
-        Vector<String> titleTagNeeded = new Vector<>();
-        titleTagNeeded.add("title");
-        titleTagNeeded.add("album");
-        titleTagNeeded.add("artist");
-        titleTagNeeded.add("art");
-
-        Vector<String> nameTagNeeded = new Vector<>();
-        nameTagNeeded.add("name");
-        nameTagNeeded.add("art");
-
-        URL url;
-
-        Vector<HashMap<String, String>> advanced = new Vector<>();
-        if ((title.length() > 0) && (artist.length() > 0)) {
-            QueryStringBuilder advancedQueryString = new QueryStringBuilder();
-            advancedQueryString.addNameValue("action", "advanced_search");
-            advancedQueryString.addNameValue("auth", token);
-            advancedQueryString.addNameValue("type", "song");
-            advancedQueryString.addNameValue("random", "1");
-            advancedQueryString.addNameValue("limit", String.valueOf(SEARCH_MAX_SONGS));
-            advancedQueryString.addNameValue("rule_1", "title");
-            advancedQueryString.addNameValue("rule_1_operator", "0");
-            advancedQueryString.addNameValue("rule_1_input", title);
-            advancedQueryString.addNameValue("rule_2", "artist");
-            advancedQueryString.addNameValue("rule_2_operator", "0");
-            advancedQueryString.addNameValue("rule_2_input", artist);
-            if (album.length() > 0) {
-                advancedQueryString.addNameValue("rule_3", "album");
-                advancedQueryString.addNameValue("rule_3_operator", "0");
-                advancedQueryString.addNameValue("rule_3_input", album);
-            }
-
-            try {
-                url = new URL(baseUrl.toString() + API_PATH + "?" + advancedQueryString.getQueryString());
-            }
-            catch (Exception e) {
-                errorMessage = e.getMessage();
-                return new HashMap<>();
-            }
-
-            advanced.addAll(blockingTransactionMulti(url, "song", titleTagNeeded));
-
-            if ((advanced.size() < 1) && (album.length() > 0)) {
-                advancedQueryString.removeName("rule_3");
-                advancedQueryString.removeName("rule_3_operator");
-                advancedQueryString.removeName("rule_3_input");
-
-                try {
-                    url = new URL(baseUrl.toString() + API_PATH + "?" + advancedQueryString.getQueryString());
-                }
-                catch (Exception e) {
-                    errorMessage = e.getMessage();
-                    return new HashMap<>();
-                }
-
-                advanced.addAll(blockingTransactionMulti(url, "song", titleTagNeeded));
-            }
-        }
+        errorMessage  = "";
+        sessionExpire = 0;
 
-        QueryStringBuilder artistQueryString = new QueryStringBuilder();
-        artistQueryString.addNameValue("action", "artists");
-        artistQueryString.addNameValue("auth", token);
-        artistQueryString.addNameValue("filter", artist.isEmpty() ? query : artist);
-        artistQueryString.addNameValue("limit", String.valueOf(SEARCH_MAX_ARTISTS));
+        QueryStringBuilder queryString = new QueryStringBuilder();
+        queryString.addNameValue("action", "ping");
+        queryString.addNameValue("auth", token);
 
+        URL callUrl;
         try {
-            url = new URL(baseUrl.toString() + API_PATH + "?" + artistQueryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             errorMessage = e.getMessage();
-            return new HashMap<>();
+            return false;
         }
 
-        Vector<HashMap<String, String>> artists = blockingTransactionMulti(url, "artist", nameTagNeeded);
+        Vector<String> tagsNeeded = new Vector<>();
+        tagsNeeded.add("error");
+        tagsNeeded.add("session_expire");
 
-        nameTagNeeded.add("artist");
-        nameTagNeeded.add("art");
+        HashMap<String, String> results = blockingTransaction(callUrl, tagsNeeded);
 
-        QueryStringBuilder albumsQueryString = new QueryStringBuilder();
-        albumsQueryString.addNameValue("action", "albums");
-        albumsQueryString.addNameValue("auth", token);
-        albumsQueryString.addNameValue("filter", album.isEmpty() ? query : album);
-        albumsQueryString.addNameValue("limit", String.valueOf(SEARCH_MAX_ALBUMS));
+        if (!errorMessage.isEmpty() || results.containsKey("error") || !results.containsKey("session_expire")) {
+            return false;
+        }
 
-        try {
-            url = new URL(baseUrl.toString() + API_PATH + "?" + albumsQueryString.getQueryString());
+        sessionExpire = parseSessionExpire(results.get("session_expire"));
+        return true;
+    }
+
+
+    public HashMap<Integer, Vector<HashMap<String, String>>> search(String token, Bundle searchParameters)
+    {
+        if (baseUrl == null) {
+            setErrorMessage(com.pppphun.amproid.shared.R.string.error_invalid_server_url);
+            return new HashMap<>();
         }
-        catch (Exception e) {
-            errorMessage = e.getMessage();
+        if (token.isEmpty()) {
+            setErrorMessage(com.pppphun.amproid.shared.R.string.error_blank_token);
             return new HashMap<>();
         }
 
-        Vector<HashMap<String, String>> albums        = blockingTransactionMulti(url, "album", nameTagNeeded);
-        Vector<HashMap<String, String>> artist_albums = new Vector<>();
+        String query  = bundleGetString(searchParameters, "query");
+        String artist = bundleGetString(searchParameters, "android.intent.extra.artist");
+        String album  = bundleGetString(searchParameters, "android.intent.extra.album");
+        String title  = bundleGetString(searchParameters, "android.intent.extra.title");
 
-        for (HashMap<String, String> foundArtist : artists) {
-            if (!foundArtist.containsKey("id")) {
-                continue;
-            }
+        errorMessage = "";
 
-            QueryStringBuilder artistAlbumsQueryString = new QueryStringBuilder();
-            artistAlbumsQueryString.addNameValue("action", "artist_albums");
-            artistAlbumsQueryString.addNameValue("auth", token);
-            artistAlbumsQueryString.addNameValue("filter", foundArtist.get("id"));
-            artistAlbumsQueryString.addNameValue("limit", String.valueOf(SEARCH_MAX_ALBUMS));
+        HashMap<Integer, Vector<HashMap<String, String>>> returnValue;
+        if (concurrentSearch) {
+            returnValue = searchConcurrently(token, query, artist, album, title);
+        }
+        else {
+            returnValue = new HashMap<>();
 
-            try {
-                url = new URL(baseUrl.toString() + API_PATH + "?" + artistAlbumsQueryString.getQueryString());
+            Vector<HashMap<String, String>> advanced = new Vector<>();
+            if ((title.length() > 0) && (artist.length() > 0)) {
+                advanced = searchAdvanced(token, title, artist, album);
             }
-            catch (Exception e) {
-                errorMessage = e.getMessage();
-                return new HashMap<>();
+
+            Vector<HashMap<String, String>> artists       = searchQuery(token, "artists", artist.isEmpty() ? query : artist, SEARCH_MAX_ARTISTS, "artist", nameTagsNeeded());
+            Vector<HashMap<String, String>> albums        = searchQuery(token, "albums", album.isEmpty() ? query : album, SEARCH_MAX_ALBUMS, "album", nameArtistTagsNeeded());
+            Vector<HashMap<String, String>> artist_albums = new Vector<>();
+            for (HashMap<String, String> foundArtist : artists) {
+                if (!foundArtist.containsKey("id")) {
+                    continue;
+                }
+                artist_albums.addAll(searchQuery(token, "artist_albums", foundArtist.get("id"), SEARCH_MAX_ALBUMS, "album", nameArtistTagsNeeded()));
             }
 
-            artist_albums.addAll(blockingTransactionMulti(url, "album", nameTagNeeded));
+            returnValue.put(SEARCH_RESULTS_SONGS, searchQuery(token, "songs", title.isEmpty() ? query : title, SEARCH_MAX_SONGS, "song", titleTagsNeeded()));
+            returnValue.put(SEARCH_RESULTS_ALBUMS, albums);
+            returnValue.put(SEARCH_RESULTS_ARTIST_ALBUMS, artist_albums);
+            returnValue.put(SEARCH_RESULTS_ARTISTS, artists);
+            returnValue.put(SEARCH_RESULTS_ADVANCED, advanced);
+            returnValue.put(SEARCH_RESULTS_TAGS, searchQuery(token, "genres", query, SEARCH_MAX_TAGS, "genre", nameArtistTagsNeeded()));
+            returnValue.put(SEARCH_RESULTS_RADIOS, searchQuery(token, "live_streams", query, SEARCH_MAX_RADIOS, "live_stream", nameArtistTagsNeeded()));
         }
 
-        QueryStringBuilder songsQueryString = new QueryStringBuilder();
-        songsQueryString.addNameValue("action", "songs");
-        songsQueryString.addNameValue("auth", token);
-        songsQueryString.addNameValue("filter", title.isEmpty() ? query : title);
-        songsQueryString.addNameValue("limit", String.valueOf(SEARCH_MAX_SONGS));
-
-        try {
-            url = new URL(baseUrl.toString() + API_PATH + "?" + songsQueryString.getQueryString());
-        }
-        catch (Exception e) {
-            errorMessage = e.getMessage();
+        if (cancelled) {
             return new HashMap<>();
         }
 
-        Vector<HashMap<String, String>> songs = blockingTransactionMulti(url, "song", titleTagNeeded);
-
-        if ((songs.size() < 1) && (albums.size() < 1) && (artist_albums.size() < 1) && (artists.size() < 1)) {
+        Vector<HashMap<String, String>> songs = returnValue.get(SEARCH_RESULTS_SONGS);
+        if ((songs != null) && (songs.size() < 1) && isEmptyResult(returnValue.get(SEARCH_RESULTS_ALBUMS)) && isEmptyResult(returnValue.get(SEARCH_RESULTS_ARTIST_ALBUMS)) && isEmptyResult(returnValue.get(SEARCH_RESULTS_ARTISTS))) {
             Vector<String> toCheck = new Vector<>();
 
             String[] pieces = query.split("\\s");
@@ -838,21 +929,11 @@ public class AmpacheAPICaller
             });
 
             for (String check : toCheck) {
-                QueryStringBuilder checkQueryString = new QueryStringBuilder();
-                checkQueryString.addNameValue("action", "songs");
-                checkQueryString.addNameValue("auth", token);
-                checkQueryString.addNameValue("filter", check);
-                checkQueryString.addNameValue("limit", String.valueOf(SEARCH_MAX_SONGS));
-
-                try {
-                    url = new URL(baseUrl.toString() + API_PATH + "?" + checkQueryString.getQueryString());
-                }
-                catch (Exception e) {
-                    errorMessage = e.getMessage();
+                if (cancelled) {
                     return new HashMap<>();
                 }
 
-                songs.addAll(blockingTransactionMulti(url, "song", titleTagNeeded));
+                songs.addAll(searchQuery(token, "songs", check, SEARCH_MAX_SONGS, "song", titleTagsNeeded()));
 
                 if (songs.size() > 0) {
                     break;
@@ -860,99 +941,56 @@ public class AmpacheAPICaller
             }
         }
 
-        QueryStringBuilder tagsQueryString = new QueryStringBuilder();
-        tagsQueryString.addNameValue("action", "genres");
-        tagsQueryString.addNameValue("auth", token);
-        tagsQueryString.addNameValue("filter", query);
-        tagsQueryString.addNameValue("limit", String.valueOf(SEARCH_MAX_TAGS));
-
-        try {
-            url = new URL(baseUrl.toString() + API_PATH + "?" + tagsQueryString.getQueryString());
-        }
-        catch (Exception e) {
-            errorMessage = e.getMessage();
-            return new HashMap<>();
-        }
-
-        Vector<HashMap<String, String>> tags = blockingTransactionMulti(url, "genre", nameTagNeeded);
-        try {
-            for (HashMap<String, String> tag : tags) {
-                tag.replace("id", URLEncoder.encode(tag.get("name"), StandardCharsets.UTF_8.toString()));
+        Vector<HashMap<String, String>> tags = returnValue.get(SEARCH_RESULTS_TAGS);
+        if (tags != null) {
+            try {
+                for (HashMap<String, String> tag : tags) {
+                    tag.replace("id", URLEncoder.encode(tag.get("name"), StandardCharsets.UTF_8.toString()));
+                }
+            }
+            catch (Exception e) {
+                // in case UTF-8 is not supported, pretty much never happens with min SDK version being what it is
+                tags.clear();
             }
-        }
-        catch (Exception e) {
-            // in case UTF-8 is not supported, pretty much never happens with min SDK version being what it is
-            tags.clear();
-        }
-
-        QueryStringBuilder radiosQueryString = new QueryStringBuilder();
-        radiosQueryString.addNameValue("action", "live_streams");
-        radiosQueryString.addNameValue("auth", token);
-        radiosQueryString.addNameValue("filter", query);
-        radiosQueryString.addNameValue("limit", String.valueOf(SEARCH_MAX_RADIOS));
-
-        try {
-            url = new URL(baseUrl.toString() + API_PATH + "?" + radiosQueryString.getQueryString());
-        }
-        catch (Exception e) {
-            errorMessage = e.getMessage();
-            return new HashMap<>();
         }
 
-        Vector<HashMap<String, String>> radios = blockingTransactionMulti(url, "live_stream", nameTagNeeded);
+        return returnValue;
+    }
 
-        HashMap<Integer, Vector<HashMap<String, String>>> returnValue = new HashMap<>();
-        returnValue.put(SEARCH_RESULTS_SONGS, songs);
-        returnValue.put(SEARCH_RESULTS_ALBUMS, albums);
-        returnValue.put(SEARCH_RESULTS_ARTIST_ALBUMS, artist_albums);
-        returnValue.put(SEARCH_RESULTS_ARTISTS, artists);
-        returnValue.put(SEARCH_RESULTS_ADVANCED, advanced);
-        returnValue.put(SEARCH_RESULTS_TAGS, tags);
-        returnValue.put(SEARCH_RESULTS_RADIOS, radios);
 
-        return returnValue;
+    public void setConcurrentSearch(boolean concurrentSearch)
+    {
+        this.concurrentSearch = concurrentSearch;
     }
 
 
-    public boolean tokenTest(String token)
+    public void warmUp()
     {
         if (baseUrl == null) {
-            setErrorMessage(com.pppphun.amproid.shared.R.string.error_invalid_server_url);
-            return false;
-        }
-        if (token.isEmpty()) {
-            setErrorMessage(com.pppphun.amproid.shared.R.string.error_blank_token);
-            return false;
+            return;
         }
 
-        errorMessage = "";
+        AmpacheTransport.getInstance().warmUp(baseUrl.toString(), apiPath);
+    }
 
-        QueryStringBuilder queryString = new QueryStringBuilder();
-        queryString.addNameValue("action", "playlist_generate");
-        queryString.addNameValue("auth", token);
-        queryString.addNameValue("limit", "1");
-        queryString.addNameValue("format", "index");
 
-        URL callUrl;
-        try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+    private void addTransfer(@NotNull URL url, AmpacheTransport.ResponseStream responseStream, long started, long connected, long firstByte, int rows, boolean succeeded)
+    {
+        String action = queryValue(url, "action");
+
+        // time to first byte is until the response headers arrive, parsing reads the body as it comes
+        if (responseStream != null) {
+            ApiMetrics.getInstance().addTransfer(action, responseStream.getWireBytes(), responseStream.getDecodedBytes(), connected - started, firstByte - started, System.currentTimeMillis() - firstByte, succeeded ? rows : -1);
         }
-        catch (Exception e) {
-            errorMessage = e.getMessage();
-            return false;
+        else {
+            // no response at all, these are the slowest calls, they're not left out
+            ApiMetrics.getInstance().addTransfer(action, 0, 0, connected - started, -1, -1, -1);
         }
 
-        Vector<String> tagsNeeded = new Vector<>();
-        tagsNeeded.add("error");
-        tagsNeeded.add("total_count");
-
-        HashMap<String, String> results = blockingTransaction(callUrl, tagsNeeded);
-
-        if (!errorMessage.isEmpty()) {
-            return false;
+        // failed calls would skew the latencies timeouts are based on
+        if (succeeded && !cancelled) {
+            ApiMetrics.getInstance().addLatency(action, System.currentTimeMillis() - started);
         }
-
-        return !results.containsKey("error") && results.containsKey("total_count");
     }
 
 
@@ -1006,200 +1044,402 @@ public class AmpacheAPICaller
     {
         HashMap<String, String> results = new HashMap<>();
 
-        HttpURLConnection connection;
-        try {
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setDoInput(true);
-            connection.setConnectTimeout(NETWORK_CONNECT_TIMEOUT);
-            connection.setReadTimeout(NETWORK_READ_TIMEOUT);
-            connection.connect();
+        networkFailure = false;
+        if (cancelled) {
+            return results;
         }
-        catch (Exception e) {
-            errorMessage = e.getMessage();
+
+        // the server is known to be down, don't wait for it to time out again
+        CircuitBreaker breaker = breaker();
+        if (!breaker.allowRequest()) {
+            setErrorMessage(R.string.error_server_unavailable);
             return results;
         }
 
-        try {
-            XmlPullParserFactory xmlPullParserFactory = XmlPullParserFactory.newInstance();
-            xmlPullParserFactory.setNamespaceAware(false);
+        String action  = queryValue(url, "action");
+        long   started = System.currentTimeMillis();
 
-            XmlPullParser xmlPullParser = xmlPullParserFactory.newPullParser();
-            xmlPullParser.setInput(new BufferedReader(new InputStreamReader(connection.getInputStream())));
+        HttpURLConnection connection;
+        try {
+            connection = AmpacheTransport.getInstance().open(url, timeoutBudget(action, MIN_CONNECT_TIMEOUT, NETWORK_CONNECT_TIMEOUT), timeoutBudget(action, MIN_READ_TIMEOUT, NETWORK_READ_TIMEOUT));
+        }
+        catch (Exception e) {
+            // connecting is how a server that's down fails, it counts the most
+            errorMessage   = e.getMessage();
+            networkFailure = true;
+            addTransfer(url, null, started, System.currentTimeMillis(), -1, 0, false);
+            recordHealth(breaker);
+            return results;
+        }
+        activeConnection = connection;
 
-            String currentElement = "";
+        long connected = System.currentTimeMillis();
+        long firstByte = connected;
 
-            int xmlState = xmlPullParser.getEventType();
-            while (xmlState != XmlPullParser.END_DOCUMENT) {
-                if (xmlState == XmlPullParser.START_TAG) {
-                    currentElement = xmlPullParser.getName();
-                }
-                else if (xmlState == XmlPullParser.END_TAG) {
-                    currentElement = "";
+        AmpacheTransport.ResponseStream responseStream = null;
+        boolean                         succeeded      = false;
+        try {
+            responseStream = AmpacheTransport.getInstance().responseStream(connection);
+            firstByte      = System.currentTimeMillis();
+            if (apiFormat.equals(Amproid.API_FORMAT_JSON)) {
+                AmpacheJsonReader jsonReader = new AmpacheJsonReader();
+                results.putAll(jsonReader.read(responseStream, tags));
+                if (!jsonReader.getErrorMessage().isEmpty()) {
+                    errorMessage = jsonReader.getErrorMessage();
                 }
-                else if (xmlState == XmlPullParser.TEXT) {
-                    if (tags.contains(currentElement)) {
-                        results.put(currentElement, xmlPullParser.getText());
-                    }
-                    else if ((currentElement.compareTo("error") == 0) || (currentElement.compareTo("errorMessage") == 0)) {
-                        String errorText = "";
-                        try {
-                            errorText = xmlPullParser.getText().trim();
-                        }
-                        catch (Exception ignored) {
-                        }
-                        if (errorText.length() > 0) {
-                            errorMessage = errorText;
-                            break;
-                        }
-                    }
+                succeeded = jsonReader.getErrorMessage().isEmpty();
+            }
+            else {
+                AmpacheXmlReader xmlReader = new AmpacheXmlReader();
+                xmlReader.read(responseStream, tags, results);
+                if (!xmlReader.getErrorMessage().isEmpty()) {
+                    errorMessage = xmlReader.getErrorMessage();
                 }
-                xmlState = xmlPullParser.next();
+                succeeded = xmlReader.getErrorMessage().isEmpty();
             }
         }
         catch (Exception e) {
-            errorMessage = e.getMessage();
+            errorMessage   = e.getMessage();
+            networkFailure = (e instanceof IOException);
         }
+        addTransfer(url, responseStream, started, connected, firstByte, results.isEmpty() ? 0 : 1, succeeded);
+        recordHealth(breaker);
 
+        activeConnection = null;
+        AmpacheTransport.getInstance().release(connection);
 
         return results;
     }
 
 
     private Vector<HashMap<String, String>> blockingTransactionMulti(@NotNull URL url, @NotNull String repeatingTag, @NotNull Vector<String> subTags)
+    {
+        return blockingTransactionMulti(url, repeatingTag, subTags, null);
+    }
+
+
+    private Vector<HashMap<String, String>> blockingTransactionMulti(@NotNull URL url, @NotNull String repeatingTag, @NotNull Vector<String> subTags, RowListener rowListener)
     {
         Vector<HashMap<String, String>> results = new Vector<>();
 
+        networkFailure = false;
+        if (cancelled) {
+            return results;
+        }
+
+        // the server is known to be down, don't wait for it to time out again
+        CircuitBreaker breaker = breaker();
+        if (!breaker.allowRequest()) {
+            setErrorMessage(R.string.error_server_unavailable);
+            return results;
+        }
+
+        String action  = queryValue(url, "action");
+        long   started = System.currentTimeMillis();
+
         HttpURLConnection connection;
         try {
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setDoInput(true);
-            connection.setConnectTimeout(NETWORK_CONNECT_TIMEOUT);
-            connection.setReadTimeout(NETWORK_READ_TIMEOUT);
-            connection.connect();
+            connection = AmpacheTransport.getInstance().open(url, timeoutBudget(action, MIN_CONNECT_TIMEOUT, NETWORK_CONNECT_TIMEOUT), timeoutBudget(action, MIN_READ_TIMEOUT, NETWORK_READ_TIMEOUT));
         }
         catch (Exception e) {
-            errorMessage = e.getMessage();
+            // connecting is how a server that's down fails, it counts the most
+            errorMessage   = e.getMessage();
+            networkFailure = true;
+            addTransfer(url, null, started, System.currentTimeMillis(), -1, 0, false);
+            recordHealth(breaker);
             return results;
         }
+        activeConnection = connection;
 
-        HashMap<String, String> subResults = null;
+        long connected = System.currentTimeMillis();
+        long firstByte = connected;
 
+        AmpacheTransport.ResponseStream responseStream = null;
+        boolean                         succeeded      = false;
         try {
-            XmlPullParserFactory xmlPullParserFactory = XmlPullParserFactory.newInstance();
-            xmlPullParserFactory.setNamespaceAware(false);
-
-            XmlPullParser xmlPullParser = xmlPullParserFactory.newPullParser();
-            xmlPullParser.setInput(connection.getInputStream(), null);
-
-            String currentElement    = "";
-            String currentErrorCode  = "";
-            String lastDeepName      = "";
-            int    level             = 0;
-            int    repeatingTagLevel = 0;
-
-            int xmlState = xmlPullParser.getEventType();
-            while (xmlState != XmlPullParser.END_DOCUMENT) {
-                if (xmlState == XmlPullParser.START_TAG) {
-                    level++;
-                    currentElement = xmlPullParser.getName();
-
-                    String id = "";
-
-                    int i = 0;
-                    while (i < xmlPullParser.getAttributeCount()) {
-                        if (xmlPullParser.getAttributeName(i).compareTo("id") == 0) {
-                            id = String.valueOf(xmlPullParser.getAttributeValue(i));
-                            break;
-                        }
-                        else if ((currentElement.compareTo("error") == 0) && ((xmlPullParser.getAttributeName(i).compareTo("code") == 0) || (xmlPullParser.getAttributeName(i).compareTo("errorCode") == 0))) {
-                            currentErrorCode = String.valueOf(xmlPullParser.getAttributeValue(i));
-                            break;
+            responseStream = AmpacheTransport.getInstance().responseStream(connection);
+            firstByte      = System.currentTimeMillis();
+            if (apiFormat.equals(Amproid.API_FORMAT_JSON)) {
+                AmpacheJsonReader jsonReader = new AmpacheJsonReader();
+                results.addAll(jsonReader.readMulti(responseStream, repeatingTag, subTags, rowListener));
+                if (!jsonReader.getErrorMessage().isEmpty()) {
+                    errorMessage = jsonReader.getErrorMessage();
+                }
+                succeeded = jsonReader.getErrorMessage().isEmpty();
+            }
+            else {
+                AmpacheXmlReader xmlReader = new AmpacheXmlReader();
+                xmlReader.readMulti(responseStream, repeatingTag, subTags, results, rowListener);
+                if (!xmlReader.getErrorMessage().isEmpty()) {
+                    errorMessage = xmlReader.getErrorMessage();
+                }
+                succeeded = xmlReader.getErrorMessage().isEmpty();
+            }
+        }
+        catch (Exception e) {
+            errorMessage   = e.getMessage();
+            networkFailure = (e instanceof IOException);
+        }
+        addTransfer(url, responseStream, started, connected, firstByte, results.size(), succeeded);
+        recordHealth(breaker);
+
+        activeConnection = null;
+        AmpacheTransport.getInstance().release(connection);
+
+        return results;
+    }
+
+
+    private CircuitBreaker breaker()
+    {
+        return CircuitBreaker.forServer(baseUrl.toString(), apiPath);
+    }
+
+
+    private String cacheKey(@NotNull URL url, @NotNull String repeatingTag, @NotNull Vector<String> subTags)
+    {
+        StringBuilder key = new StringBuilder(baseUrl.toString()).append(apiPath).append("?");
+
+        String query = url.getQuery() == null ? "" : url.getQuery();
+        for (String part : query.split("&")) {
+            if (!part.startsWith("auth=")) {
+                key.append(part).append("&");
+            }
+        }
+
+        // the same action may be parsed for different elements
+        key.append("#").append(repeatingTag);
+        for (String subTag : subTags) {
+            key.append(",").append(subTag);
+        }
+
+        return key.toString();
+    }
+
+
+    private Vector<HashMap<String, String>> cachedTransactionMulti(@NotNull URL url, @NotNull String repeatingTag, @NotNull Vector<String> subTags)
+    {
+        String action = queryValue(url, "action");
+        if (!ApiResponseCache.isCacheable(action)) {
+            return sharedTransactionMulti(url, repeatingTag, subTags);
+        }
+
+        // while the server is down, results of any age are better than none
+        boolean                serverAvailable = breaker().allowRequest();
+        ApiResponseCache       cache           = ApiResponseCache.getInstance();
+        String                 key             = cacheKey(url, repeatingTag, subTags);
+        ApiResponseCache.Entry entry           = cache.get(key, action, !serverAvailable);
+
+        if (entry != null) {
+            // stale results are still good for now, fresh ones will be there for next time
+            if (serverAvailable && entry.isStale(action) && cache.startRevalidation(key)) {
+                AmpacheAPICaller revalidator = new AmpacheAPICaller(baseUrl, apiFormat, apiPath);
+                AmpacheTransport.getInstance().execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Vector<HashMap<String, String>> results = revalidator.blockingTransactionMulti(url, repeatingTag, subTags);
+                        if (revalidator.getErrorMessage().isEmpty()) {
+                            cache.put(key, results);
                         }
-                        i++;
+                        cache.endRevalidation(key);
                     }
+                });
+            }
+            return entry.getResults(queryValue(url, "auth"));
+        }
 
-                    if (currentElement.compareTo(repeatingTag) == 0) {
-                        repeatingTagLevel = level;
+        Vector<HashMap<String, String>> results = sharedTransactionMulti(url, repeatingTag, subTags);
+        if (errorMessage.isEmpty() && !cancelled) {
+            cache.put(key, results);
+        }
 
-                        subResults = new HashMap<>();
-                        results.add(subResults);
+        return results;
+    }
 
-                        if (!id.isEmpty()) {
-                            subResults.put("id", id);
-                        }
+
+    // an idempotent call that takes longer than most calls of the same action is raced by an identical one, a call failing on the network is tried once more
+    private Vector<HashMap<String, String>> hedgedTransactionMulti(@NotNull URL url, @NotNull String repeatingTag, @NotNull Vector<String> subTags)
+    {
+        String action = queryValue(url, "action");
+        if (!isRepeatable(url, action)) {
+            return blockingTransactionMulti(url, repeatingTag, subTags);
+        }
+
+        AmpacheAPICaller primary = newWorker();
+        Hedge            hedge   = new Hedge(newWorker());
+
+        // no hedging until there's enough history to know what's slow
+        long hedgeDelay = ApiMetrics.getInstance().latencyPercentile(action, 95);
+        if (hedgeDelay >= 0) {
+            hedge.timer = AmpacheTransport.getInstance().schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!hedge.state.compareAndSet(Hedge.PENDING, Hedge.RUNNING)) {
+                        return;
                     }
-                    else if (subTags.contains(currentElement)) {
-                        if (!id.isEmpty() && (subResults != null)) {
-                            subResults.put(currentElement + "_id", id);
+
+                    try {
+                        hedge.results = hedge.caller.blockingTransactionMulti(url, repeatingTag, subTags);
+                        if (hedge.caller.succeeded() && hedge.winner.compareAndSet(null, hedge.caller)) {
+                            primary.cancel();
                         }
+                        ApiMetrics.getInstance().addHedge(action, hedge.winner.get() == hedge.caller);
                     }
-                }
-                else if (xmlState == XmlPullParser.END_TAG) {
-                    if (currentElement.compareTo("error") == 0) {
-                        currentErrorCode = "";
+                    finally {
+                        hedge.done.countDown();
                     }
+                }
+            }, Math.max(MIN_HEDGE_DELAY, hedgeDelay));
+        }
 
-                    String endingElement = xmlPullParser.getName();
-                    if (subTags.contains(endingElement) && (subResults != null) && !lastDeepName.isEmpty()) {
-                        if (((endingElement.compareTo("tag") == 0) || (endingElement.compareTo("genre") == 0)) && (subResults.containsKey(endingElement))) {
-                            String tags = subResults.get(endingElement);
-                            tags = tags + (char) 255 + lastDeepName;
-                            subResults.put(endingElement, tags);
-                        } else if (!subResults.containsKey(endingElement)) {
-                            subResults.put(endingElement, lastDeepName);
-                        }
-                        lastDeepName = "";
-                    }
+        Vector<HashMap<String, String>> results  = primary.blockingTransactionMulti(url, repeatingTag, subTags);
+        int                             attempts = 1;
+
+        if (primary.succeeded() && hedge.winner.compareAndSet(null, primary)) {
+            hedge.abandon();
+        }
+        else if (!cancelled && (hedge.winner.get() == null)) {
+            if (hedge.state.compareAndSet(Hedge.PENDING, Hedge.ABANDONED)) {
+                // the hedge did not start yet, so there's just the one failed attempt; the server saying no is not worth repeating
+                if (primary.networkFailure) {
+                    ApiMetrics.getInstance().addRetry(action);
+                    attempts++;
 
-                    currentElement = "";
-                    level--;
+                    results = hedge.caller.blockingTransactionMulti(url, repeatingTag, subTags);
+                    if (hedge.caller.succeeded()) {
+                        hedge.winner.set(hedge.caller);
+                    }
                 }
-                else if (xmlState == XmlPullParser.TEXT) {
-                    String text = xmlPullParser.getText();
-
-                    if (!text.trim().isEmpty()) {
-                        if ((currentElement.compareTo("error") == 0) || (currentElement.compareTo("errorMessage") == 0)) {
-                            String errorText = "";
-                            try {
-                                errorText = text.trim();
-                            }
-                            catch (Exception ignored) {
-                            }
-                            if (errorText.length() > 0) {
-                                // do not error on "not found", an empty set will be returned
-                                if ((currentErrorCode.compareTo("4704") != 0) && (currentErrorCode.compareTo("404") != 0)) {
-                                    errorMessage = errorText;
-                                    break;
-                                }
-                            }
-                        }
-                        if ((level <= repeatingTagLevel + 1) && subTags.contains(currentElement) && (subResults != null)) {
-                            if (((currentElement.compareTo("tag") == 0) || (currentElement.compareTo("genre") == 0)) && (subResults.containsKey(currentElement))) {
-                                String tags = subResults.get(currentElement);
-                                tags = tags + (char) 255 + text;
-                                subResults.put(currentElement, tags);
-                            } else {
-                                subResults.put(currentElement, text);
-                            }
-                        }
-                        if ((level > repeatingTagLevel + 1) && (currentElement.compareTo("name") == 0)) {
-                            lastDeepName = text;
+                hedge.abandon();
+            }
+            else {
+                // the hedge is under way, it's the last chance
+                attempts++;
+                try {
+                    while (!hedge.done.await(100, TimeUnit.MILLISECONDS)) {
+                        if (cancelled) {
+                            break;
                         }
                     }
                 }
-                xmlState = xmlPullParser.next();
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
         }
-        catch (Exception e) {
-            errorMessage = e.getMessage();
+
+        if (hedge.winner.get() == hedge.caller) {
+            results = hedge.results;
         }
+        else if (hedge.winner.get() == null) {
+            results = new Vector<>();
+            if (!cancelled) {
+                String failure = primary.errorMessage.isEmpty() ? hedge.caller.errorMessage : primary.errorMessage;
+                if (attempts > 1) {
+                    setErrorMessage(com.pppphun.amproid.shared.R.string.error_after_attempts, failure, attempts);
+                }
+                else {
+                    errorMessage = failure;
+                }
+                ApiMetrics.getInstance().addFailure(action, attempts);
+            }
+        }
+
+        removeWorker(primary);
+        removeWorker(hedge.caller);
 
         return results;
     }
 
 
+    private boolean isEmptyResult(Vector<HashMap<String, String>> result)
+    {
+        return (result == null) || result.isEmpty();
+    }
+
+
+    // only a call returning the same result each time is worth racing, a random one's second answer is thrown away for nothing
+    private boolean isRepeatable(@NotNull URL url, String action)
+    {
+        if ((action == null) || !idempotentActions.contains(action)) {
+            return false;
+        }
+
+        return !"1".equals(queryValue(url, "random")) && !"random".equals(queryValue(url, "filter"));
+    }
+
+
+    private Vector<HashMap<String, String>> joinSearch(Future<Vector<HashMap<String, String>>> searchFuture)
+    {
+        if (searchFuture == null) {
+            return new Vector<>();
+        }
+
+        try {
+            return searchFuture.get();
+        }
+        catch (Exception e) {
+            // cancelled or interrupted, in which case the search is abandoned anyway, or the worker failed, in which case it has the error message
+            return new Vector<>();
+        }
+    }
+
+
+    private Vector<String> nameArtistTagsNeeded()
+    {
+        Vector<String> tagsNeeded = nameTagsNeeded();
+        tagsNeeded.add("artist");
+
+        return tagsNeeded;
+    }
+
+
+    private Vector<String> nameTagsNeeded()
+    {
+        Vector<String> tagsNeeded = new Vector<>();
+        tagsNeeded.add("name");
+        tagsNeeded.add("art");
+
+        return tagsNeeded;
+    }
+
+
+    private AmpacheAPICaller newWorker()
+    {
+        // each concurrent call needs its own instance, so that error messages and active connections are not shared
+        AmpacheAPICaller worker = new AmpacheAPICaller(baseUrl, apiFormat, apiPath);
+        synchronized (workers) {
+            workers.add(worker);
+        }
+        if (cancelled) {
+            worker.cancel();
+        }
+
+        return worker;
+    }
+
+
+    // ISO 8601 as sent by the server, 0 if missing or malformed
+    private long parseSessionExpire(String sessionExpireString)
+    {
+        if ((sessionExpireString == null) || sessionExpireString.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.US).parse(sessionExpireString.trim()).getTime();
+        }
+        catch (Exception ignored) {
+        }
+
+        return 0;
+    }
+
+
     /*
     NOTE: this isn't in use currently, but there's a chance it will be needed again in the future
 
@@ -1214,7 +1454,7 @@ public class AmpacheAPICaller
 
         URL callUrl;
         try {
-            callUrl = new URL(baseUrl.toString() + API_PATH + "?" + queryString.getQueryString());
+            callUrl = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
         }
         catch (Exception e) {
             return 0;
@@ -1230,12 +1470,302 @@ public class AmpacheAPICaller
     */
 
 
+    private String queryValue(@NotNull URL url, @NotNull String name)
+    {
+        String query = url.getQuery() == null ? "" : url.getQuery();
+        for (String part : query.split("&")) {
+            if (part.startsWith(name + "=")) {
+                return part.substring(name.length() + 1);
+            }
+        }
+
+        return null;
+    }
+
+
+    // a response of any kind, even an error, means the server is up; cancelled calls tell nothing
+    private void recordHealth(CircuitBreaker breaker)
+    {
+        if (cancelled) {
+            return;
+        }
+
+        if (networkFailure) {
+            breaker.recordFailure();
+        }
+        else {
+            breaker.recordSuccess();
+        }
+    }
+
+
+    private void removeWorker(AmpacheAPICaller worker)
+    {
+        synchronized (workers) {
+            workers.remove(worker);
+        }
+    }
+
+
+    private Vector<HashMap<String, String>> searchAdvanced(String token, String title, String artist, String album)
+    {
+        QueryStringBuilder advancedQueryString = new QueryStringBuilder();
+        advancedQueryString.addNameValue("action", "advanced_search");
+        advancedQueryString.addNameValue("auth", token);
+        advancedQueryString.addNameValue("type", "song");
+        advancedQueryString.addNameValue("random", "1");
+        advancedQueryString.addNameValue("limit", String.valueOf(SEARCH_MAX_SONGS));
+        advancedQueryString.addNameValue("rule_1", "title");
+        advancedQueryString.addNameValue("rule_1_operator", "0");
+        advancedQueryString.addNameValue("rule_1_input", title);
+        advancedQueryString.addNameValue("rule_2", "artist");
+        advancedQueryString.addNameValue("rule_2_operator", "0");
+        advancedQueryString.addNameValue("rule_2_input", artist);
+        if (album.length() > 0) {
+            advancedQueryString.addNameValue("rule_3", "album");
+            advancedQueryString.addNameValue("rule_3_operator", "0");
+            advancedQueryString.addNameValue("rule_3_input", album);
+        }
+
+        URL url;
+        try {
+            url = new URL(baseUrl.toString() + apiPath + "?" + advancedQueryString.getQueryString());
+        }
+        catch (Exception e) {
+            errorMessage = e.getMessage();
+            return new Vector<>();
+        }
+
+        Vector<HashMap<String, String>> advanced = blockingTransactionMulti(url, "song", titleTagsNeeded());
+
+        if ((advanced.size() < 1) && (album.length() > 0)) {
+            advancedQueryString.removeName("rule_3");
+            advancedQueryString.removeName("rule_3_operator");
+            advancedQueryString.removeName("rule_3_input");
+
+            try {
+                url = new URL(baseUrl.toString() + apiPath + "?" + advancedQueryString.getQueryString());
+            }
+            catch (Exception e) {
+                errorMessage = e.getMessage();
+                return new Vector<>();
+            }
+
+            advanced.addAll(blockingTransactionMulti(url, "song", titleTagsNeeded()));
+        }
+
+        return advanced;
+    }
+
+
+    private HashMap<Integer, Vector<HashMap<String, String>>> searchConcurrently(String token, String query, String artist, String album, String title)
+    {
+        // the actions are independent of each other, except artist_albums which needs the found artists first
+        Future<Vector<HashMap<String, String>>> advancedFuture = null;
+        if ((title.length() > 0) && (artist.length() > 0)) {
+            AmpacheAPICaller advancedWorker = newWorker();
+            advancedFuture = submitSearch(() -> advancedWorker.searchAdvanced(token, title, artist, album));
+        }
+
+        AmpacheAPICaller artistsWorker = newWorker();
+        AmpacheAPICaller albumsWorker  = newWorker();
+        AmpacheAPICaller songsWorker   = newWorker();
+        AmpacheAPICaller tagsWorker    = newWorker();
+        AmpacheAPICaller radiosWorker  = newWorker();
+
+        Future<Vector<HashMap<String, String>>> artistsFuture = submitSearch(() -> artistsWorker.searchQuery(token, "artists", artist.isEmpty() ? query : artist, SEARCH_MAX_ARTISTS, "artist", nameTagsNeeded()));
+        Future<Vector<HashMap<String, String>>> albumsFuture  = submitSearch(() -> albumsWorker.searchQuery(token, "albums", album.isEmpty() ? query : album, SEARCH_MAX_ALBUMS, "album", nameArtistTagsNeeded()));
+        Future<Vector<HashMap<String, String>>> songsFuture   = submitSearch(() -> songsWorker.searchQuery(token, "songs", title.isEmpty() ? query : title, SEARCH_MAX_SONGS, "song", titleTagsNeeded()));
+        Future<Vector<HashMap<String, String>>> tagsFuture    = submitSearch(() -> tagsWorker.searchQuery(token, "genres", query, SEARCH_MAX_TAGS, "genre", nameArtistTagsNeeded()));
+        Future<Vector<HashMap<String, String>>> radiosFuture  = submitSearch(() -> radiosWorker.searchQuery(token, "live_streams", query, SEARCH_MAX_RADIOS, "live_stream", nameArtistTagsNeeded()));
+
+        Vector<HashMap<String, String>> artists = joinSearch(artistsFuture);
+
+        Vector<Future<Vector<HashMap<String, String>>>> artistAlbumsFutures = new Vector<>();
+        for (HashMap<String, String> foundArtist : artists) {
+            if (cancelled) {
+                break;
+            }
+            if (!foundArtist.containsKey("id")) {
+                continue;
+            }
+
+            String           artistId           = foundArtist.get("id");
+            AmpacheAPICaller artistAlbumsWorker = newWorker();
+            artistAlbumsFutures.add(submitSearch(() -> artistAlbumsWorker.searchQuery(token, "artist_albums", artistId, SEARCH_MAX_ALBUMS, "album", nameArtistTagsNeeded())));
+        }
+
+        HashMap<Integer, Vector<HashMap<String, String>>> returnValue = new HashMap<>();
+        returnValue.put(SEARCH_RESULTS_ADVANCED, joinSearch(advancedFuture));
+        returnValue.put(SEARCH_RESULTS_ARTISTS, artists);
+        returnValue.put(SEARCH_RESULTS_ALBUMS, joinSearch(albumsFuture));
+        returnValue.put(SEARCH_RESULTS_SONGS, joinSearch(songsFuture));
+        returnValue.put(SEARCH_RESULTS_TAGS, joinSearch(tagsFuture));
+        returnValue.put(SEARCH_RESULTS_RADIOS, joinSearch(radiosFuture));
+
+        // joined in submission order, so results are ordered the same way as with sequential search
+        Vector<HashMap<String, String>> artist_albums = new Vector<>();
+        for (Future<Vector<HashMap<String, String>>> artistAlbumsFuture : artistAlbumsFutures) {
+            artist_albums.addAll(joinSearch(artistAlbumsFuture));
+        }
+        returnValue.put(SEARCH_RESULTS_ARTIST_ALBUMS, artist_albums);
+
+        synchronized (workers) {
+            for (AmpacheAPICaller worker : workers) {
+                if (errorMessage.isEmpty() && !worker.errorMessage.isEmpty()) {
+                    errorMessage = worker.errorMessage;
+                }
+            }
+            workers.clear();
+        }
+        synchronized (searchFutures) {
+            searchFutures.clear();
+        }
+
+        return returnValue;
+    }
+
+
+    private Vector<HashMap<String, String>> searchQuery(String token, String action, String filter, int limit, String repeatingTag, Vector<String> tagsNeeded)
+    {
+        QueryStringBuilder queryString = new QueryStringBuilder();
+        queryString.addNameValue("action", action);
+        queryString.addNameValue("auth", token);
+        queryString.addNameValue("filter", filter);
+        queryString.addNameValue("limit", String.valueOf(limit));
+
+        URL url;
+        try {
+            url = new URL(baseUrl.toString() + apiPath + "?" + queryString.getQueryString());
+        }
+        catch (Exception e) {
+            errorMessage = e.getMessage();
+            return new Vector<>();
+        }
+
+        return cachedTransactionMulti(url, repeatingTag, tagsNeeded);
+    }
+
+
     private void setErrorMessage(int stringResource, Object... args)
     {
         errorMessage = String.format(Amproid.getAppContext().getString(stringResource), args);
     }
 
 
+    // concurrent identical calls wait for the first one and share its results, instead of each going to the server
+    private Vector<HashMap<String, String>> sharedTransactionMulti(@NotNull URL url, @NotNull String repeatingTag, @NotNull Vector<String> subTags)
+    {
+        String action = queryValue(url, "action");
+
+        // results are supposed to differ from call to call
+        if ("playlist_generate".equals(action) || "1".equals(queryValue(url, "random"))) {
+            return hedgedTransactionMulti(url, repeatingTag, subTags);
+        }
+
+        String   key = url.toString() + "#" + repeatingTag + "," + String.join(",", subTags);
+        InFlight inFlight;
+        boolean  leader = false;
+        synchronized (inFlights) {
+            inFlight = inFlights.get(key);
+            if (inFlight == null) {
+                inFlight = new InFlight();
+                inFlights.put(key, inFlight);
+                leader = true;
+            }
+        }
+
+        if (leader) {
+            try {
+                inFlight.results      = hedgedTransactionMulti(url, repeatingTag, subTags);
+                inFlight.errorMessage = errorMessage;
+                inFlight.completed    = !cancelled;
+            }
+            finally {
+                synchronized (inFlights) {
+                    inFlights.remove(key);
+                }
+                inFlight.done.countDown();
+            }
+            return inFlight.results;
+        }
+
+        ApiMetrics.getInstance().addCoalesced(action);
+
+        try {
+            while (!inFlight.done.await(100, TimeUnit.MILLISECONDS)) {
+                if (cancelled) {
+                    return new Vector<>();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Vector<>();
+        }
+
+        // the first caller was cancelled, so there's nothing to share
+        if (!inFlight.completed) {
+            return hedgedTransactionMulti(url, repeatingTag, subTags);
+        }
+
+        errorMessage = inFlight.errorMessage;
+
+        // callers are free to modify what they get
+        Vector<HashMap<String, String>> results = new Vector<>();
+        for (HashMap<String, String> result : inFlight.results) {
+            results.add(new HashMap<>(result));
+        }
+        return results;
+    }
+
+
+    private Future<Vector<HashMap<String, String>>> submitSearch(Callable<Vector<HashMap<String, String>>> search)
+    {
+        Future<Vector<HashMap<String, String>>> searchFuture = AmpacheTransport.getInstance().submit(search);
+        synchronized (searchFutures) {
+            searchFutures.add(searchFuture);
+        }
+
+        // cancel() may have been called just before the future was registered
+        if (cancelled) {
+            searchFuture.cancel(true);
+        }
+
+        return searchFuture;
+    }
+
+
+    private boolean succeeded()
+    {
+        return errorMessage.isEmpty() && !cancelled;
+    }
+
+
+    // tight enough not to wait on a stalled call for long, with the global timeouts until the action's usual latency is known
+    private int timeoutBudget(String action, int minimum, int maximum)
+    {
+        long latency = ApiMetrics.getInstance().latencyPercentile(action, 95);
+        if (latency < 0) {
+            return maximum;
+        }
+
+        return (int) Math.max(minimum, Math.min(maximum, latency * TIMEOUT_FACTOR));
+    }
+
+
+    private Vector<String> titleTagsNeeded()
+    {
+        Vector<String> tagsNeeded = new Vector<>();
+        tagsNeeded.add("title");
+        tagsNeeded.add("album");
+        tagsNeeded.add("artist");
+        tagsNeeded.add("art");
+
+        return tagsNeeded;
+    }
+
+
     private String toHexSHA256(@NotNull String input)
     {
         MessageDigest digest;
@@ -1258,6 +1788,51 @@ public class AmpacheAPICaller
     }
 
 
+    private static final class Hedge
+    {
+        private static final int PENDING   = 0;
+        private static final int RUNNING   = 1;
+        private static final int ABANDONED = 2;
+
+        private final AmpacheAPICaller                  caller;
+        private final AtomicInteger                     state  = new AtomicInteger(PENDING);
+        private final AtomicReference<AmpacheAPICaller> winner = new AtomicReference<>(null);
+        private final CountDownLatch                    done   = new CountDownLatch(1);
+
+        private volatile Vector<HashMap<String, String>> results = new Vector<>();
+        private ScheduledFuture<?>                       timer   = null;
+
+
+        Hedge(AmpacheAPICaller caller)
+        {
+            this.caller = caller;
+        }
+
+
+        void abandon()
+        {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+
+            // stops the hedge if it's already running, or keeps it from starting
+            if (!state.compareAndSet(PENDING, ABANDONED)) {
+                caller.cancel();
+            }
+        }
+    }
+
+
+    private static final class InFlight
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private Vector<HashMap<String, String>> results      = new Vector<>();
+        private String                          errorMessage = "";
+        private boolean                         completed    = false;
+    }
+
+
     private static final class QueryStringBuilder
     {
         private final ArrayList<String> queryString = new ArrayList<>();
@@ -1295,6 +1870,71 @@ public class AmpacheAPICaller
             });
         }
     }
+
+
+    // turns getTracks result rows into tracks, rows with invalid URL are left out
+    private static final class TrackBuilder implements RowListener
+    {
+        private final GetTracksIdType idType;
+        private final TrackListener   trackListener;
+        private final Vector<Track>   tracks       = new Vector<>();
+        private       String          errorMessage = "";
+
+
+        TrackBuilder(GetTracksIdType idType, TrackListener trackListener)
+        {
+            this.idType        = idType;
+            this.trackListener = trackListener;
+        }
+
+
+        @Override
+        public void rowParsed(HashMap<String, String> result)
+        {
+            URL url;
+            try {
+                url = new URL(result.get("url"));
+            }
+            catch (Exception e) {
+                errorMessage = e.getMessage();
+                return;
+            }
+
+            URL pictureURL = null;
+            try {
+                pictureURL = new URL(result.get("art"));
+            }
+            catch (Exception ignored) {
+            }
+
+            Track track = new Track();
+            track.setId(result.get("id"));
+            if (idType == GetTracksIdType.GET_TRACKS_ID_TYPE_RADIO) {
+                track.setTitle(result.get("name"));
+                track.setArtist(Amproid.getAppContext().getString(R.string.radio_station));
+                track.setAlbum("");
+                track.setRadio(true);
+            }
+            else {
+                track.setAlbumId(result.get("album_id"));
+                track.setArtistId(result.get("artist_id"));
+                track.setPictureUrl(pictureURL);
+                track.setTitle(result.get("title"));
+                track.setAlbum(result.get("album"));
+                track.setArtist(result.get("artist"));
+            }
+            track.setUrl(url);
+
+            if (result.containsKey("genre")) {
+                track.addTags(result.get("genre"));
+            }
+
+            tracks.add(track);
+            if (trackListener != null) {
+                trackListener.trackParsed(track);
+            }
+        }
+    }
 }
 
 
@@ -0,0 +1,195 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import static com.pppphun.amproid.service.AmproidService.PREFIX_ALBUM;
+import static com.pppphun.amproid.service.AmproidService.PREFIX_ARTIST;
+import static com.pppphun.amproid.service.AmproidService.PREFIX_GENRE;
+import static com.pppphun.amproid.service.AmproidService.PREFIX_PLAYLIST;
+import static com.pppphun.amproid.service.AmproidService.PREFIX_RADIO;
+import static com.pppphun.amproid.service.AmproidService.PREFIX_SONG;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Vector;
+import java.util.WeakHashMap;
+
+
+// immutable, compact form of an API result row, for the caches that hold on to results
+public final class AmpacheItem implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    public enum Type
+    {
+        SONG(PREFIX_SONG),
+        ALBUM(PREFIX_ALBUM),
+        ARTIST(PREFIX_ARTIST),
+        PLAYLIST(PREFIX_PLAYLIST),
+        GENRE(PREFIX_GENRE),
+        RADIO(PREFIX_RADIO);
+
+        private final String mediaIdPrefix;
+
+
+        Type(String mediaIdPrefix)
+        {
+            this.mediaIdPrefix = mediaIdPrefix;
+        }
+    }
+
+    // artist and album names, and art URLs of placeholder images repeat a lot
+    private static final WeakHashMap<String, WeakReference<String>> pool = new WeakHashMap<>();
+
+    private final Type   type;
+    private final String id;
+    private final String name;
+    private final String art;
+    private final String artist;
+    private final String album;
+
+
+    AmpacheItem(Type type, String id, String name, String art, String artist, String album)
+    {
+        this.type   = type;
+        this.id     = id;
+        this.name   = name;
+        this.art    = intern(art);
+        this.artist = intern(artist);
+        this.album  = intern(album);
+    }
+
+
+    // rows without id or name are left out, they can't be shown or played anyway
+    static Vector<AmpacheItem> fromResults(Type type, Vector<HashMap<String, String>> results)
+    {
+        Vector<AmpacheItem> items = new Vector<>();
+        if (results == null) {
+            return items;
+        }
+
+        for (HashMap<String, String> result : results) {
+            String id   = result.get("id");
+            String name = result.get(type == Type.SONG ? "title" : "name");
+            if ((id == null) || (name == null)) {
+                continue;
+            }
+
+            items.add(new AmpacheItem(type, id, name, result.get("art"), type == Type.ARTIST ? null : result.get("artist"), type == Type.SONG ? result.get("album") : null));
+        }
+
+        items.trimToSize();
+        return items;
+    }
+
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AmpacheItem)) {
+            return false;
+        }
+
+        AmpacheItem other = (AmpacheItem) o;
+        return (type == other.type) && id.equals(other.id);
+    }
+
+
+    public String getAlbum()
+    {
+        return album;
+    }
+
+
+    public String getArt()
+    {
+        return art;
+    }
+
+
+    public String getArtist()
+    {
+        return artist;
+    }
+
+
+    public String getId()
+    {
+        return id;
+    }
+
+
+    public String getMediaId()
+    {
+        return type.mediaIdPrefix + id;
+    }
+
+
+    public String getName()
+    {
+        return name;
+    }
+
+
+    public Type getType()
+    {
+        return type;
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(type, id);
+    }
+
+
+    private static String intern(String value)
+    {
+        if (value == null) {
+            return null;
+        }
+
+        synchronized (pool) {
+            WeakReference<String> pooledReference = pool.get(value);
+            String                pooled          = pooledReference == null ? null : pooledReference.get();
+            if (pooled != null) {
+                return pooled;
+            }
+            pool.put(value, new WeakReference<>(value));
+        }
+        return value;
+    }
+
+
+    private Object readResolve()
+    {
+        // deserialized copies go through the pool too
+        return new AmpacheItem(type, id, name, art, artist, album);
+    }
+}
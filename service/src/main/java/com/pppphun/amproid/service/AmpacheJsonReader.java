@@ -0,0 +1,316 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Vector;
+
+
+// produces the same result shapes from json.server.php responses as AmpacheXmlReader does from xml.server.php responses
+final class AmpacheJsonReader
+{
+    private String errorMessage = "";
+
+
+    String getErrorMessage()
+    {
+        return errorMessage;
+    }
+
+
+    HashMap<String, String> read(@NotNull InputStream inputStream, @NotNull Vector<String> tags) throws IOException
+    {
+        HashMap<String, String> results = new HashMap<>();
+
+        JsonReader jsonReader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+
+            if (name.equals("error")) {
+                readError(jsonReader, false);
+                if (tags.contains("error") && !errorMessage.isEmpty()) {
+                    results.put("error", errorMessage);
+                }
+                return results;
+            }
+
+            JsonToken token = jsonReader.peek();
+            if (tags.contains(name) && isPrimitive(token)) {
+                results.put(name, nextString(jsonReader));
+            }
+            else if (tags.contains("total_count") && !results.containsKey("total_count") && (token == JsonToken.BEGIN_ARRAY)) {
+                // older servers don't send total_count in JSON, counting the list is just as good
+                results.put("total_count", String.valueOf(countArray(jsonReader)));
+            }
+            else {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        return results;
+    }
+
+
+    // rowListener is optional, it's told about each row as soon as it's parsed
+    Vector<HashMap<String, String>> readMulti(@NotNull InputStream inputStream, @NotNull String repeatingTag, @NotNull Vector<String> subTags, AmpacheAPICaller.RowListener rowListener) throws IOException
+    {
+        Vector<HashMap<String, String>> results = new Vector<>();
+
+        // single item actions may return the item itself instead of wrapping it into a list
+        HashMap<String, String> unwrapped = new HashMap<>();
+
+        JsonReader jsonReader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+
+            if (name.equals("error")) {
+                readError(jsonReader, true);
+                if (!errorMessage.isEmpty()) {
+                    return results;
+                }
+                continue;
+            }
+
+            if (name.equals(repeatingTag)) {
+                JsonToken token = jsonReader.peek();
+                if (token == JsonToken.BEGIN_ARRAY) {
+                    jsonReader.beginArray();
+                    while (jsonReader.hasNext()) {
+                        if (jsonReader.peek() == JsonToken.BEGIN_OBJECT) {
+                            addRow(results, readRow(jsonReader, subTags), rowListener);
+                        }
+                        else {
+                            jsonReader.skipValue();
+                        }
+                    }
+                    jsonReader.endArray();
+                }
+                else if (token == JsonToken.BEGIN_OBJECT) {
+                    addRow(results, readRow(jsonReader, subTags), rowListener);
+                }
+                else {
+                    readField(jsonReader, name, subTags, unwrapped);
+                }
+                continue;
+            }
+
+            readField(jsonReader, name, subTags, unwrapped);
+        }
+        jsonReader.endObject();
+
+        if (results.isEmpty() && unwrapped.containsKey("id")) {
+            addRow(results, unwrapped, rowListener);
+        }
+
+        return results;
+    }
+
+
+    private void addRow(Vector<HashMap<String, String>> results, HashMap<String, String> row, AmpacheAPICaller.RowListener rowListener)
+    {
+        results.add(row);
+        if (rowListener != null) {
+            rowListener.rowParsed(row);
+        }
+    }
+
+
+    private int countArray(JsonReader jsonReader) throws IOException
+    {
+        int count = 0;
+
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            jsonReader.skipValue();
+            count++;
+        }
+        jsonReader.endArray();
+
+        return count;
+    }
+
+
+    private boolean isPrimitive(JsonToken token)
+    {
+        return (token == JsonToken.STRING) || (token == JsonToken.NUMBER) || (token == JsonToken.BOOLEAN);
+    }
+
+
+    private String nextString(JsonReader jsonReader) throws IOException
+    {
+        if (jsonReader.peek() == JsonToken.BOOLEAN) {
+            return String.valueOf(jsonReader.nextBoolean());
+        }
+        return jsonReader.nextString();
+    }
+
+
+    private void putValue(HashMap<String, String> row, String name, String value)
+    {
+        if ((value == null) || value.trim().isEmpty()) {
+            return;
+        }
+
+        if ((name.equals("tag") || name.equals("genre")) && row.containsKey(name)) {
+            row.put(name, row.get(name) + (char) 255 + value);
+        }
+        else if (!row.containsKey(name)) {
+            row.put(name, value);
+        }
+    }
+
+
+    private void readError(JsonReader jsonReader, boolean notFoundIsError) throws IOException
+    {
+        String errorCode = "";
+        String errorText = "";
+
+        if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+            if (isPrimitive(jsonReader.peek())) {
+                errorText = nextString(jsonReader);
+            }
+            else {
+                jsonReader.skipValue();
+            }
+        }
+        else {
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                String name = jsonReader.nextName();
+                if ((name.equals("errorCode") || name.equals("code")) && isPrimitive(jsonReader.peek())) {
+                    errorCode = nextString(jsonReader);
+                }
+                else if ((name.equals("errorMessage") || name.equals("message")) && isPrimitive(jsonReader.peek())) {
+                    errorText = nextString(jsonReader).trim();
+                }
+                else {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+        }
+
+        // do not error on "not found" when reading lists, an empty set will be returned
+        if (notFoundIsError && (errorCode.equals("4704") || errorCode.equals("404"))) {
+            return;
+        }
+
+        errorMessage = errorText.isEmpty() ? errorCode : errorText;
+    }
+
+
+    private void readField(JsonReader jsonReader, String name, Vector<String> subTags, HashMap<String, String> row) throws IOException
+    {
+        JsonToken token = jsonReader.peek();
+
+        if (name.equals("id") && isPrimitive(token)) {
+            row.put("id", nextString(jsonReader));
+            return;
+        }
+
+        if (!subTags.contains(name)) {
+            jsonReader.skipValue();
+            return;
+        }
+
+        if (isPrimitive(token)) {
+            putValue(row, name, nextString(jsonReader));
+        }
+        else if (token == JsonToken.BEGIN_OBJECT) {
+            readNamed(jsonReader, name, row);
+        }
+        else if (token == JsonToken.BEGIN_ARRAY) {
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                JsonToken elementToken = jsonReader.peek();
+                if (elementToken == JsonToken.BEGIN_OBJECT) {
+                    readNamed(jsonReader, name, row);
+                }
+                else if (isPrimitive(elementToken)) {
+                    putValue(row, name, nextString(jsonReader));
+                }
+                else {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endArray();
+        }
+        else {
+            jsonReader.skipValue();
+        }
+    }
+
+
+    private void readNamed(JsonReader jsonReader, String name, HashMap<String, String> row) throws IOException
+    {
+        // nested objects such as "artist": {"id": "1", "name": "..."} become artist_id and artist, like nested XML elements do
+        String id    = "";
+        String value = "";
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String nestedName = jsonReader.nextName();
+            if (nestedName.equals("id") && isPrimitive(jsonReader.peek())) {
+                id = nextString(jsonReader);
+            }
+            else if (nestedName.equals("name") && isPrimitive(jsonReader.peek())) {
+                value = nextString(jsonReader);
+            }
+            else {
+                jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+
+        if (!id.isEmpty() && !row.containsKey(name + "_id")) {
+            row.put(name + "_id", id);
+        }
+        putValue(row, name, value);
+    }
+
+
+    private HashMap<String, String> readRow(JsonReader jsonReader, Vector<String> subTags) throws IOException
+    {
+        HashMap<String, String> row = new HashMap<>();
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            readField(jsonReader, jsonReader.nextName(), subTags, row);
+        }
+        jsonReader.endObject();
+
+        return row;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import static com.pppphun.amproid.shared.Amproid.NETWORK_CONNECT_TIMEOUT;
+import static com.pppphun.amproid.shared.Amproid.NETWORK_READ_TIMEOUT;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+
+
+final class AmpacheTransport
+{
+    private static final int  MAX_IDLE_CONNECTIONS   = 8;
+    private static final int  TLS_SESSION_CACHE_SIZE = 16;
+    private static final int  TLS_SESSION_TIMEOUT    = 3600;
+    private static final int  MAX_DRAIN_BYTES        = 65536;
+    private static final long WARM_UP_INTERVAL       = 30000;
+    private static final int  MAX_CONCURRENT_CALLS   = 4;
+    private static final long IDLE_THREAD_KEEP_ALIVE = 30;
+
+    private static AmpacheTransport instance = null;
+
+    private final SSLSocketFactory            sslSocketFactory;
+    private final HashMap<String, Long>       lastWarmUps = new HashMap<>();
+    private final ThreadPoolExecutor          executor;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+
+    private AmpacheTransport()
+    {
+        // the platform's HttpURLConnection pools keep-alive sockets, as long as responses are read to the end and connections are not disconnected
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+
+        // pooled connections are keyed by socket factory, so all calls must share the same one; its session cache makes TLS handshakes resumable
+        SSLSocketFactory socketFactory = null;
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            sessionContext.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(TLS_SESSION_TIMEOUT);
+
+            socketFactory = sslContext.getSocketFactory();
+        }
+        catch (Exception ignored) {
+            // platform default socket factory will be used
+        }
+        sslSocketFactory = socketFactory;
+
+        // bounded, so that fanned out calls don't open more connections than the pool is willing to keep alive
+        executor = new ThreadPoolExecutor(MAX_CONCURRENT_CALLS, MAX_CONCURRENT_CALLS, IDLE_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+
+        // only starts delayed calls, they run on the executor
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setKeepAliveTime(IDLE_THREAD_KEEP_ALIVE, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+
+    static synchronized AmpacheTransport getInstance()
+    {
+        if (instance == null) {
+            instance = new AmpacheTransport();
+        }
+        return instance;
+    }
+
+
+    void execute(Runnable call)
+    {
+        executor.execute(call);
+    }
+
+
+    HttpURLConnection open(@NotNull URL url) throws IOException
+    {
+        return open(url, NETWORK_CONNECT_TIMEOUT, NETWORK_READ_TIMEOUT);
+    }
+
+
+    HttpURLConnection open(@NotNull URL url, int connectTimeout, int readTimeout) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if ((sslSocketFactory != null) && (connection instanceof HttpsURLConnection)) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+
+        connection.setRequestMethod("GET");
+        connection.setDoInput(true);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Connection", "keep-alive");
+
+        // asking explicitly turns off the platform's transparent decompression, responseStream() does it instead so transfers can be measured
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.connect();
+
+        return connection;
+    }
+
+
+    // audio is not compressible, and ranges must be byte offsets of the file itself; range may be null
+    HttpURLConnection openMedia(@NotNull URL url, String range) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if ((sslSocketFactory != null) && (connection instanceof HttpsURLConnection)) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+
+        connection.setRequestMethod("GET");
+        connection.setDoInput(true);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        connection.setConnectTimeout(NETWORK_CONNECT_TIMEOUT);
+        connection.setReadTimeout(NETWORK_READ_TIMEOUT);
+        connection.connect();
+
+        return connection;
+    }
+
+
+    ResponseStream responseStream(@NotNull HttpURLConnection connection) throws IOException
+    {
+        CountingInputStream wireStream = new CountingInputStream(connection.getInputStream());
+
+        String      contentEncoding = connection.getContentEncoding();
+        InputStream decodedStream   = wireStream;
+        if (contentEncoding != null) {
+            if (contentEncoding.equalsIgnoreCase("gzip")) {
+                decodedStream = new GZIPInputStream(wireStream);
+            }
+            else if (contentEncoding.equalsIgnoreCase("deflate")) {
+                decodedStream = new InflaterInputStream(wireStream);
+            }
+        }
+
+        return new ResponseStream(decodedStream, wireStream);
+    }
+
+
+    void release(HttpURLConnection connection)
+    {
+        if (connection == null) {
+            return;
+        }
+
+        // drain what's left of the response, so the socket can go back to the pool; give up on it if there's too much left
+        boolean drained = false;
+        try {
+            InputStream inputStream = connection.getInputStream();
+
+            byte[] buffer = new byte[4096];
+            int    total  = 0;
+            int    read   = 0;
+            while ((total < MAX_DRAIN_BYTES) && (read >= 0)) {
+                read = inputStream.read(buffer);
+                if (read > 0) {
+                    total += read;
+                }
+            }
+            drained = (read < 0);
+
+            inputStream.close();
+        }
+        catch (Exception ignored) {
+        }
+
+        if (!drained) {
+            connection.disconnect();
+        }
+    }
+
+
+    ScheduledFuture<?> schedule(Runnable call, long delay)
+    {
+        return scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                executor.execute(call);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+
+    <T> Future<T> submit(Callable<T> call)
+    {
+        return executor.submit(call);
+    }
+
+
+    void warmUp(String url, String apiPath)
+    {
+        if ((url == null) || url.isEmpty()) {
+            return;
+        }
+
+        synchronized (lastWarmUps) {
+            Long lastWarmUp = lastWarmUps.get(url);
+            if ((lastWarmUp != null) && (System.currentTimeMillis() - lastWarmUp < WARM_UP_INTERVAL)) {
+                return;
+            }
+            lastWarmUps.put(url, System.currentTimeMillis());
+        }
+
+        // "ping" needs no authentication and its response is tiny, connecting is what matters here
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                HttpURLConnection connection = null;
+                try {
+                    connection = open(new URL(url + apiPath + "?action=ping"));
+                }
+                catch (Exception ignored) {
+                }
+                release(connection);
+            }
+        });
+    }
+
+
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private long count = 0;
+
+
+        CountingInputStream(InputStream inputStream)
+        {
+            super(inputStream);
+        }
+
+
+        long getCount()
+        {
+            return count;
+        }
+
+
+        @Override
+        public int read() throws IOException
+        {
+            int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                count += skipped;
+            }
+            return skipped;
+        }
+    }
+
+
+    // decoded response body, knowing how many bytes it took on the wire
+    static final class ResponseStream extends CountingInputStream
+    {
+        private final CountingInputStream wireStream;
+
+
+        private ResponseStream(InputStream decodedStream, CountingInputStream wireStream)
+        {
+            super(decodedStream);
+            this.wireStream = wireStream;
+        }
+
+
+        long getDecodedBytes()
+        {
+            return getCount();
+        }
+
+
+        long getWireBytes()
+        {
+            return wireStream.getCount();
+        }
+    }
+}
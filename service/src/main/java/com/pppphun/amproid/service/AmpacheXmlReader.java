@@ -0,0 +1,338 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import org.jetbrains.annotations.NotNull;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Vector;
+
+
+// fills results from xml.server.php responses, result rows are populated through a schema compiled once per repeating tag and sub-tags combination
+final class AmpacheXmlReader
+{
+    private static final HashMap<String, Schema> schemas = new HashMap<>();
+
+    private static XmlPullParserFactory xmlPullParserFactory = null;
+
+    // a parser can be reset with new input, so each thread keeps its own
+    private static final ThreadLocal<XmlPullParser> xmlPullParsers = new ThreadLocal<>();
+
+    private String errorMessage = "";
+
+
+    String getErrorMessage()
+    {
+        return errorMessage;
+    }
+
+
+    void read(@NotNull InputStream inputStream, @NotNull Vector<String> tags, @NotNull HashMap<String, String> results) throws Exception
+    {
+        XmlPullParser xmlPullParser = xmlPullParser();
+        xmlPullParser.setInput(new BufferedReader(new InputStreamReader(inputStream)));
+
+        String currentElement = "";
+
+        int xmlState = xmlPullParser.getEventType();
+        while (xmlState != XmlPullParser.END_DOCUMENT) {
+            if (xmlState == XmlPullParser.START_TAG) {
+                currentElement = xmlPullParser.getName();
+            }
+            else if (xmlState == XmlPullParser.END_TAG) {
+                currentElement = "";
+            }
+            else if (xmlState == XmlPullParser.TEXT) {
+                if (tags.contains(currentElement)) {
+                    results.put(currentElement, xmlPullParser.getText());
+                }
+                else if (isErrorElement(currentElement)) {
+                    String errorText = xmlPullParser.getText().trim();
+                    if (errorText.length() > 0) {
+                        errorMessage = errorText;
+                        break;
+                    }
+                }
+            }
+            xmlState = xmlPullParser.next();
+        }
+    }
+
+
+    // rowListener is optional, it's told about each row as soon as its closing tag is parsed
+    void readMulti(@NotNull InputStream inputStream, @NotNull String repeatingTag, @NotNull Vector<String> subTags, @NotNull Vector<HashMap<String, String>> results, AmpacheAPICaller.RowListener rowListener) throws Exception
+    {
+        Schema schema = schema(repeatingTag, subTags);
+        Row    row    = null;
+
+        XmlPullParser xmlPullParser = xmlPullParser();
+        xmlPullParser.setInput(inputStream, null);
+
+        String currentElement    = "";
+        int    currentSlot       = -1;
+        String currentErrorCode  = "";
+        String lastDeepName      = "";
+        int    level             = 0;
+        int    repeatingTagLevel = 0;
+
+        try {
+            int xmlState = xmlPullParser.getEventType();
+            while (xmlState != XmlPullParser.END_DOCUMENT) {
+                if (xmlState == XmlPullParser.START_TAG) {
+                    level++;
+                    currentElement = xmlPullParser.getName();
+                    currentSlot    = schema.slot(currentElement);
+
+                    boolean isRepeating = currentElement.equals(repeatingTag);
+                    boolean isError     = currentElement.equals("error");
+
+                    String id = "";
+                    if (isRepeating || (currentSlot >= 0) || isError) {
+                        int attributeCount = xmlPullParser.getAttributeCount();
+                        for (int i = 0; i < attributeCount; i++) {
+                            String attributeName = xmlPullParser.getAttributeName(i);
+                            if (attributeName.equals("id")) {
+                                id = xmlPullParser.getAttributeValue(i);
+                                break;
+                            }
+                            else if (isError && (attributeName.equals("code") || attributeName.equals("errorCode"))) {
+                                currentErrorCode = xmlPullParser.getAttributeValue(i);
+                                break;
+                            }
+                        }
+                    }
+
+                    if (isRepeating) {
+                        repeatingTagLevel = level;
+
+                        if (row != null) {
+                            results.add(row.toResult());
+                        }
+                        row    = new Row(schema);
+                        row.id = id;
+                    }
+                    else if ((currentSlot >= 0) && (row != null) && !id.isEmpty()) {
+                        row.ids[currentSlot] = id;
+                    }
+                }
+                else if (xmlState == XmlPullParser.END_TAG) {
+                    if (currentElement.equals("error")) {
+                        currentErrorCode = "";
+                    }
+
+                    if ((row != null) && !lastDeepName.isEmpty()) {
+                        int endingSlot = schema.slot(xmlPullParser.getName());
+                        if (endingSlot >= 0) {
+                            row.putIfAbsent(endingSlot, lastDeepName);
+                            lastDeepName = "";
+                        }
+                    }
+
+                    if ((row != null) && (level == repeatingTagLevel) && xmlPullParser.getName().equals(repeatingTag)) {
+                        HashMap<String, String> result = row.toResult();
+                        results.add(result);
+                        row = null;
+
+                        if (rowListener != null) {
+                            rowListener.rowParsed(result);
+                        }
+                    }
+
+                    currentElement = "";
+                    currentSlot    = -1;
+                    level--;
+                }
+                else if ((xmlState == XmlPullParser.TEXT) && !xmlPullParser.isWhitespace()) {
+                    String text = xmlPullParser.getText();
+
+                    if (isErrorElement(currentElement)) {
+                        String errorText = text.trim();
+                        // do not error on "not found", an empty set will be returned
+                        if ((errorText.length() > 0) && !currentErrorCode.equals("4704") && !currentErrorCode.equals("404")) {
+                            errorMessage = errorText;
+                            break;
+                        }
+                    }
+                    if ((level <= repeatingTagLevel + 1) && (currentSlot >= 0) && (row != null)) {
+                        row.put(currentSlot, text);
+                    }
+                    if ((level > repeatingTagLevel + 1) && currentElement.equals("name")) {
+                        lastDeepName = text;
+                    }
+                }
+                xmlState = xmlPullParser.next();
+            }
+        }
+        finally {
+            // partial results are still results, like they were before
+            if (row != null) {
+                results.add(row.toResult());
+            }
+        }
+    }
+
+
+    private static boolean isErrorElement(String element)
+    {
+        return element.equals("error") || element.equals("errorMessage");
+    }
+
+
+    private static Schema schema(String repeatingTag, Vector<String> subTags)
+    {
+        String key = repeatingTag + ">" + String.join(",", subTags);
+        synchronized (schemas) {
+            Schema schema = schemas.get(key);
+            if (schema == null) {
+                schema = new Schema(subTags);
+                schemas.put(key, schema);
+            }
+            return schema;
+        }
+    }
+
+
+    private static XmlPullParser xmlPullParser() throws XmlPullParserException
+    {
+        XmlPullParser xmlPullParser = xmlPullParsers.get();
+        if (xmlPullParser != null) {
+            return xmlPullParser;
+        }
+
+        synchronized (AmpacheXmlReader.class) {
+            if (xmlPullParserFactory == null) {
+                xmlPullParserFactory = XmlPullParserFactory.newInstance();
+                xmlPullParserFactory.setNamespaceAware(false);
+            }
+            xmlPullParser = xmlPullParserFactory.newPullParser();
+        }
+        xmlPullParsers.set(xmlPullParser);
+
+        return xmlPullParser;
+    }
+
+
+    // sub-tag name to slot number, and which slots collect multiple values
+    private static final class Schema
+    {
+        private final String[]                 names;
+        private final boolean[]                multiValued;
+        private final HashMap<String, Integer> slots = new HashMap<>();
+
+
+        Schema(Vector<String> subTags)
+        {
+            names       = subTags.toArray(new String[0]);
+            multiValued = new boolean[names.length];
+            for (int i = 0; i < names.length; i++) {
+                slots.put(names[i], i);
+                multiValued[i] = names[i].equals("tag") || names[i].equals("genre");
+            }
+        }
+
+
+        int slot(String name)
+        {
+            Integer slot = slots.get(name);
+            return slot == null ? -1 : slot;
+        }
+    }
+
+
+    private static final class Row
+    {
+        private final Schema          schema;
+        private final String[]        values;
+        private final String[]        ids;
+        private final StringBuilder[] joined;
+
+        private String id = "";
+
+
+        Row(Schema schema)
+        {
+            this.schema = schema;
+            values      = new String[schema.names.length];
+            ids         = new String[schema.names.length];
+            joined      = new StringBuilder[schema.names.length];
+        }
+
+
+        void put(int slot, String value)
+        {
+            if (schema.multiValued[slot] && (values[slot] != null)) {
+                append(slot, value);
+                return;
+            }
+            values[slot] = value;
+        }
+
+
+        void putIfAbsent(int slot, String value)
+        {
+            if (schema.multiValued[slot] && (values[slot] != null)) {
+                append(slot, value);
+                return;
+            }
+            if (values[slot] == null) {
+                values[slot] = value;
+            }
+        }
+
+
+        HashMap<String, String> toResult()
+        {
+            HashMap<String, String> result = new HashMap<>();
+            if (!id.isEmpty()) {
+                result.put("id", id);
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (joined[i] != null) {
+                    result.put(schema.names[i], joined[i].toString());
+                }
+                else if (values[i] != null) {
+                    result.put(schema.names[i], values[i]);
+                }
+                if (ids[i] != null) {
+                    result.put(schema.names[i] + "_id", ids[i]);
+                }
+            }
+            return result;
+        }
+
+
+        private void append(int slot, String value)
+        {
+            if (joined[slot] == null) {
+                joined[slot] = new StringBuilder(values[slot]);
+            }
+            joined[slot].append((char) 255).append(value);
+        }
+    }
+}
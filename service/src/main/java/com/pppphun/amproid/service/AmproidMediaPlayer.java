@@ -24,8 +24,6 @@ package com.pppphun.amproid.service;
 
 import android.media.MediaPlayer;
 import android.media.VolumeShaper;
-import android.media.audiofx.Equalizer;
-import android.media.audiofx.LoudnessEnhancer;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -36,242 +34,82 @@ import android.support.v4.media.session.PlaybackStateCompat;
 import androidx.annotation.NonNull;
 
 import java.net.URL;
-import java.util.Timer;
-import java.util.TimerTask;
 
 
 final class AmproidMediaPlayer extends MediaPlayer
 {
-    private static final int FX_PRIORITY   = 9;
-    private static final int MAX_ATTEMPTS  = 5;
-    private static final int ATTEMPT_DELAY = 50;
+    // the next track's player is prepared this long before the end of the current one
+    private static final int NEXT_PREPARE_AHEAD = 30000;
 
     private static final int  FADE_DURATION = 6000;
     private static final byte FADE_NO       = 0;
     private static final byte FADE_DO       = 1;
     private static final byte FADE_DONE     = 2;
 
-    Equalizer        equalizer        = null;
-    LoudnessEnhancer loudnessEnhancer = null;
-
     private final AmproidService amproidService;
-    private final Track          track;
-    private       boolean        preparing     = false;
-    private       boolean        prepared      = false;
-    private       boolean        prepareCancel = false;
-    private       boolean        erred         = false;
-    private       int            errorResource = R.string.error_error;
-
-    private int effectsCreateAttempts = 0;
-    private int equalizerAttempts     = 0;
-    private int loudnessAttempts      = 0;
-
-    private byte         fadeIn;
-    private byte         fadeOut;
-    private Timer        positionTimer;
-    private VolumeShaper fadeInShaper  = null;
-    private VolumeShaper fadeOutShaper = null;
 
-
-    private final Handler playerHandler = new Handler(Looper.getMainLooper())
-    {
-        @Override
-        public void handleMessage(@NonNull Message msg)
-        {
-            Bundle arguments = null;
-            try {
-                if (msg.obj instanceof Bundle) {
-                    arguments = (Bundle) msg.obj;
-                }
-            }
-            catch (Exception ignored) {
-            }
-
-            super.handleMessage(msg);
-
-            if (arguments != null) {
-                processMsg(arguments);
-            }
-        }
-    };
-
-    private final Runnable setEqualizer = new Runnable()
-    {
-        @Override
-        public void run()
-        {
-            Equalizer.Settings equalizerSettings = track.isRadio() ? amproidService.equalizerSettingsRadio : amproidService.equalizerSettingsPlain;
-
-            if ((equalizerAttempts < MAX_ATTEMPTS) && (equalizer != null) && (equalizerSettings != null) && (equalizerSettings.numBands == equalizer.getNumberOfBands())) {
-                equalizerAttempts++;
-
-                short minLevel = equalizer.getBandLevelRange()[0];
-                short maxLevel = equalizer.getBandLevelRange()[1];
-
-                for (int i = 0; i < equalizerSettings.numBands; i++) {
-                    short level = equalizerSettings.bandLevels[i];
-
-                    if (level < minLevel) {
-                        level = minLevel;
-                    }
-                    if (level > maxLevel) {
-                        level = maxLevel;
-                    }
-
-                    try {
-                        equalizer.setBandLevel((short) i, level);
-                    }
-                    catch (Exception e) {
-                        playerHandler.postDelayed(setEqualizer, ATTEMPT_DELAY);
-                        return;
-                    }
-                }
-
-                try {
-                    equalizer.setEnabled(true);
-                }
-                catch (Exception e) {
-                    playerHandler.postDelayed(setEqualizer, ATTEMPT_DELAY);
-                }
-            }
-        }
-    };
-
-    private final Runnable setLoudnessEnhancer = new Runnable()
-    {
-        @Override
-        public void run()
-        {
-            if ((loudnessAttempts < MAX_ATTEMPTS) && (loudnessEnhancer != null)) {
-                loudnessAttempts++;
-
-                try {
-                    loudnessEnhancer.setTargetGain(track.isRadio() ? amproidService.loudnessGainSettingRadio : amproidService.loudnessGainSettingPlain);
-                    loudnessEnhancer.setEnabled(true);
-                }
-                catch (Exception e) {
-                    playerHandler.postDelayed(setLoudnessEnhancer, ATTEMPT_DELAY);
-                }
-            }
-        }
-    };
-
-    private final Runnable effectCreate = new Runnable()
-    {
-        @Override
-        public void run()
-        {
-            // multiple attempts because developer console reported IllegalStateException on getAudioSessionId even though this is called after onPrepared
-            if ((effectsCreateAttempts < MAX_ATTEMPTS) && ((equalizer == null) || (loudnessEnhancer == null))) {
-                effectsCreateAttempts++;
-
-                try {
-                    int audioSessionId = getAudioSessionId();
-                    if (audioSessionId != 0) {
-                        if (equalizer == null) {
-                            equalizer = new Equalizer(FX_PRIORITY, audioSessionId);
-                        }
-                        if (loudnessEnhancer == null) {
-                            loudnessEnhancer = new LoudnessEnhancer(audioSessionId);
-                        }
-                    }
-                }
-                catch (Exception e) {
-                    playerHandler.postDelayed(effectCreate, ATTEMPT_DELAY);
-                    return;
-                }
-                if (fadeInShaper == null) {
-                    setEffects();
-                }
-                else {
-                    // must be done after a delay, otherwise fade-in will have a short but very much audible burst before sound is silenced
-                    new Timer().schedule(new TimerTask()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            setEffects();
-                        }
-                    }, 80);
-                }
-            }
-        }
-    };
+    // the track the player is loaded with, replaced as a whole when the native player is reused
+    private TrackState state = null;
+    private int        loads = 0;
 
     private final Runnable noAutoStartMessage = new Runnable()
     {
         @Override
         public void run()
         {
-            amproidService.fakeTrackMessage(R.string.press_play, track.getAlbum());
+            amproidService.fakeTrackMessage(R.string.press_play, state.track.getAlbum());
         }
     };
 
 
-    AmproidMediaPlayer(AmproidService amproidService, Track track, final boolean autoStart)
+    // the listeners are set up once, they work with whatever track the player is loaded with at the time
+    AmproidMediaPlayer(AmproidService amproidService)
     {
         super();
         this.amproidService = amproidService;
-        this.track          = track;
 
-        positionTimer = new Timer();
-        positionTimer.schedule(new TimerTask()
+        setOnPreparedListener(new OnPreparedListener()
         {
             @Override
-            public void run()
+            public void onPrepared(MediaPlayer mp)
             {
-                if (!isPlaying()) {
-                    return;
-                }
+                state.preparing = false;
+                state.prepared  = true;
 
-                int position;
-                int duration;
-                try {
-                    position = getCurrentPosition();
-                    duration = getDuration();
-                }
-                catch (Exception e) {
-                    return;
-                }
-                if ((position <= 0) || (duration <= 0)) {
+                if (state.prepareCancel) {
+                    stop();
                     return;
                 }
 
-                if (fadeOut == FADE_DO && (position >= (duration - FADE_DURATION))) {
-                    fadeOut       = FADE_DONE;
-                    fadeOutShaper = createVolumeShaper(new VolumeShaper.Configuration.Builder()
-                            .setDuration(duration - position + 1)
-                            .setCurve(new float[]{0.0f, 1.0f}, new float[]{1.0f, 0.0f})
-                            .setInterpolatorType(VolumeShaper.Configuration.INTERPOLATOR_TYPE_LINEAR)
-                            .build());
-                    fadeOutShaper.apply(VolumeShaper.Operation.PLAY);
+                if (state.streamBitrate >= 0) {
+                    StreamQuality.getInstance().streamed(state.streamBitrate);
                 }
-            }
-        }, 2500, 500);
 
-        setOnPreparedListener(new OnPreparedListener()
-        {
-            @Override
-            public void onPrepared(MediaPlayer mp)
-            {
-                preparing = false;
-                prepared  = true;
+                // continues where it was left off
+                if (state.startPosition > 0) {
+                    try {
+                        AmproidMediaPlayer.super.seekTo(state.startPosition);
+                    }
+                    catch (Exception ignored) {
+                    }
+                    state.startPosition = 0;
+                }
 
-                if (prepareCancel) {
-                    stop();
+                if (state.queued) {
+                    amproidService.nextPlayerPrepared(AmproidMediaPlayer.this);
                     return;
                 }
 
-                if (autoStart) {
+                if (state.autoStart) {
                     start();
                 }
                 else {
                     amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, getCurrentPosition());
-                    playerHandler.postDelayed(noAutoStartMessage, 10000);
+                    state.handler.postDelayed(noAutoStartMessage, 10000);
                 }
 
-                if (AmproidMediaPlayer.this.track.getPictureUrl() != null) {
-                    amproidService.downloadPicture(AmproidMediaPlayer.this.track.getPictureUrl());
+                if (state.track.getPictureUrl() != null) {
+                    amproidService.downloadPicture(state.track.getPictureUrl());
                 }
             }
         });
@@ -281,6 +119,8 @@ final class AmproidMediaPlayer extends MediaPlayer
             @Override
             public void onCompletion(MediaPlayer mp)
             {
+                PlaybackClock.getInstance().stopped(AmproidMediaPlayer.this);
+
                 // make sure it actually played
                 int currentPosition = 0;
                 try {
@@ -289,15 +129,43 @@ final class AmproidMediaPlayer extends MediaPlayer
                 catch (Exception ignored) {
                 }
                 if (currentPosition <= 0) {
+                    if (amproidService.playerFailed(AmproidMediaPlayer.this)) {
+                        return;
+                    }
+
                     amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, 0);
                     amproidService.fakeTrackMessage(R.string.error_play_error, amproidService.getString(R.string.error_error));
                     return;
                 }
 
+                // the next track's player may have taken over already
+                if (amproidService.nextPlayerStarted(AmproidMediaPlayer.this)) {
+                    return;
+                }
+
                 amproidService.skipToNext();
             }
         });
 
+        setOnInfoListener(new OnInfoListener()
+        {
+            @Override
+            public boolean onInfo(MediaPlayer mp, int what, int extra)
+            {
+                // ran out of data while playing, the song doesn't go on until it's back
+                if ((what == MEDIA_INFO_BUFFERING_START) && state.prepared) {
+                    PlaybackClock.getInstance().stopped(AmproidMediaPlayer.this);
+                    if (state.streamBitrate >= 0) {
+                        StreamQuality.getInstance().rebuffered(state.streamBitrate);
+                    }
+                }
+                else if ((what == MEDIA_INFO_BUFFERING_END) && state.prepared && !state.queued && isPlaying()) {
+                    clockPlaying();
+                }
+                return false;
+            }
+        });
+
         setOnErrorListener(new OnErrorListener()
         {
             @Override
@@ -355,59 +223,45 @@ final class AmproidMediaPlayer extends MediaPlayer
                         extraResource = R.string.media_error_unknown_str;
                 }
 
-                erred         = true;
-                errorResource = extraResource == R.string.media_error_unknown_str ? whatResource : extraResource;
+                state.erred         = true;
+                state.errorResource = extraResource == R.string.media_error_unknown_str ? whatResource : extraResource;
 
                 return false;
             }
         });
-
-        try {
-            setDataSource(amproidService, Uri.parse(track.getUrl().toString()));
-        }
-        catch (Exception e) {
-            amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, 0);
-            amproidService.fakeTrackMessage(R.string.error_set_data_source_error, e.getMessage());
-
-            erred         = true;
-            errorResource = R.string.error_set_data_source_error;
-
-            return;
-        }
-
-        fadeIn = fadeOut = track.isDoFade() ? FADE_DO : FADE_NO;
-
-        amproidService.checkExpiredSession(playerHandler);
-        amproidService.genuineTrackMessage(track);
     }
 
 
     @Override
     public void prepareAsync()
     {
-        if (preparing) {
+        if (state.preparing) {
             return;
         }
-        preparing     = true;
-        prepareCancel = false;
+        state.preparing     = true;
+        state.prepareCancel = false;
 
-        amproidService.stateUpdate(PlaybackStateCompat.STATE_BUFFERING, 0);
+        if (!state.queued) {
+            amproidService.stateUpdate(PlaybackStateCompat.STATE_BUFFERING, 0);
+        }
 
         try {
-            if (track.isRadio()) {
+            if (state.track.isRadio()) {
                 reset();
-                setDataSource(amproidService, Uri.parse(track.getUrl().toString()));
+                setDataSource(amproidService, Uri.parse(state.track.getUrl().toString()));
             }
             super.prepareAsync();
         }
         catch (Exception e) {
-            amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, 0);
-            amproidService.fakeTrackMessage(amproidService.getString(R.string.error_prepare_error), (e.getMessage() == null) || e.getMessage().isEmpty() ? e.getClass().toString() : e.getMessage());
+            if (!state.queued) {
+                amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, 0);
+                amproidService.fakeTrackMessage(amproidService.getString(R.string.error_prepare_error), (e.getMessage() == null) || e.getMessage().isEmpty() ? e.getClass().toString() : e.getMessage());
+            }
 
-            preparing     = false;
-            prepareCancel = true;
-            erred         = true;
-            errorResource = R.string.error_prepare_error;
+            state.preparing     = false;
+            state.prepareCancel = true;
+            state.erred         = true;
+            state.errorResource = R.string.error_prepare_error;
         }
     }
 
@@ -415,22 +269,18 @@ final class AmproidMediaPlayer extends MediaPlayer
     @Override
     public void start()
     {
-        if (!prepared) {
+        if (!state.prepared) {
             prepareAsync();
             return;
         }
 
-        effectsCreateAttempts = 0;
-        equalizerAttempts     = 0;
-        loudnessAttempts      = 0;
-
-        amproidService.genuineTrackMessage(track);
+        amproidService.genuineTrackMessage(state.track);
         amproidService.savePlayMode();
 
         boolean doFade = false;
-        if (fadeIn == FADE_DO) {
-            fadeIn       = FADE_DONE;
-            fadeInShaper = createVolumeShaper(new VolumeShaper.Configuration.Builder()
+        if (state.fadeIn == FADE_DO) {
+            state.fadeIn       = FADE_DONE;
+            state.fadeInShaper = createVolumeShaper(new VolumeShaper.Configuration.Builder()
                     .setDuration(FADE_DURATION)
                     .setCurve(new float[]{0.0f, 1.0f}, new float[]{0.0f, 1.0f})
                     .setInterpolatorType(VolumeShaper.Configuration.INTERPOLATOR_TYPE_LINEAR)
@@ -438,8 +288,8 @@ final class AmproidMediaPlayer extends MediaPlayer
             doFade = true;
         }
 
-        playerHandler.removeCallbacks(noAutoStartMessage);
-        amproidService.genuineTrackMessage(track);
+        state.handler.removeCallbacks(noAutoStartMessage);
+        amproidService.genuineTrackMessage(state.track);
 
         try {
             super.start();
@@ -448,31 +298,39 @@ final class AmproidMediaPlayer extends MediaPlayer
             amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, 0);
             amproidService.fakeTrackMessage(R.string.error_play_error, (e.getMessage() == null) || e.getMessage().isEmpty() ? e.getClass().toString() : e.getMessage());
 
-            erred         = true;
-            errorResource = R.string.error_play_error;
+            state.erred         = true;
+            state.errorResource = R.string.error_play_error;
 
             return;
         }
         if (doFade) {
             try {
-                fadeInShaper.apply(VolumeShaper.Operation.PLAY);
+                state.fadeInShaper.apply(VolumeShaper.Operation.PLAY);
             }
             catch (Exception ignored) {
             }
         }
 
-        playerHandler.post(effectCreate);
+        useEffects();
         amproidService.mediaSessionUpdateDurationPosition(true);
+        clockPlaying();
+
+        // from loading to sound, only for tracks that weren't prepared ahead
+        if (state.loadNanos > 0) {
+            PlayerPool.getInstance().started(System.nanoTime() - state.loadNanos, state.reused);
+            state.loadNanos = 0;
+        }
     }
 
 
     @Override
     public void stop()
     {
+        PlaybackClock.getInstance().stopped(this);
         amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, 0);
 
-        prepared      = false;
-        prepareCancel = true;
+        state.prepared      = false;
+        state.prepareCancel = true;
 
         try {
             super.stop();
@@ -480,8 +338,8 @@ final class AmproidMediaPlayer extends MediaPlayer
         catch (Exception e) {
             amproidService.fakeTrackMessage(R.string.error_stop_error, (e.getMessage() == null) || e.getMessage().isEmpty() ? e.getClass().toString() : e.getMessage());
 
-            erred         = true;
-            errorResource = R.string.error_stop_error;
+            state.erred         = true;
+            state.errorResource = R.string.error_stop_error;
         }
     }
 
@@ -489,11 +347,12 @@ final class AmproidMediaPlayer extends MediaPlayer
     @Override
     public void pause()
     {
-        if (track.isRadio()) {
+        if (state.track.isRadio()) {
             stop();
             return;
         }
 
+        PlaybackClock.getInstance().stopped(this);
         amproidService.stateUpdate(PlaybackStateCompat.STATE_PAUSED, getCurrentPosition());
 
         try {
@@ -502,8 +361,8 @@ final class AmproidMediaPlayer extends MediaPlayer
         catch (Exception e) {
             amproidService.fakeTrackMessage(R.string.error_pause_error, (e.getMessage() == null) || e.getMessage().isEmpty() ? e.getClass().toString() : e.getMessage());
 
-            erred         = true;
-            errorResource = R.string.error_pause_error;
+            state.erred         = true;
+            state.errorResource = R.string.error_pause_error;
         }
     }
 
@@ -519,19 +378,24 @@ final class AmproidMediaPlayer extends MediaPlayer
         catch (Exception e) {
             amproidService.fakeTrackMessage(R.string.error_error, (e.getMessage() == null) || e.getMessage().isEmpty() ? e.getClass().toString() : e.getMessage());
 
-            erred         = true;
-            errorResource = R.string.error_error;
+            state.erred         = true;
+            state.errorResource = R.string.error_error;
         }
 
-        fadeIn  = FADE_NO;
-        fadeOut = FADE_NO;
-        if (fadeInShaper != null) {
-            fadeInShaper.close();
-            fadeInShaper = null;
+        state.fadeIn  = FADE_NO;
+        state.fadeOut = FADE_NO;
+        if (state.fadeInShaper != null) {
+            state.fadeInShaper.close();
+            state.fadeInShaper = null;
+        }
+        if (state.fadeOutShaper != null) {
+            state.fadeOutShaper.close();
+            state.fadeOutShaper = null;
         }
-        if (fadeOutShaper != null) {
-            fadeOutShaper.close();
-            fadeOutShaper = null;
+
+        // what's due is now at a different time, and a paused song has nothing due
+        if (isPlaying()) {
+            PlaybackClock.getInstance().playing(this, millisecond);
         }
     }
 
@@ -539,58 +403,297 @@ final class AmproidMediaPlayer extends MediaPlayer
     @Override
     public void release()
     {
-        playerHandler.removeCallbacks(noAutoStartMessage);
+        if (state != null) {
+            state.handler.removeCallbacksAndMessages(null);
+        }
+        PlaybackClock.getInstance().stopped(this);
 
-        if (positionTimer != null) {
-            positionTimer.cancel();
-            positionTimer.purge();
-            positionTimer = null;
+        super.release();
+    }
+
+
+    // the position the fade-out starts at, -1 if there's none to do
+    int getFadeOutAt()
+    {
+        if (state.fadeOut != FADE_DO) {
+            return -1;
         }
 
-        if (equalizer != null) {
-            equalizer.release();
-            equalizer = null;
+        int duration;
+        try {
+            duration = getDuration();
+        }
+        catch (Exception e) {
+            return -1;
         }
-        if (loudnessEnhancer != null) {
-            loudnessEnhancer.release();
-            loudnessEnhancer = null;
+        if (duration <= 0) {
+            return -1;
         }
 
-        super.release();
+        return Math.max(duration - FADE_DURATION, 0);
+    }
+
+
+    // the position the next track's player is asked for at, -1 if it's not needed
+    int getNextPrepareAt()
+    {
+        if (state.nextRequested || state.track.isRadio()) {
+            return -1;
+        }
+
+        int duration;
+        try {
+            duration = getDuration();
+        }
+        catch (Exception e) {
+            return -1;
+        }
+        if (duration <= 0) {
+            return -1;
+        }
+
+        return Math.max(duration - NEXT_PREPARE_AHEAD, 0);
     }
 
 
     URL getPictureUrl()
     {
-        if (track == null) {
+        if (state.track == null) {
             return null;
         }
-        return track.getPictureUrl();
+        return state.track.getPictureUrl();
     }
 
 
     Track getTrack()
     {
-        return track;
+        return state.track;
+    }
+
+
+    boolean isPrepared()
+    {
+        return state.prepared;
     }
 
 
     boolean isRadio()
     {
-        return track.isRadio();
+        return state.track.isRadio();
+    }
+
+
+    // with previous, this is the next track's player, prepared quietly while previous still plays
+    void load(Track track, boolean autoStart, AmproidMediaPlayer previous)
+    {
+        state = new TrackState(track, autoStart, previous != null, loads > 0);
+        loads++;
+
+        // effects are attached to the audio session, the service's shared one keeps them in place from track to track
+        int audioSessionId = amproidService.audioEffects == null ? 0 : amproidService.audioEffects.getAudioSessionId();
+        if ((audioSessionId == 0) && state.queued) {
+            audioSessionId = previous.getAudioSessionId();
+        }
+        if (audioSessionId != 0) {
+            try {
+                setAudioSessionId(audioSessionId);
+            }
+            catch (Exception ignored) {
+            }
+        }
+
+        // a lower bitrate if the network is slow or metered, radio streams and downloaded songs are played as they are
+        URL url = track.getUrl();
+        if (!track.isRadio() && !track.isLocal() && StreamQuality.isRewritable(url)) {
+            state.streamBitrate = StreamQuality.getInstance().bitrate();
+            url                 = StreamQuality.rewrite(url, state.streamBitrate);
+        }
+
+        try {
+            setDataSource(amproidService, Uri.parse(AudioCacheProxy.getInstance().uri(track, url)));
+        }
+        catch (Exception e) {
+            if (!state.queued) {
+                amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, 0);
+                amproidService.fakeTrackMessage(R.string.error_set_data_source_error, e.getMessage());
+            }
+
+            state.erred         = true;
+            state.errorResource = R.string.error_set_data_source_error;
+
+            return;
+        }
+
+        // downloaded songs don't need the session, and the network may not even be there
+        if (track.isLocal()) {
+            state.handler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    processMsg(new Bundle());
+                }
+            });
+        }
+        else {
+            amproidService.checkExpiredSession(state.handler);
+        }
+        if (!state.queued) {
+            amproidService.genuineTrackMessage(track);
+        }
+    }
+
+
+    void positionCheckpoint()
+    {
+        amproidService.saveQueuePosition();
+    }
+
+
+    // the queued player becomes the current one, it may still be preparing
+    void promote(boolean autoStart)
+    {
+        state.queued    = false;
+        state.autoStart = autoStart;
+
+        amproidService.genuineTrackMessage(state.track);
+        if (!state.prepared) {
+            amproidService.stateUpdate(PlaybackStateCompat.STATE_BUFFERING, 0);
+            return;
+        }
+
+        if (state.autoStart) {
+            start();
+        }
+        else {
+            amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, getCurrentPosition());
+            state.handler.postDelayed(noAutoStartMessage, 10000);
+        }
+
+        if (state.track.getPictureUrl() != null) {
+            amproidService.downloadPicture(state.track.getPictureUrl());
+        }
+    }
+
+
+    // the track is done with, the native player goes back to idle to be loaded with another one
+    // returns false if it can't be reset, it should be released then
+    boolean recycle()
+    {
+        state.handler.removeCallbacksAndMessages(null);
+        state.prepared      = false;
+        state.prepareCancel = true;
+        PlaybackClock.getInstance().stopped(this);
+
+        if (state.fadeInShaper != null) {
+            state.fadeInShaper.close();
+            state.fadeInShaper = null;
+        }
+        if (state.fadeOutShaper != null) {
+            state.fadeOutShaper.close();
+            state.fadeOutShaper = null;
+        }
+
+        try {
+            reset();
+        }
+        catch (Exception e) {
+            return false;
+        }
+
+        return true;
+    }
+
+
+    // called by the clock when the end of the song is near
+    void requestNext()
+    {
+        if (state.nextRequested || state.track.isRadio()) {
+            return;
+        }
+
+        state.nextRequested = true;
+        amproidService.prepareNextPlayer();
+    }
+
+
+    // applied when prepared, the position a restored queue was left at
+    void setStartPosition(int millisecond)
+    {
+        state.startPosition = Math.max(millisecond, 0);
+    }
+
+
+    // the queued player was started by the platform when the previous one completed, catch up with what start() would have done
+    void startedAsNext()
+    {
+        state.queued = false;
+
+        state.handler.removeCallbacks(noAutoStartMessage);
+        amproidService.genuineTrackMessage(state.track);
+        amproidService.savePlayMode();
+
+        useEffects();
+        amproidService.mediaSessionUpdateDurationPosition(true);
+        clockPlaying();
+
+        if (state.track.getPictureUrl() != null) {
+            amproidService.downloadPicture(state.track.getPictureUrl());
+        }
     }
 
 
-    void setEffects()
+    // called by the clock, the volume goes down over what's left of the song
+    void startFadeOut()
     {
-        playerHandler.post(setEqualizer);
-        playerHandler.post(setLoudnessEnhancer);
+        if (state.fadeOut != FADE_DO) {
+            return;
+        }
+
+        int position;
+        int duration;
+        try {
+            position = getCurrentPosition();
+            duration = getDuration();
+        }
+        catch (Exception e) {
+            return;
+        }
+        if ((position < 0) || (duration <= position)) {
+            return;
+        }
+
+        state.fadeOut = FADE_DONE;
+        try {
+            state.fadeOutShaper = createVolumeShaper(new VolumeShaper.Configuration.Builder()
+                    .setDuration(duration - position + 1)
+                    .setCurve(new float[]{0.0f, 1.0f}, new float[]{1.0f, 0.0f})
+                    .setInterpolatorType(VolumeShaper.Configuration.INTERPOLATOR_TYPE_LINEAR)
+                    .build());
+            state.fadeOutShaper.apply(VolumeShaper.Operation.PLAY);
+        }
+        catch (Exception ignored) {
+        }
     }
 
 
     boolean wasError()
     {
-        return erred;
+        return state.erred;
+    }
+
+
+    private void clockPlaying()
+    {
+        int position;
+        try {
+            position = getCurrentPosition();
+        }
+        catch (Exception e) {
+            return;
+        }
+
+        PlaybackClock.getInstance().playing(this, position);
     }
 
 
@@ -605,13 +708,93 @@ final class AmproidMediaPlayer extends MediaPlayer
             sessionExpired = true;
         }
 
+        // a queued player leaves it to the current one to deal with the session, it's just not used
+        if (sessionExpired && state.queued) {
+            state.erred = true;
+            return;
+        }
+
         if (sessionExpired) {
             amproidService.stateUpdate(PlaybackStateCompat.STATE_STOPPED, 0);
-            amproidService.getNewAuthToken(amproidService.getString(errorResource));
+            amproidService.getNewAuthToken(amproidService.getString(state.errorResource));
             return;
         }
 
         // this will trigger the OnPreparedListener that was set up in the constructor
         prepareAsync();
     }
+
+
+    // only the preset may need to be switched, the effects themselves are already in place in the shared session
+    private void useEffects()
+    {
+        if (amproidService.audioEffects == null) {
+            return;
+        }
+
+        try {
+            amproidService.audioEffects.use(getAudioSessionId(), state.track.isRadio());
+        }
+        catch (Exception ignored) {
+        }
+    }
+
+
+    // everything about the one track the player is loaded with, the native player outlives it when it's reused
+    private final class TrackState
+    {
+        final Track   track;
+        final boolean reused;
+
+        boolean      autoStart;
+        boolean      queued;
+        boolean      preparing     = false;
+        boolean      prepared      = false;
+        boolean      prepareCancel = false;
+        boolean      erred         = false;
+        int          errorResource = R.string.error_error;
+        boolean      nextRequested = false;
+        int          streamBitrate = -1;
+        int          startPosition = 0;
+        long         loadNanos;
+        byte         fadeIn;
+        byte         fadeOut;
+        VolumeShaper fadeInShaper  = null;
+        VolumeShaper fadeOutShaper = null;
+
+        // messages are for the track they were asked for, the player may have been loaded with another one since
+        final Handler handler = new Handler(Looper.getMainLooper())
+        {
+            @Override
+            public void handleMessage(@NonNull Message msg)
+            {
+                Bundle arguments = null;
+                try {
+                    if (msg.obj instanceof Bundle) {
+                        arguments = (Bundle) msg.obj;
+                    }
+                }
+                catch (Exception ignored) {
+                }
+
+                super.handleMessage(msg);
+
+                if ((arguments != null) && (state == TrackState.this)) {
+                    processMsg(arguments);
+                }
+            }
+        };
+
+
+        TrackState(Track track, boolean autoStart, boolean queued, boolean reused)
+        {
+            this.track     = track;
+            this.autoStart = autoStart;
+            this.queued    = queued;
+            this.reused    = reused;
+
+            loadNanos = queued ? 0 : System.nanoTime();
+            fadeIn    = fadeOut = track.isDoFade() ? FADE_DO : FADE_NO;
+        }
+    }
 }
@@ -30,6 +30,7 @@ import static android.accounts.AccountManager.KEY_ERROR_MESSAGE;
 
 import static com.pppphun.amproid.shared.Amproid.NEW_TOKEN_REASON_CACHE;
 import static com.pppphun.amproid.shared.Amproid.NEW_TOKEN_REASON_NONE;
+import static com.pppphun.amproid.shared.Amproid.NEW_TOKEN_REASON_RENEWAL;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
@@ -49,6 +50,7 @@ import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
 import android.media.audiofx.Equalizer;
+import android.media.audiofx.LoudnessEnhancer;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Bundle;
@@ -74,13 +76,11 @@ import com.pppphun.amproid.shared.Amproid;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.Vector;
 
 
@@ -108,10 +108,20 @@ public class AmproidService extends MediaBrowserServiceCompat
 
     private final static int MAX_AUTH_ATTEMPTS = 50;
 
+    // sessions are renewed this long before they expire, and pinged at least this often while playing
+    private final static long SESSION_RENEW_MARGIN    = 5 * 60 * 1000;
+    private final static long KEEP_ALIVE_INTERVAL     = 10 * 60 * 1000;
+    private final static long MIN_KEEP_ALIVE_INTERVAL = 30 * 1000;
+
+    // shuffle tracks picked ahead, refilled when fewer are left
+    private final static int RANDOM_POOL_SIZE      = 8;
+    private final static int RANDOM_POOL_LOW_WATER = 3;
+
     Equalizer.Settings equalizerSettingsPlain   = null;
     Equalizer.Settings equalizerSettingsRadio   = null;
     int                loudnessGainSettingPlain = 0;
     int                loudnessGainSettingRadio = 0;
+    AudioEffects       audioEffects             = null;
 
     private final PlaybackStateCompat.Builder stateBuilder         = new PlaybackStateCompat.Builder();
     private final MediaMetadataCompat.Builder metadataBuilder      = new MediaMetadataCompat.Builder();
@@ -125,7 +135,9 @@ public class AmproidService extends MediaBrowserServiceCompat
     private AudioFocusRequest                       audioFocusRequest        = null;
     private AudioManager.OnAudioFocusChangeListener audioFocusChangeListener = null;
 
-    private AmproidMediaPlayer mediaPlayer = null;
+    private AmproidMediaPlayer mediaPlayer     = null;
+    private AmproidMediaPlayer nextMediaPlayer = null;
+    private boolean            nextChained     = false;
 
     private final AmproidBroadcastReceiver      amproidBroadcastReceiver     = new AmproidBroadcastReceiver(mediaSessionCallback);
     private final IBinder                       amproidServiceBinder         = new AmproidServiceBinder();
@@ -137,27 +149,31 @@ public class AmproidService extends MediaBrowserServiceCompat
 
     private int newTokenReason = NEW_TOKEN_REASON_NONE;
 
-    private       int           playMode         = PLAY_MODE_UNKNOWN;
-    private       String        playlistId       = null;
-    private       String        genreId          = null;
-    private       String        artistId         = null;
-    private       String        albumId          = null;
-    private       String        browseId         = null;
-    private final Vector<Track> comingUpTracks   = new Vector<>();
-    private       int           comingUpIndex    = 0;
-    private       String        comingUpId       = null;
-    private       boolean       pausedByUser     = true;
-    private       boolean       haveAudioFocus   = false;
-    private       Bundle        searchParameters = null;
-    private       String        randomTags       = "";
-    private       int           randomCountdown  = 0;
-    private       int           sleepSecs        = -99;
-
-    private int   mediaSessionUpdateDurationPositionIfPlayingLastDuration = -2;
-    private Timer positionTimer;
+    private       int           playMode          = PLAY_MODE_UNKNOWN;
+    private       String        playlistId        = null;
+    private       String        genreId           = null;
+    private       String        artistId          = null;
+    private       String        albumId           = null;
+    private       String        browseId          = null;
+    private final Vector<Track> comingUpTracks    = new Vector<>();
+    private       int           comingUpIndex     = 0;
+    private       String        comingUpId        = null;
+    private       Track         earlyStartedTrack = null;
+    private       boolean       pausedByUser      = true;
+    private       boolean       haveAudioFocus    = false;
+    private       Bundle        searchParameters  = null;
+    private       String        randomTags        = "";
+    private       int           randomCountdown   = 0;
+    private       int           sleepSecs         = -99;
+
+    private int mediaSessionUpdateDurationPositionIfPlayingLastDuration = -2;
 
     private final Vector<ThreadCancellable> startedThreads = new Vector<>();
 
+    private final Vector<Track>         randomPool        = new Vector<>();
+    private       GetRandomTracksThread randomPoolFiller  = null;
+    private       boolean               randomPoolWaiting = false;
+
     private PlaylistsCache       playlistsCache       = null;
     private RecommendationsCache recommendationsCache = null;
     private SearchCache          searchCache          = null;
@@ -174,6 +190,32 @@ public class AmproidService extends MediaBrowserServiceCompat
         }
     };
 
+    private final Runnable keepSessionAlive = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            scheduleKeepAlive();
+
+            boolean isPlaying;
+            try {
+                isPlaying = (mediaPlayer != null) && mediaPlayer.isPlaying();
+            }
+            catch (Exception e) {
+                return;
+            }
+
+            // a paused session may lapse, it's validated when playback fails
+            if (!isPlaying || (selectedAccount == null) || (authToken == null) || authToken.isEmpty() || (newTokenReason == NEW_TOKEN_REASON_RENEWAL)) {
+                return;
+            }
+
+            ValidateTokenThread keepAlive = new ValidateTokenThread(authToken, Amproid.getServerUrl(selectedAccount), true, mainHandler);
+            startedThreads.add(keepAlive);
+            keepAlive.start();
+        }
+    };
+
     private final Runnable mediaSessionUpdateDurationPositionIfPlaying = new Runnable()
     {
         @Override
@@ -278,22 +320,57 @@ public class AmproidService extends MediaBrowserServiceCompat
     }
 
 
+    // for offline analysis, returns the path of the written file, or an empty string if it couldn't be written
+    public String dumpApiMetrics()
+    {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+
+        File file = new File(directory, String.format(Locale.US, "api_metrics_%d.tsv", System.currentTimeMillis()));
+        try {
+            ApiMetrics.getInstance().dump(file);
+        }
+        catch (Exception e) {
+            return "";
+        }
+
+        return file.getAbsolutePath();
+    }
+
+
+    public String getApiMetrics()
+    {
+        return ApiMetrics.getInstance().summary();
+    }
+
+
+    public String getAudioCacheStats()
+    {
+        return AudioCacheProxy.getInstance().summary();
+    }
+
+
     public Bundle getAudioEffectsSettings()
     {
         Bundle returnValue = new Bundle();
 
-        if (mediaPlayer == null) {
+        if ((mediaPlayer == null) || (audioEffects == null)) {
             return returnValue;
         }
-        if ((mediaPlayer.equalizer == null) || (mediaPlayer.loudnessEnhancer == null)) {
+
+        Equalizer        equalizer        = audioEffects.getEqualizer();
+        LoudnessEnhancer loudnessEnhancer = audioEffects.getLoudnessEnhancer();
+        if ((equalizer == null) || (loudnessEnhancer == null)) {
             return returnValue;
         }
 
         Equalizer.Settings equalizerSettings;
         float              loudnessGain;
         try {
-            equalizerSettings = mediaPlayer.equalizer.getProperties();
-            loudnessGain      = mediaPlayer.loudnessEnhancer.getTargetGain();
+            equalizerSettings = equalizer.getProperties();
+            loudnessGain      = loudnessEnhancer.getTargetGain();
         }
         catch (Exception e) {
             return returnValue;
@@ -301,12 +378,12 @@ public class AmproidService extends MediaBrowserServiceCompat
 
         int[] frequencies = new int[equalizerSettings.numBands];
         for (short i = 0; i < equalizerSettings.numBands; i++) {
-            frequencies[i] = mediaPlayer.equalizer.getCenterFreq(i);
+            frequencies[i] = equalizer.getCenterFreq(i);
         }
 
         returnValue.putString(getString(R.string.eq_key_settings), equalizerSettings.toString());
-        returnValue.putShort(getString(R.string.eq_key_min), mediaPlayer.equalizer.getBandLevelRange()[0]);
-        returnValue.putShort(getString(R.string.eq_key_max), mediaPlayer.equalizer.getBandLevelRange()[1]);
+        returnValue.putShort(getString(R.string.eq_key_min), equalizer.getBandLevelRange()[0]);
+        returnValue.putShort(getString(R.string.eq_key_max), equalizer.getBandLevelRange()[1]);
         returnValue.putIntArray(getString(R.string.eq_key_freqs), frequencies);
         returnValue.putBoolean(getString(R.string.eq_key_is_radio), mediaPlayer.getTrack().isRadio());
         returnValue.putFloat(getString(R.string.eq_key_loudness_gain), Math.round(loudnessGain));
@@ -315,12 +392,43 @@ public class AmproidService extends MediaBrowserServiceCompat
     }
 
 
+    public String getOfflineStats()
+    {
+        return OfflineStore.getInstance().summary();
+    }
+
+
+    public String getPlayerPoolStats()
+    {
+        return PlayerPool.getInstance().summary();
+    }
+
+
     public int getSleepSecs()
     {
         return Math.max(sleepSecs, 0);
     }
 
 
+    public String getStreamQualityStats()
+    {
+        return StreamQuality.getInstance().summary();
+    }
+
+
+    // playlists and albums can be kept for offline playback
+    public boolean isPinnable(String mediaId)
+    {
+        return OfflineStore.isPinnable(mediaId);
+    }
+
+
+    public boolean isPinned(String mediaId)
+    {
+        return OfflineStore.getInstance().isPinned(mediaId);
+    }
+
+
     public void mediaSessionUpdateDurationPosition()
     {
         mediaSessionUpdateDurationPosition(false);
@@ -430,6 +538,8 @@ public class AmproidService extends MediaBrowserServiceCompat
             }
         }
 
+        audioEffects = new AudioEffects(this);
+
         audioFocusChangeListener = focusChange ->
         {
             if (focusChange == AudioManager.AUDIOFOCUS_GAIN) {
@@ -474,17 +584,9 @@ public class AmproidService extends MediaBrowserServiceCompat
             haveAudioFocus = (focus == AudioManager.AUDIOFOCUS_REQUEST_GRANTED);
         }
 
-        mainHandler.post(AmproidService.this::startAuth);
+        CircuitBreaker.setStateHandler(mainHandler);
 
-        positionTimer = new Timer();
-        positionTimer.schedule(new TimerTask()
-        {
-            @Override
-            public void run()
-            {
-                mediaSessionUpdateDurationPosition();
-            }
-        }, 10000, 5000);
+        mainHandler.post(AmproidService.this::startAuth);
     }
 
 
@@ -630,16 +732,17 @@ public class AmproidService extends MediaBrowserServiceCompat
     {
         try {
             mainHandler.removeCallbacks(getAuthToken);
+            mainHandler.removeCallbacks(keepSessionAlive);
             mainHandler.removeCallbacks(mediaSessionUpdateDurationPositionIfPlaying);
             mainHandler.removeCallbacks(sleepTimer);
-            positionTimer.cancel();
-            positionTimer.purge();
         }
         catch (Exception ignored) {
         }
 
         cancelAllThreads();
 
+        CircuitBreaker.setStateHandler(null);
+
         try {
             LocalBroadcastManager.getInstance(this).unregisterReceiver(amproidBroadcastReceiver);
             unregisterReceiver(amproidBroadcastReceiver);
@@ -649,10 +752,17 @@ public class AmproidService extends MediaBrowserServiceCompat
 
         amproidServiceBinderCallback = null;
 
+        releaseNextPlayer();
         if (mediaPlayer != null) {
+            saveQueuePosition();
             mediaPlayer.stop();
             mediaPlayer.release();
         }
+        PlayerPool.getInstance().clear();
+        if (audioEffects != null) {
+            audioEffects.release();
+            audioEffects = null;
+        }
 
         AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         if (audioFocusRequest != null) {
@@ -743,6 +853,30 @@ public class AmproidService extends MediaBrowserServiceCompat
     }
 
 
+    public void resetApiMetrics()
+    {
+        ApiMetrics.getInstance().reset();
+    }
+
+
+    public void resetAudioCacheStats()
+    {
+        AudioCacheProxy.getInstance().reset();
+    }
+
+
+    public void resetPlayerPoolStats()
+    {
+        PlayerPool.getInstance().reset();
+    }
+
+
+    public void resetStreamQualityStats()
+    {
+        StreamQuality.getInstance().reset();
+    }
+
+
     @SuppressLint("ApplySharedPref")
     public void setAudioEffectsSettings(String equalizerSettingsString, boolean isRadio, int loudnessGainSetting)
     {
@@ -774,10 +908,13 @@ public class AmproidService extends MediaBrowserServiceCompat
             preferencesEditor.commit();
         }
         catch (Exception ignored) {
-            // equalizerSettings remains unchanged, null is handled in AmproidMediaPlayer's setEffects
+            // equalizerSettings remains unchanged, null is handled in AudioEffects
         }
 
-        mediaPlayer.setEffects();
+        // the other preset is switched to when a track of that kind starts
+        if ((audioEffects != null) && (mediaPlayer != null) && (mediaPlayer.isRadio() == isRadio)) {
+            audioEffects.apply(isRadio);
+        }
     }
 
 
@@ -787,6 +924,26 @@ public class AmproidService extends MediaBrowserServiceCompat
     }
 
 
+    // pinning an already pinned one updates it
+    public void setPinned(String mediaId, boolean pinned)
+    {
+        if (!pinned) {
+            OfflineStore.getInstance().unpin(mediaId);
+            return;
+        }
+
+        if ((selectedAccount == null) || !OfflineStore.isPinnable(mediaId)) {
+            return;
+        }
+
+        OfflineStore.getInstance().resume(authToken);
+
+        PinThread pinThread = new PinThread(authToken, Amproid.getServerUrl(selectedAccount), mediaId, mainHandler);
+        startedThreads.add(pinThread);
+        pinThread.start();
+    }
+
+
     public void startSleepTimer(int secs)
     {
         // 0 cancels current countdown
@@ -820,6 +977,47 @@ public class AmproidService extends MediaBrowserServiceCompat
     }
 
 
+    void asyncProcessResultsGetRandomTracks(Bundle data)
+    {
+        if (data == null) {
+            return;
+        }
+
+        asyncHousekeeping();
+        randomPoolFiller = null;
+
+        boolean waiting = randomPoolWaiting;
+        randomPoolWaiting = false;
+
+        String errorMessage = data.getString(getString(R.string.msg_error_message), "");
+        if (!errorMessage.isEmpty()) {
+            if (waiting) {
+                fakeTrackMessage(R.string.error_error, errorMessage);
+            }
+            return;
+        }
+
+        // the genre chain continues from the last track in the pool
+        randomTags      = data.getString("randomGenres", "");
+        randomCountdown = data.getInt("randomGenresRemaining", 0);
+
+        @SuppressWarnings("unchecked")
+        Vector<Track> tracks = (Vector<Track>) data.getSerializable("tracks");
+        if ((tracks != null) && !tracks.isEmpty()) {
+            randomPool.addAll(tracks);
+        }
+        else if (waiting) {
+            fakeTrackMessage(R.string.error_error, getString(R.string.error_tracks_empty));
+            return;
+        }
+
+        // a skip came while the pool was empty
+        if (waiting && (playMode == PLAY_MODE_RANDOM)) {
+            startRandomTrack();
+        }
+    }
+
+
     void asyncProcessResultsGetTracks(Bundle data)
     {
         if (data == null) {
@@ -828,6 +1026,10 @@ public class AmproidService extends MediaBrowserServiceCompat
 
         asyncHousekeeping();
 
+        // set when this list's start track began playing before the list was complete
+        Track startedTrack = earlyStartedTrack;
+        earlyStartedTrack = null;
+
         String errorMessage = data.getString(getString(R.string.msg_error_message), "");
         if (!errorMessage.isEmpty()) {
             fakeTrackMessage(R.string.error_error, errorMessage);
@@ -879,17 +1081,12 @@ public class AmproidService extends MediaBrowserServiceCompat
                 comingUpIndex = trackIndex;
             }
 
-            comingUpId = data.getString("ampacheId", null);
-
-            List<MediaSessionCompat.QueueItem> queue = new ArrayList<>();
-            for (int i = 0; i < comingUpTracks.size(); i++) {
-                Track track = comingUpTracks.get(i);
-                queue.add(new MediaSessionCompat.QueueItem(new MediaDescriptionCompat.Builder()
-                        .setMediaId(track.getId())
-                        .setTitle(track.getTitle())
-                        .build(), i));
+            // the same list fetched again by track IDs is still the same list
+            if (!data.containsKey("multiBrowse")) {
+                comingUpId = data.getString("ampacheId", null);
             }
-            mediaSession.setQueue(queue);
+
+            updateSessionQueue();
 
             if (data.containsKey("queueTitle")) {
                 mediaSession.setQueueTitle(data.getString("queueTitle"));
@@ -897,6 +1094,8 @@ public class AmproidService extends MediaBrowserServiceCompat
             else if (!data.containsKey("multiBrowse")) {
                 mediaSession.setQueueTitle("Tracks in queue");
             }
+
+            saveQueueSnapshot(!data.getBoolean("morePages", false));
         }
         else {
             mediaSession.setQueueTitle("");
@@ -915,12 +1114,135 @@ public class AmproidService extends MediaBrowserServiceCompat
                     track.setShuffleSource(Track.ShuffleSource.SHUFFLE_SOURCE_SHUFFLE);
                 }
             }
+
+            fillRandomPool();
+        }
+
+        if ((startedTrack != null) && (startedTrack == tracks.get(trackIndex)) && (mediaPlayer != null) && (mediaPlayer.getTrack() == startedTrack)) {
+            // the queue size shown with the title is known now
+            genuineTrackMessage(startedTrack);
+            return;
         }
 
         startTrack(tracks.get(trackIndex));
     }
 
 
+    void asyncProcessResultsGetTracksFirst(Bundle data)
+    {
+        if (data == null) {
+            return;
+        }
+
+        Track track = (Track) data.getSerializable("track");
+        if (track == null) {
+            return;
+        }
+
+        // the list must still be the one wanted, and playback must be about to start where this track is
+        String wantedId  = null;
+        String ampacheId = data.getString("ampacheId", "");
+        if (playMode == PLAY_MODE_PLAYLIST) {
+            wantedId = playlistId;
+        }
+        else if (playMode == PLAY_MODE_ALBUM) {
+            wantedId = albumId;
+        }
+        else if (playMode == PLAY_MODE_ARTIST) {
+            wantedId = artistId;
+        }
+        else if (playMode == PLAY_MODE_GENRE) {
+            wantedId = genreId;
+        }
+        if ((data.getInt("playMode", PLAY_MODE_UNKNOWN) != playMode) || ((wantedId != null) && !wantedId.equals(ampacheId)) || (data.getInt("trackIndex", -1) != Math.max(comingUpIndex, 0))) {
+            return;
+        }
+
+        earlyStartedTrack = track;
+        startTrack(track);
+    }
+
+
+    void asyncProcessResultsGetTracksPage(Bundle data)
+    {
+        if (data == null) {
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        Vector<Track> tracks = (Vector<Track>) data.getSerializable("tracks");
+        if ((tracks == null) || tracks.isEmpty()) {
+            return;
+        }
+
+        String ampacheId = data.getString("ampacheId", "");
+        synchronized (this) {
+            // the queue was replaced since this list started coming in, the rest of it is not needed
+            if (((playMode != PLAY_MODE_PLAYLIST) && (playMode != PLAY_MODE_ALBUM)) || !ampacheId.equals(comingUpId) || (data.getInt("queuedCount", -1) != comingUpTracks.size())) {
+                for (ThreadCancellable task : startedThreads) {
+                    if ((task instanceof GetTracksThread) && ampacheId.equals(((GetTracksThread) task).getAmpacheId())) {
+                        task.cancel();
+                    }
+                }
+                return;
+            }
+
+            comingUpTracks.addAll(tracks);
+        }
+
+        updateSessionQueue();
+        saveQueueSnapshot(!data.getBoolean("morePages", false));
+
+        // the position shown in the title includes the queue size
+        if (mediaPlayer != null) {
+            genuineTrackMessage(mediaPlayer.getTrack());
+        }
+    }
+
+
+    void asyncProcessResultsKeepAlive(Bundle data)
+    {
+        asyncHousekeeping();
+
+        // most likely a network problem, the next ping may get through
+        String errorMessage = data.getString(getString(R.string.msg_error_message), "");
+        if (!errorMessage.isEmpty() || (selectedAccount == null)) {
+            return;
+        }
+
+        long sessionExpire = data.getLong("sessionExpire", 0);
+        if (data.getBoolean("isTokenValid", false) && (sessionExpire > 0)) {
+            Amproid.setSessionExpire(selectedAccount, sessionExpire);
+        }
+
+        // not extended by the ping, or already gone
+        if (!data.getBoolean("isTokenValid", false) || ((sessionExpire > 0) && (sessionExpire - System.currentTimeMillis() < SESSION_RENEW_MARGIN))) {
+            renewSession();
+            return;
+        }
+
+        scheduleKeepAlive();
+    }
+
+
+    void asyncProcessResultsPin(Bundle data)
+    {
+        asyncHousekeeping();
+
+        if (amproidServiceBinderCallback == null) {
+            return;
+        }
+
+        String errorMessage = data.getString(getString(R.string.msg_error_message), "");
+        if (!errorMessage.isEmpty()) {
+            amproidServiceBinderCallback.showToast(errorMessage);
+            return;
+        }
+
+        amproidServiceBinderCallback.showToast(getString(R.string.offline_pinned, data.getInt("trackCount", 0)));
+    }
+
+
     void asyncProcessResultsValidateToken(Bundle data)
     {
         asyncHousekeeping();
@@ -940,6 +1262,16 @@ public class AmproidService extends MediaBrowserServiceCompat
         }
         authAttempts = 0;
 
+        if (data.getLong("sessionExpire", 0) > 0) {
+            Amproid.setSessionExpire(selectedAccount, data.getLong("sessionExpire", 0));
+        }
+        scheduleKeepAlive();
+
+        // songs of pinned lists that are not downloaded yet
+        OfflineStore.getInstance().resume(authToken);
+
+        renewStreamSessions();
+
         if (playlistsCache == null) {
             playlistsCache = new PlaylistsCache(authToken, Amproid.getServerUrl(selectedAccount), mainHandler);
         }
@@ -1006,6 +1338,11 @@ public class AmproidService extends MediaBrowserServiceCompat
         if ((playMode == PLAY_MODE_UNKNOWN) || (!ampacheId.isEmpty() && !ampacheId.equals(comingUpId))) {
             if (playMode == PLAY_MODE_UNKNOWN) {
                 loadPlayMode();
+
+                // the queue as it was before the restart, nothing to fetch
+                if (restoreQueueSnapshot()) {
+                    return;
+                }
             }
 
             if (playMode == PLAY_MODE_PLAYLIST) {
@@ -1042,7 +1379,7 @@ public class AmproidService extends MediaBrowserServiceCompat
             stateUpdate(PlaybackStateCompat.STATE_CONNECTING, 0);
 
             // this will start play when the async operation is completed
-            GetTracksThread getTracks = new GetTracksThread(authToken, Amproid.getServerUrl(selectedAccount), playMode, ampacheId, randomTags, randomCountdown, mainHandler);
+            GetTracksThread getTracks = new GetTracksThread(authToken, Amproid.getServerUrl(selectedAccount), playMode, ampacheId, randomTags, randomCountdown, comingUpIndex, mainHandler);
             startedThreads.add(getTracks);
             getTracks.start();
 
@@ -1052,13 +1389,13 @@ public class AmproidService extends MediaBrowserServiceCompat
         // service was already running, only server session timed out, needed to re-login
 
         if ((playMode == PLAY_MODE_PLAYLIST) || (playMode == PLAY_MODE_GENRE) || (playMode == PLAY_MODE_ARTIST) || (playMode == PLAY_MODE_ALBUM) || (playMode == PLAY_MODE_RANDOM_RECENT)) {
-            Vector<String> trackIds = new Vector<>();
-            for (Track track: comingUpTracks) {
-                trackIds.add(track.getId());
+            // the queue has the new session already, the track that failed is tried again with it
+            if ((comingUpIndex >= 0) && (comingUpIndex < comingUpTracks.size())) {
+                startTrack(comingUpTracks.get(comingUpIndex));
+                return;
             }
-            GetTracksThread getTracks = new GetTracksThread(authToken, Amproid.getServerUrl(selectedAccount), PLAY_MODE_BROWSE, String.join(",", trackIds), randomTags, randomCountdown, mainHandler);
-            startedThreads.add(getTracks);
-            getTracks.start();
+
+            refetchQueue();
             return;
         }
 
@@ -1164,6 +1501,13 @@ public class AmproidService extends MediaBrowserServiceCompat
 
     void getNewAuthToken(@NotNull String errorMessage, boolean retry)
     {
+        // the server being down is not a login problem, logging in resumes when it's back
+        if ((selectedAccount != null) && !AmpacheAPICaller.isServerAvailable(Amproid.getServerUrl(selectedAccount))) {
+            mainHandler.removeCallbacks(getAuthToken);
+            fakeTrackMessage(R.string.error_server_unavailable, getString(R.string.server_offline_cached));
+            return;
+        }
+
         if (authAttempts >= MAX_AUTH_ATTEMPTS) {
             fakeTrackMessage(R.string.error_login_failed, errorMessage.isEmpty() ? selectedAccount.name : errorMessage);
             return;
@@ -1176,6 +1520,9 @@ public class AmproidService extends MediaBrowserServiceCompat
         AccountManager.get(this).invalidateAuthToken(selectedAccount.type, authToken);
         authToken = "";
 
+        // their stream URLs have the old token
+        randomPool.clear();
+
         if (!retry) {
             return;
         }
@@ -1186,6 +1533,125 @@ public class AmproidService extends MediaBrowserServiceCompat
     }
 
 
+    // the queued player is ready: chained, the platform starts it the moment the current one completes
+    void nextPlayerPrepared(AmproidMediaPlayer player)
+    {
+        if ((player != nextMediaPlayer) || (mediaPlayer == null)) {
+            return;
+        }
+
+        // the fade-in would be skipped, so leave those to be started the normal way, just without the wait
+        if (player.getTrack().isDoFade()) {
+            return;
+        }
+
+        try {
+            mediaPlayer.setNextMediaPlayer(player);
+            nextChained = true;
+        }
+        catch (Exception ignored) {
+        }
+    }
+
+
+    // returns false if there was nothing chained, and the next track should be started the normal way
+    boolean nextPlayerStarted(AmproidMediaPlayer finished)
+    {
+        if ((finished != mediaPlayer) || (nextMediaPlayer == null) || !nextChained || nextMediaPlayer.wasError()) {
+            return false;
+        }
+
+        AmproidMediaPlayer next  = nextMediaPlayer;
+        Track              track = next.getTrack();
+
+        randomPoolWaiting = false;
+
+        // it's already playing, so it's taken even if the queue changed meanwhile, only the bookkeeping depends on that
+        if ((playMode == PLAY_MODE_PLAYLIST) || (playMode == PLAY_MODE_GENRE) || (playMode == PLAY_MODE_ARTIST) || (playMode == PLAY_MODE_ALBUM) || (playMode == PLAY_MODE_RANDOM_RECENT)) {
+            if ((comingUpIndex + 1 < comingUpTracks.size()) && (comingUpTracks.get(comingUpIndex + 1) == track)) {
+                comingUpIndex++;
+            }
+        }
+        else if (playMode == PLAY_MODE_RANDOM) {
+            synchronized (randomPool) {
+                if (!randomPool.isEmpty() && (randomPool.get(0) == track)) {
+                    randomPool.remove(0);
+                }
+            }
+            fillRandomPool();
+        }
+
+        synchronized (this) {
+            nextMediaPlayer = null;
+            nextChained     = false;
+
+            mediaPlayer = next;
+            PlayerPool.getInstance().recycle(finished);
+        }
+
+        next.startedAsNext();
+        return true;
+    }
+
+
+    // a stream URL with a locally renewed session may not be accepted by the server, the tracks are fetched again then
+    boolean playerFailed(AmproidMediaPlayer failed)
+    {
+        if ((failed != mediaPlayer) || (failed.getTrack() == null) || !failed.getTrack().isSessionRenewed()) {
+            return false;
+        }
+
+        if ((playMode == PLAY_MODE_PLAYLIST) || (playMode == PLAY_MODE_GENRE) || (playMode == PLAY_MODE_ARTIST) || (playMode == PLAY_MODE_ALBUM) || (playMode == PLAY_MODE_RANDOM_RECENT)) {
+            refetchQueue();
+            return true;
+        }
+        if (playMode == PLAY_MODE_RANDOM) {
+            // the pool was renewed the same way
+            randomPool.clear();
+            skipToNext();
+            return true;
+        }
+
+        return false;
+    }
+
+
+    // called by the current player near its end
+    void prepareNextPlayer()
+    {
+        SharedPreferences preferences = getSharedPreferences(getString(R.string.options_preferences), Context.MODE_PRIVATE);
+        if (!preferences.getBoolean(getString(R.string.gapless_preference), Amproid.DEFAULT_GAPLESS) || (mediaPlayer == null) || mediaPlayer.isRadio()) {
+            return;
+        }
+
+        Track track = null;
+        if ((playMode == PLAY_MODE_PLAYLIST) || (playMode == PLAY_MODE_GENRE) || (playMode == PLAY_MODE_ARTIST) || (playMode == PLAY_MODE_ALBUM) || (playMode == PLAY_MODE_RANDOM_RECENT)) {
+            if ((comingUpIndex >= 0) && (comingUpIndex + 1 < comingUpTracks.size())) {
+                track = comingUpTracks.get(comingUpIndex + 1);
+            }
+        }
+        else if (playMode == PLAY_MODE_RANDOM) {
+            synchronized (randomPool) {
+                if (!randomPool.isEmpty()) {
+                    track = randomPool.get(0);
+                }
+            }
+        }
+        if ((track == null) || track.isRadio()) {
+            return;
+        }
+
+        synchronized (this) {
+            if ((nextMediaPlayer != null) && (nextMediaPlayer.getTrack() == track) && !nextMediaPlayer.wasError()) {
+                return;
+            }
+            releaseNextPlayer();
+
+            nextMediaPlayer = PlayerPool.getInstance().obtain(this, track, false, mediaPlayer);
+        }
+    }
+
+
     @SuppressLint("ApplySharedPref")
     void savePlayMode()
     {
@@ -1201,6 +1667,18 @@ public class AmproidService extends MediaBrowserServiceCompat
         preferencesEditor.putString(getApplicationContext().getString(R.string.play_mode_album_id_preference), albumId);
 
         preferencesEditor.commit();
+
+        saveQueuePosition();
+    }
+
+
+    void saveQueuePosition()
+    {
+        if ((playMode != PLAY_MODE_PLAYLIST) && (playMode != PLAY_MODE_GENRE) && (playMode != PLAY_MODE_ARTIST) && (playMode != PLAY_MODE_ALBUM) && (playMode != PLAY_MODE_RANDOM_RECENT)) {
+            return;
+        }
+
+        QueueSnapshot.getInstance().savePosition(comingUpIndex, snapshotPosition());
     }
 
 
@@ -1212,6 +1690,9 @@ public class AmproidService extends MediaBrowserServiceCompat
 
     void startTrack(Track track)
     {
+        // whatever a skip was waiting for in the pool, this one is playing instead
+        randomPoolWaiting = false;
+
         try {
             startService(new Intent(this, AmproidService.class));
         }
@@ -1219,13 +1700,35 @@ public class AmproidService extends MediaBrowserServiceCompat
         }
 
         synchronized (this) {
+            // prepared ahead, most likely by gapless playback, or skipped to just before the end
+            AmproidMediaPlayer prepared = null;
+            if ((nextMediaPlayer != null) && (nextMediaPlayer.getTrack() == track) && !nextMediaPlayer.wasError()) {
+                prepared        = nextMediaPlayer;
+                nextMediaPlayer = null;
+                nextChained     = false;
+            }
+            releaseNextPlayer();
+
             if (mediaPlayer != null) {
+                if (prepared != null) {
+                    try {
+                        mediaPlayer.setNextMediaPlayer(null);
+                    }
+                    catch (Exception ignored) {
+                    }
+                }
                 mediaPlayer.stop();
-                mediaPlayer.release();
+                PlayerPool.getInstance().recycle(mediaPlayer);
                 mediaPlayer = null;
             }
 
-            mediaPlayer = new AmproidMediaPlayer(this, track, !pausedByUser);
+            if (prepared != null) {
+                mediaPlayer = prepared;
+                mediaPlayer.promote(!pausedByUser);
+                return;
+            }
+
+            mediaPlayer = PlayerPool.getInstance().obtain(this, track, !pausedByUser, null);
         }
     }
 
@@ -1241,6 +1744,24 @@ public class AmproidService extends MediaBrowserServiceCompat
     }
 
 
+    // returns false if no filler is running, the pool won't get any more tracks on its own then
+    private boolean fillRandomPool()
+    {
+        if ((randomPoolFiller != null) && (randomPoolFiller.getState() != Thread.State.TERMINATED)) {
+            return true;
+        }
+        if ((randomPool.size() >= RANDOM_POOL_LOW_WATER) || (selectedAccount == null) || (authToken == null) || authToken.isEmpty()) {
+            return false;
+        }
+
+        randomPoolFiller = new GetRandomTracksThread(authToken, Amproid.getServerUrl(selectedAccount), randomTags, randomCountdown, RANDOM_POOL_SIZE - randomPool.size(), mainHandler);
+        startedThreads.add(randomPoolFiller);
+        randomPoolFiller.start();
+
+        return true;
+    }
+
+
     private void loadPlayMode()
     {
         SharedPreferences preferences = getApplicationContext().getSharedPreferences(getApplicationContext().getString(R.string.play_mode_preferences), Context.MODE_PRIVATE);
@@ -1303,9 +1824,24 @@ public class AmproidService extends MediaBrowserServiceCompat
             if (asyncType == getResources().getInteger(R.integer.async_validate_token)) {
                 asyncProcessResultsValidateToken(arguments);
             }
+            else if (asyncType == getResources().getInteger(R.integer.async_get_random_tracks)) {
+                asyncProcessResultsGetRandomTracks(arguments);
+            }
             else if (asyncType == getResources().getInteger(R.integer.async_get_tracks)) {
                 asyncProcessResultsGetTracks(arguments);
             }
+            else if (asyncType == getResources().getInteger(R.integer.async_get_tracks_page)) {
+                asyncProcessResultsGetTracksPage(arguments);
+            }
+            else if (asyncType == getResources().getInteger(R.integer.async_get_tracks_first)) {
+                asyncProcessResultsGetTracksFirst(arguments);
+            }
+            else if (asyncType == getResources().getInteger(R.integer.async_keep_alive)) {
+                asyncProcessResultsKeepAlive(arguments);
+            }
+            else if (asyncType == getResources().getInteger(R.integer.async_pin)) {
+                asyncProcessResultsPin(arguments);
+            }
             else if (asyncType == getResources().getInteger(R.integer.recommendations_now_valid)) {
                 if (!errorMessage.isEmpty()) {
                     if (amproidServiceBinderCallback != null) {
@@ -1331,7 +1867,7 @@ public class AmproidService extends MediaBrowserServiceCompat
 
                     // start playing best match if search from assistant
                     if (searchCache != null) {
-                        Vector<HashMap<String, String>> searchResults = searchCache.getSearchResults(true);
+                        Vector<AmpacheItem> searchResults = searchCache.getSearchResults(true);
                         if (searchResults.size() < 1) {
                             searchResults = searchCache.getSearchResults(false);
                         }
@@ -1340,17 +1876,14 @@ public class AmproidService extends MediaBrowserServiceCompat
                             int matchIndex = -1;
 
                             for (int i = 0; i < searchResults.size(); i++) {
-                                HashMap<String, String> item  = searchResults.get(i);
-                                String                  title = item.get("title");
-                                if ((title != null) && (query.compareToIgnoreCase(title) == 0)) {
+                                if (query.compareToIgnoreCase(searchResults.get(i).getName()) == 0) {
                                     matchIndex = i;
                                     break;
                                 }
                             }
                             if (matchIndex == -1) {
                                 for (int i = 0; i < searchResults.size(); i++) {
-                                    HashMap<String, String> item = searchResults.get(i);
-                                    if (Amproid.stringContains(query, item.get("title"))) {
+                                    if (Amproid.stringContains(query, searchResults.get(i).getName())) {
                                         matchIndex = i;
                                         break;
                                     }
@@ -1360,17 +1893,8 @@ public class AmproidService extends MediaBrowserServiceCompat
                                 matchIndex = 0;
                             }
 
-                            String id = searchResults.get(matchIndex).get("id");
                             pausedByUser = false;
-                            if (id == null) {
-                                if (playMode == PLAY_MODE_UNKNOWN) {
-                                    playMode = PLAY_MODE_RANDOM;
-                                }
-                                mediaSessionCallback.onSkipToNext();
-                            }
-                            else {
-                                mediaSessionCallback.onPlayFromMediaId(id, new Bundle());
-                            }
+                            mediaSessionCallback.onPlayFromMediaId(searchResults.get(matchIndex).getMediaId(), new Bundle());
                         }
                         else {
                             pausedByUser = false;
@@ -1429,6 +1953,155 @@ public class AmproidService extends MediaBrowserServiceCompat
             long ms = arguments.getLong("elapsedMS", 0);
             fakeTrackMessage(R.string.error_no_network, String.format(Locale.US, "%s %ds", getString(R.string.error_network_wait), ms / 1000));
         }
+
+        if (action.equals(getString(R.string.msg_async_progress))) {
+            // the song that's still playing keeps its title
+            if ((mediaPlayer == null) || !mediaPlayer.isPlaying()) {
+                fakeTrackMessage(R.string.restoring_queue, String.format(Locale.US, "%d/%d", arguments.getInt("done", 0), arguments.getInt("total", 0)));
+            }
+        }
+
+        if (action.equals(getString(R.string.msg_async_server_state))) {
+            serverStateChanged(arguments.getBoolean("serverAvailable", true), arguments.getString("url", ""));
+        }
+    }
+
+
+    private void releaseNextPlayer()
+    {
+        if (nextMediaPlayer == null) {
+            return;
+        }
+
+        if (nextChained && (mediaPlayer != null)) {
+            try {
+                mediaPlayer.setNextMediaPlayer(null);
+            }
+            catch (Exception ignored) {
+            }
+        }
+
+        PlayerPool.getInstance().recycle(nextMediaPlayer);
+        nextMediaPlayer = null;
+        nextChained     = false;
+    }
+
+
+    // a new token is obtained without the login messages, playback goes on with the current one meanwhile
+    private void renewSession()
+    {
+        if ((selectedAccount == null) || (newTokenReason == NEW_TOKEN_REASON_RENEWAL)) {
+            return;
+        }
+        newTokenReason = NEW_TOKEN_REASON_RENEWAL;
+
+        AccountManager.get(this).invalidateAuthToken(selectedAccount.type, authToken);
+        AccountManager.get(this).getAuthToken(selectedAccount, "", null, true, new AmproidAccountManagerCallback(), null);
+    }
+
+
+    // only for the play modes with a queue, and only if it's the same list that was playing
+    private boolean restoreQueueSnapshot()
+    {
+        String ampacheId;
+        if (playMode == PLAY_MODE_PLAYLIST) {
+            ampacheId = playlistId;
+        }
+        else if (playMode == PLAY_MODE_GENRE) {
+            ampacheId = genreId;
+        }
+        else if (playMode == PLAY_MODE_ARTIST) {
+            ampacheId = artistId;
+        }
+        else if (playMode == PLAY_MODE_ALBUM) {
+            ampacheId = albumId;
+        }
+        else if (playMode == PLAY_MODE_RANDOM_RECENT) {
+            ampacheId = String.valueOf(Amproid.getRecentSongCount());
+        }
+        else {
+            return false;
+        }
+
+        QueueSnapshot.Snapshot snapshot = QueueSnapshot.getInstance().load();
+        if ((snapshot == null) || (snapshot.playMode != playMode) || !snapshot.ampacheId.equals(ampacheId) || (snapshot.index < 0) || (snapshot.index >= snapshot.tracks.size())) {
+            return false;
+        }
+
+        for (Track track : snapshot.tracks) {
+            if (track.getUrl() == null) {
+                return false;
+            }
+
+            if (track.isLocal()) {
+                // removed from the device since
+                try {
+                    if (!new File(track.getUrl().toURI()).exists()) {
+                        return false;
+                    }
+                }
+                catch (Exception e) {
+                    return false;
+                }
+                continue;
+            }
+
+            // stored with the session it was fetched in
+            track.setSession(authToken);
+        }
+        OfflineStore.getInstance().resolve(snapshot.tracks);
+
+        comingUpTracks.clear();
+        comingUpTracks.addAll(snapshot.tracks);
+        comingUpIndex = snapshot.index;
+        comingUpId    = snapshot.ampacheId;
+
+        updateSessionQueue();
+        mediaSession.setQueueTitle(snapshot.queueTitle.isEmpty() ? "Tracks in queue" : snapshot.queueTitle);
+
+        startTrack(comingUpTracks.get(comingUpIndex));
+        if (mediaPlayer != null) {
+            mediaPlayer.setStartPosition((int) snapshot.position);
+        }
+
+        return true;
+    }
+
+
+    // the queue's tracks by ID, with stream URLs straight from the server
+    private void refetchQueue()
+    {
+        Vector<String> trackIds = new Vector<>();
+        for (Track track: comingUpTracks) {
+            trackIds.add(track.getId());
+        }
+        GetTracksThread getTracks = new GetTracksThread(authToken, Amproid.getServerUrl(selectedAccount), PLAY_MODE_BROWSE, String.join(",", trackIds), randomTags, randomCountdown, mainHandler);
+        startedThreads.add(getTracks);
+        getTracks.start();
+    }
+
+
+    // stream URLs carry the session, the new one is put in their place instead of fetching all the tracks again
+    // tracks already having this session are left alone, they are not marked as renewed then
+    private void renewStreamSessions()
+    {
+        for (Track track : comingUpTracks) {
+            track.setSession(authToken);
+        }
+        synchronized (randomPool) {
+            // the filler adds to it on its own thread
+            for (Track track : randomPool) {
+                track.setSession(authToken);
+            }
+        }
+        if (mediaPlayer != null) {
+            mediaPlayer.getTrack().setSession(authToken);
+        }
+        if (nextMediaPlayer != null) {
+            nextMediaPlayer.getTrack().setSession(authToken);
+        }
+
+        AudioCacheProxy.getInstance().renewSession(authToken);
     }
 
 
@@ -1438,6 +2111,99 @@ public class AmproidService extends MediaBrowserServiceCompat
     }
 
 
+    // a queue that's still coming in is not kept, it would be restored as if it was complete
+    private void saveQueueSnapshot(boolean complete)
+    {
+        if (!complete || ((playMode != PLAY_MODE_PLAYLIST) && (playMode != PLAY_MODE_GENRE) && (playMode != PLAY_MODE_ARTIST) && (playMode != PLAY_MODE_ALBUM) && (playMode != PLAY_MODE_RANDOM_RECENT))) {
+            QueueSnapshot.getInstance().clear();
+            return;
+        }
+
+        CharSequence queueTitle = mediaSession.getController().getQueueTitle();
+        QueueSnapshot.getInstance().save(playMode, comingUpId, queueTitle == null ? "" : queueTitle.toString(), comingUpTracks, comingUpIndex, snapshotPosition());
+    }
+
+
+    private void scheduleKeepAlive()
+    {
+        mainHandler.removeCallbacks(keepSessionAlive);
+
+        // soon enough to renew in time if the session is short
+        long delay         = KEEP_ALIVE_INTERVAL;
+        long sessionExpire = Amproid.getSessionExpire(selectedAccount);
+        if (sessionExpire > 0) {
+            delay = Math.max(Math.min(delay, sessionExpire - System.currentTimeMillis() - SESSION_RENEW_MARGIN), MIN_KEEP_ALIVE_INTERVAL);
+        }
+
+        mainHandler.postDelayed(keepSessionAlive, delay);
+    }
+
+
+    private void serverStateChanged(boolean serverAvailable, String url)
+    {
+        if (selectedAccount == null) {
+            return;
+        }
+
+        String  serverUrl  = Amproid.getServerUrl(selectedAccount);
+        boolean sameServer = false;
+        try {
+            sameServer = new URL(serverUrl).toString().equals(url);
+        }
+        catch (Exception ignored) {
+        }
+
+        // another server, or the state changed again since the message was sent
+        if (!sameServer || (AmpacheAPICaller.isServerAvailable(serverUrl) != serverAvailable)) {
+            return;
+        }
+
+        boolean isPlaying = false;
+        try {
+            isPlaying = (mediaPlayer != null) && mediaPlayer.isPlaying();
+        }
+        catch (Exception ignored) {
+        }
+
+        if (!serverAvailable) {
+            // calls fail fast now, browsing goes on with whatever is cached
+            mainHandler.removeCallbacks(getAuthToken);
+            if (!isPlaying) {
+                fakeTrackMessage(R.string.error_server_unavailable, getString(R.string.server_offline_cached));
+            }
+            return;
+        }
+
+        if (amproidServiceBinderCallback != null) {
+            amproidServiceBinderCallback.showToast(getString(R.string.server_available_again));
+        }
+
+        if ((authToken == null) || authToken.isEmpty()) {
+            authAttempts = 0;
+            mainHandler.post(getAuthToken);
+        }
+        else if (!isPlaying && (mediaPlayer != null)) {
+            genuineTrackMessage(mediaPlayer.getTrack());
+        }
+
+        // whatever was browsed while offline may be outdated or missing
+        notifyChildrenChanged(getString(R.string.item_root_id));
+    }
+
+
+    private long snapshotPosition()
+    {
+        try {
+            if ((mediaPlayer != null) && mediaPlayer.isPrepared() && !mediaPlayer.isRadio()) {
+                return mediaPlayer.getCurrentPosition();
+            }
+        }
+        catch (Exception ignored) {
+        }
+        return 0;
+    }
+
+
     @SuppressLint("ApplySharedPref")
     private void startAuth()
     {
@@ -1491,10 +2257,61 @@ public class AmproidService extends MediaBrowserServiceCompat
             return;
         }
 
+        AmpacheAPICaller.setApiFormat(Amproid.getServerUrl(selectedAccount), Amproid.getServerApiFormat(selectedAccount));
+        ApiResponseCache.getInstance().setScope(Amproid.getServerUrl(selectedAccount), selectedAccount.name);
+
         getNewAuthToken("");
     }
 
 
+    // from the pool if it has one ready, otherwise as soon as it has
+    private void startRandomTrack()
+    {
+        Track track = null;
+        synchronized (randomPool) {
+            if (!randomPool.isEmpty()) {
+                track = randomPool.remove(0);
+            }
+        }
+
+        if (track == null) {
+            if (fillRandomPool()) {
+                randomPoolWaiting = true;
+                return;
+            }
+
+            // the way it was before the pool, this one reports the error if there's no session
+            GetTracksThread getTracks = new GetTracksThread(authToken, Amproid.getServerUrl(selectedAccount), PLAY_MODE_RANDOM, "", randomTags, randomCountdown, mainHandler);
+            startedThreads.add(getTracks);
+            getTracks.start();
+            return;
+        }
+
+        Vector<Track> tracks = new Vector<>();
+        tracks.add(track);
+
+        Bundle arguments = new Bundle();
+        arguments.putSerializable("tracks", tracks);
+        arguments.putBoolean("favorites", track.getShuffleSource() == Track.ShuffleSource.SHUFFLE_SOURCE_FAVORIE);
+        arguments.putBoolean("recentlyAdded", track.getShuffleSource() == Track.ShuffleSource.SHUFFLE_SOURCE_RECENTLY_ADDED);
+        asyncProcessResultsGetTracks(arguments);
+    }
+
+
+    private void updateSessionQueue()
+    {
+        List<MediaSessionCompat.QueueItem> queue = new ArrayList<>();
+        for (int i = 0; i < comingUpTracks.size(); i++) {
+            Track track = comingUpTracks.get(i);
+            queue.add(new MediaSessionCompat.QueueItem(new MediaDescriptionCompat.Builder()
+                    .setMediaId(track.getId())
+                    .setTitle(track.getTitle())
+                    .build(), i));
+        }
+        mediaSession.setQueue(queue);
+    }
+
+
     public interface IAmproidServiceBinderCallback
     {
         void quitNow();
@@ -1576,9 +2393,7 @@ public class AmproidService extends MediaBrowserServiceCompat
                     catch (Exception ignored) {}
 
                     playMode = PLAY_MODE_RANDOM;
-                    GetTracksThread getTracks = new GetTracksThread(authToken, serverUrl, playMode, "", randomTags, randomCountdown, mainHandler);
-                    startedThreads.add(getTracks);
-                    getTracks.start();
+                    startRandomTrack();
                 }
                 else {
                     try {
@@ -1837,6 +2652,11 @@ public class AmproidService extends MediaBrowserServiceCompat
 
             stateUpdate(PlaybackStateCompat.STATE_CONNECTING, 0);
 
+            if (playMode == PLAY_MODE_RANDOM) {
+                startRandomTrack();
+                return;
+            }
+
             GetTracksThread getTracks = new GetTracksThread(authToken, Amproid.getServerUrl(selectedAccount), playMode, "", randomTags, randomCountdown, mainHandler);
             startedThreads.add(getTracks);
             getTracks.start();
@@ -1950,6 +2770,14 @@ public class AmproidService extends MediaBrowserServiceCompat
                     return;
                 }
 
+                // a session known to last a while longer doesn't need a round trip to validate
+                if (Amproid.getSessionExpire(selectedAccount) - System.currentTimeMillis() > SESSION_RENEW_MARGIN) {
+                    Bundle arguments = new Bundle();
+                    arguments.putBoolean("isTokenValid", true);
+                    asyncProcessResultsValidateToken(arguments);
+                    return;
+                }
+
                 checkExpiredSession(mainHandler);
             }
         }
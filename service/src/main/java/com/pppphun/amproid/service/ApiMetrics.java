@@ -0,0 +1,364 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// per action counters and histograms of Ampache API traffic, recording never blocks the calls being measured
+final class ApiMetrics
+{
+    private static final int LATENCY_SAMPLES     = 64;
+    private static final int MIN_LATENCY_SAMPLES = 8;
+
+    private static ApiMetrics instance = null;
+
+    private final ConcurrentHashMap<String, ActionStats> actions = new ConcurrentHashMap<>();
+
+
+    private ApiMetrics()
+    {
+    }
+
+
+    static synchronized ApiMetrics getInstance()
+    {
+        if (instance == null) {
+            instance = new ApiMetrics();
+        }
+        return instance;
+    }
+
+
+    void addCoalesced(String action)
+    {
+        stats(action).coalesced.incrementAndGet();
+    }
+
+
+    void addFailure(String action, int attempts)
+    {
+        ActionStats stats = stats(action);
+        stats.failures.incrementAndGet();
+        stats.failedAttempts.addAndGet(attempts);
+    }
+
+
+    void addHedge(String action, boolean won)
+    {
+        ActionStats stats = stats(action);
+        stats.hedges.incrementAndGet();
+        if (won) {
+            stats.hedgeWins.incrementAndGet();
+        }
+    }
+
+
+    void addLatency(String action, long milliseconds)
+    {
+        ActionStats stats = stats(action);
+        stats.totalTime.record(milliseconds);
+
+        // the recent ones only, timeouts follow the server's current form
+        synchronized (stats.latencies) {
+            stats.latencies[stats.latencyIndex] = milliseconds;
+            stats.latencyIndex = (stats.latencyIndex + 1) % LATENCY_SAMPLES;
+            if (stats.latencyCount < LATENCY_SAMPLES) {
+                stats.latencyCount++;
+            }
+        }
+    }
+
+
+    void addRetry(String action)
+    {
+        stats(action).retries.incrementAndGet();
+    }
+
+
+    // times are in milliseconds from the start of the call, negative if the call didn't get that far
+    void addTransfer(String action, long wireBytes, long decodedBytes, long connectTime, long firstByteTime, long parseTime, int rows)
+    {
+        ActionStats stats = stats(action);
+        stats.calls.incrementAndGet();
+        stats.wireBytes.addAndGet(wireBytes);
+        stats.decodedBytes.addAndGet(decodedBytes);
+
+        stats.wireSize.record(wireBytes);
+        if (connectTime >= 0) {
+            stats.connectTime.record(connectTime);
+        }
+        if (firstByteTime >= 0) {
+            stats.firstByteTime.record(firstByteTime);
+        }
+        if (parseTime >= 0) {
+            stats.parseTime.record(parseTime);
+        }
+        if (rows >= 0) {
+            stats.rows.record(rows);
+        }
+    }
+
+
+    void dump(@NotNull File file) throws IOException
+    {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(summary());
+            writer.write("\n");
+
+            // one line per histogram, tab separated, bucket upper bounds with their counts at the end
+            writer.write("action\tmetric\tcount\tmean\tp50\tp90\tp99\tmax\tbuckets\n");
+            for (String action : new TreeSet<>(actions.keySet())) {
+                ActionStats stats = actions.get(action);
+                writer.write(stats.connectTime.dumpLine(action, "connect_ms"));
+                writer.write(stats.firstByteTime.dumpLine(action, "first_byte_ms"));
+                writer.write(stats.parseTime.dumpLine(action, "parse_ms"));
+                writer.write(stats.totalTime.dumpLine(action, "total_ms"));
+                writer.write(stats.wireSize.dumpLine(action, "wire_bytes"));
+                writer.write(stats.rows.dumpLine(action, "rows"));
+            }
+        }
+    }
+
+
+    // of the recent successful calls, -1 if there are not enough of them to tell
+    long latencyPercentile(String action, int percentile)
+    {
+        ActionStats stats = actions.get(action == null ? "" : action);
+        if (stats == null) {
+            return -1;
+        }
+
+        long[] sorted;
+        synchronized (stats.latencies) {
+            if (stats.latencyCount < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(stats.latencies, stats.latencyCount);
+        }
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+
+    // the latency ring stays, adaptive timeouts would start from scratch otherwise
+    void reset()
+    {
+        for (ActionStats stats : actions.values()) {
+            stats.reset();
+        }
+    }
+
+
+    String summary()
+    {
+        StringBuilder summary = new StringBuilder();
+        for (String action : new TreeSet<>(actions.keySet())) {
+            ActionStats stats = actions.get(action);
+
+            // how much of the decoded size actually went over the network
+            long   wireBytes    = stats.wireBytes.get();
+            long   decodedBytes = stats.decodedBytes.get();
+            double ratio        = decodedBytes > 0 ? (double) wireBytes / decodedBytes : 1.0;
+
+            summary.append(String.format(Locale.US, "%s: calls=%d coalesced=%d wire=%d decoded=%d ratio=%.2f", action, stats.calls.get(), stats.coalesced.get(), wireBytes, decodedBytes, ratio));
+            summary.append(String.format(Locale.US, " p95=%dms retries=%d hedges=%d hedgeWins=%d failures=%d failedAttempts=%d", latencyPercentile(action, 95), stats.retries.get(), stats.hedges.get(), stats.hedgeWins.get(), stats.failures.get(), stats.failedAttempts.get()));
+            summary.append(String.format(Locale.US, " connect50=%dms firstByte50=%dms parse50=%dms rows50=%d\n", stats.connectTime.percentile(50), stats.firstByteTime.percentile(50), stats.parseTime.percentile(50), stats.rows.percentile(50)));
+        }
+        return summary.toString();
+    }
+
+
+    private ActionStats stats(String action)
+    {
+        String key = action == null ? "" : action;
+
+        ActionStats stats = actions.get(key);
+        if (stats == null) {
+            ActionStats newStats = new ActionStats();
+
+            stats = actions.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+
+    private static final class ActionStats
+    {
+        final AtomicLong calls          = new AtomicLong();
+        final AtomicLong coalesced      = new AtomicLong();
+        final AtomicLong wireBytes      = new AtomicLong();
+        final AtomicLong decodedBytes   = new AtomicLong();
+        final AtomicLong retries        = new AtomicLong();
+        final AtomicLong hedges         = new AtomicLong();
+        final AtomicLong hedgeWins      = new AtomicLong();
+        final AtomicLong failures       = new AtomicLong();
+        final AtomicLong failedAttempts = new AtomicLong();
+
+        final Histogram connectTime   = new Histogram();
+        final Histogram firstByteTime = new Histogram();
+        final Histogram parseTime     = new Histogram();
+        final Histogram totalTime     = new Histogram();
+        final Histogram wireSize      = new Histogram();
+        final Histogram rows          = new Histogram();
+
+        // ring buffer of the most recent latencies
+        final long[] latencies    = new long[LATENCY_SAMPLES];
+        int          latencyIndex = 0;
+        int          latencyCount = 0;
+
+
+        void reset()
+        {
+            calls.set(0);
+            coalesced.set(0);
+            wireBytes.set(0);
+            decodedBytes.set(0);
+            retries.set(0);
+            hedges.set(0);
+            hedgeWins.set(0);
+            failures.set(0);
+            failedAttempts.set(0);
+
+            connectTime.reset();
+            firstByteTime.reset();
+            parseTime.reset();
+            totalTime.reset();
+            wireSize.reset();
+            rows.reset();
+        }
+    }
+
+
+    // logarithmic buckets, four per doubling, so any value is within 19% of its bucket's bound
+    private static final class Histogram
+    {
+        private static final int SUB_BUCKETS = 4;
+        private static final int BUCKETS     = 40 * SUB_BUCKETS;
+
+        // bucket 0 is for zero (and negative values, which shouldn't happen)
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+        private final AtomicLong      count  = new AtomicLong();
+        private final AtomicLong      sum    = new AtomicLong();
+        private final AtomicLong      max    = new AtomicLong();
+
+
+        String dumpLine(String action, String metric)
+        {
+            long total = count.get();
+            if (total == 0) {
+                return "";
+            }
+
+            StringBuilder line = new StringBuilder();
+            line.append(String.format(Locale.US, "%s\t%s\t%d\t%.1f\t%d\t%d\t%d\t%d\t", action, metric, total, (double) sum.get() / total, percentile(50), percentile(90), percentile(99), max.get()));
+            for (int i = 0; i <= BUCKETS; i++) {
+                long bucketCount = counts.get(i);
+                if (bucketCount > 0) {
+                    line.append(bound(i)).append(":").append(bucketCount).append(" ");
+                }
+            }
+            line.append("\n");
+
+            return line.toString();
+        }
+
+
+        // upper bound of the bucket the percentile falls in, -1 if nothing was recorded
+        long percentile(int percentile)
+        {
+            long total = count.get();
+            if (total == 0) {
+                return -1;
+            }
+
+            long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long seen   = 0;
+            for (int i = 0; i <= BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= target) {
+                    return Math.min(bound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+
+        void record(long value)
+        {
+            counts.incrementAndGet(bucket(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+
+            long currentMax = max.get();
+            while ((value > currentMax) && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+
+        // a value recorded meanwhile may survive partially, good enough for statistics
+        void reset()
+        {
+            for (int i = 0; i <= BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+
+        private static long bound(int bucket)
+        {
+            if (bucket == 0) {
+                return 0;
+            }
+            return (long) Math.ceil(Math.pow(2, (double) bucket / SUB_BUCKETS));
+        }
+
+
+        private static int bucket(long value)
+        {
+            if (value <= 0) {
+                return 0;
+            }
+            return Math.min(BUCKETS, 1 + (int) (Math.log(value) / Math.log(2) * SUB_BUCKETS));
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import com.pppphun.amproid.shared.Amproid;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+// results of read-only API actions, kept in memory and on disk, keyed by everything in the request except the session token
+final class ApiResponseCache
+{
+    private static final int    MAX_MEMORY_ENTRIES = 256;
+    private static final long   MAX_DISK_BYTES     = 4 * 1024 * 1024;
+    private static final long   MAX_STALE          = 7 * 24 * 3600 * 1000L;
+    private static final String DIRECTORY          = "api_responses";
+
+    // the session of whoever fetched the results, art URLs carry it
+    private static final Pattern SESSION_PATTERN = Pattern.compile("([?&](?:auth|ssid)=)[^&]*|(/ssid/)[^/?]*");
+
+    private static final HashMap<String, Long> ttls = new HashMap<>();
+
+    static {
+        // actions returning songs are not here on purpose: stream URLs contain the session token
+        ttls.put("album", 3600 * 1000L);
+        ttls.put("artist", 3600 * 1000L);
+        ttls.put("artist_albums", 3600 * 1000L);
+        ttls.put("genres", 3600 * 1000L);
+        ttls.put("live_streams", 3600 * 1000L);
+        ttls.put("playlist", 300 * 1000L);
+        ttls.put("playlists", 300 * 1000L);
+        ttls.put("tags", 3600 * 1000L);
+    }
+
+    private static ApiResponseCache instance = null;
+
+    private final LinkedHashMap<String, Entry> memory       = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashSet<String>              revalidating = new HashSet<>();
+
+    // one thread, so the caller doesn't wait for the disk and writes are done in order
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private String scope = "";
+
+
+    private ApiResponseCache()
+    {
+    }
+
+
+    static synchronized ApiResponseCache getInstance()
+    {
+        if (instance == null) {
+            instance = new ApiResponseCache();
+        }
+        return instance;
+    }
+
+
+    static boolean isCacheable(String action)
+    {
+        return (action != null) && ttls.containsKey(action);
+    }
+
+
+    void endRevalidation(@NotNull String key)
+    {
+        synchronized (revalidating) {
+            revalidating.remove(key);
+        }
+    }
+
+
+    // returns null on miss, or when even stale results are too old to be shown, unless expired results are accepted
+    Entry get(@NotNull String key, @NotNull String action, boolean acceptExpired)
+    {
+        String scopedKey = scopedKey(key);
+
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(scopedKey);
+        }
+        if (entry == null) {
+            entry = readFromDisk(scopedKey);
+            if (entry != null) {
+                putInMemory(scopedKey, entry);
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        Long ttl = ttls.get(action);
+        if ((ttl == null) || (!acceptExpired && (entry.age() > ttl + MAX_STALE))) {
+            return null;
+        }
+
+        return entry;
+    }
+
+
+    void put(@NotNull String key, @NotNull Vector<HashMap<String, String>> results)
+    {
+        String scopedKey = scopedKey(key);
+
+        Entry entry = new Entry(scopedKey, copy(results));
+        putInMemory(scopedKey, entry);
+        writeToDisk(entry);
+    }
+
+
+    synchronized void setScope(String serverUrl, String userName)
+    {
+        // some results are private to the user (playlists), so each account gets its own entries, the same user name may be on another server
+        scope = (serverUrl == null ? "" : serverUrl) + "|" + (userName == null ? "" : userName);
+    }
+
+
+    // true if the caller should revalidate, false if another revalidation of the same key is already under way
+    boolean startRevalidation(@NotNull String key)
+    {
+        synchronized (revalidating) {
+            return revalidating.add(key);
+        }
+    }
+
+
+    private static Vector<HashMap<String, String>> copy(Vector<HashMap<String, String>> results)
+    {
+        Vector<HashMap<String, String>> returnValue = new Vector<>();
+        for (HashMap<String, String> result : results) {
+            returnValue.add(new HashMap<>(result));
+        }
+        return returnValue;
+    }
+
+
+    // the session in cached URLs may have expired long ago, the one of the current request is put in its place
+    private static String withSession(String value, String authToken)
+    {
+        if ((value == null) || !value.startsWith("http")) {
+            return value;
+        }
+
+        Matcher      matcher     = SESSION_PATTERN.matcher(value);
+        StringBuffer returnValue = new StringBuffer();
+        while (matcher.find()) {
+            String prefix = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            matcher.appendReplacement(returnValue, Matcher.quoteReplacement(prefix + authToken));
+        }
+        matcher.appendTail(returnValue);
+
+        return returnValue.toString();
+    }
+
+
+    private File directory()
+    {
+        File directory = new File(Amproid.getAppContext().getCacheDir(), DIRECTORY);
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+        return directory;
+    }
+
+
+    private File file(String scopedKey)
+    {
+        File directory = directory();
+        if (directory == null) {
+            return null;
+        }
+
+        // the key is also stored in the file, so colliding hashes are detected when reading
+        return new File(directory, Integer.toHexString(scopedKey.hashCode()));
+    }
+
+
+    private void putInMemory(String scopedKey, Entry entry)
+    {
+        synchronized (memory) {
+            memory.put(scopedKey, entry);
+            while (memory.size() > MAX_MEMORY_ENTRIES) {
+                memory.remove(memory.keySet().iterator().next());
+            }
+        }
+    }
+
+
+    private Entry readFromDisk(String scopedKey)
+    {
+        File file = file(scopedKey);
+        if ((file == null) || !file.exists()) {
+            return null;
+        }
+
+        try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(file))) {
+            Object read = inputStream.readObject();
+            if ((read instanceof Entry) && ((Entry) read).key.equals(scopedKey)) {
+                return (Entry) read;
+            }
+        }
+        catch (Exception ignored) {
+            // corrupt or written by an older version
+            file.delete();
+        }
+
+        return null;
+    }
+
+
+    private synchronized String scopedKey(String key)
+    {
+        return scope + "|" + key;
+    }
+
+
+    private void trimDisk(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        // oldest first
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File o1, File o2)
+            {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+
+    private void writeToDisk(final Entry entry)
+    {
+        writer.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                File file = file(entry.key);
+                if (file == null) {
+                    return;
+                }
+
+                try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(file))) {
+                    outputStream.writeObject(entry);
+                }
+                catch (Exception ignored) {
+                    file.delete();
+                    return;
+                }
+
+                trimDisk(file.getParentFile());
+            }
+        });
+    }
+
+
+    static final class Entry implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String                          key;
+        private final long                            stored;
+        private final Vector<HashMap<String, String>> results;
+
+
+        private Entry(String key, Vector<HashMap<String, String>> results)
+        {
+            this.key     = key;
+            this.stored  = System.currentTimeMillis();
+            this.results = results;
+        }
+
+
+        // callers are free to modify what they get
+        Vector<HashMap<String, String>> getResults(String authToken)
+        {
+            Vector<HashMap<String, String>> returnValue = copy(results);
+            if ((authToken == null) || authToken.isEmpty()) {
+                return returnValue;
+            }
+
+            for (HashMap<String, String> result : returnValue) {
+                for (Map.Entry<String, String> field : result.entrySet()) {
+                    field.setValue(withSession(field.getValue(), authToken));
+                }
+            }
+            return returnValue;
+        }
+
+
+        boolean isStale(String action)
+        {
+            Long ttl = ttls.get(action);
+            long age = age();
+
+            // age below zero means the clock was turned back
+            return (ttl == null) || (age > ttl) || (age < 0);
+        }
+
+
+        private long age()
+        {
+            return System.currentTimeMillis() - stored;
+        }
+    }
+}
@@ -0,0 +1,639 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import com.pppphun.amproid.shared.Amproid;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// loopback HTTP server the media player streams songs through, complete downloads are kept on disk and played from there next time
+final class AudioCacheProxy
+{
+    private static final long   MAX_DISK_BYTES  = 256 * 1024 * 1024L;
+    private static final int    MAX_SOURCES     = 64;
+    private static final int    MAX_LINE_LENGTH = 8192;
+    private static final int    BUFFER_SIZE     = 16384;
+    private static final String DIRECTORY       = "audio";
+    private static final String PART_SUFFIX     = ".part";
+
+    private static AudioCacheProxy instance = null;
+
+    // proxy path to where it's actually streamed from, the oldest ones are forgotten
+    private final LinkedHashMap<String, Source> sources = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashSet<String>               writing = new HashSet<>();
+
+    private final AtomicLong hits         = new AtomicLong();
+    private final AtomicLong misses       = new AtomicLong();
+    private final AtomicLong bytesSaved   = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+
+    // any app on the device can connect to the loopback port, a path it can't guess is what keeps the user's session to ourselves
+    private final SecureRandom random = new SecureRandom();
+
+    private ServerSocket serverSocket = null;
+
+
+    private AudioCacheProxy()
+    {
+        // left behind by downloads that were interrupted by the app being killed
+        File directory = directory();
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(PART_SUFFIX)) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+
+        try {
+            serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        }
+        catch (Exception ignored) {
+            // songs will be streamed directly
+            serverSocket = null;
+            return;
+        }
+
+        Thread acceptor = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                accept();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+
+    static synchronized AudioCacheProxy getInstance()
+    {
+        if (instance == null) {
+            instance = new AudioCacheProxy();
+        }
+        return instance;
+    }
+
+
+    // players already set up stream through here, the new session takes effect with their next request
+    void renewSession(String authToken)
+    {
+        synchronized (sources) {
+            for (Map.Entry<String, Source> entry : sources.entrySet()) {
+                try {
+                    entry.setValue(new Source(Track.withSession(entry.getValue().url, authToken), entry.getValue().key));
+                }
+                catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+
+    void reset()
+    {
+        hits.set(0);
+        misses.set(0);
+        bytesSaved.set(0);
+        bytesFetched.set(0);
+    }
+
+
+    String summary()
+    {
+        long   hitCount  = hits.get();
+        long   missCount = misses.get();
+        double hitRatio  = hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0;
+
+        return String.format(Locale.US, "audio cache: hits=%d misses=%d hitRatio=%.2f saved=%d fetched=%d disk=%d\n", hitCount, missCount, hitRatio, bytesSaved.get(), bytesFetched.get(), diskSize());
+    }
+
+
+    // what the media player should stream from instead of url; radio streams never end, and downloaded songs are local already, so those are not proxied
+    String uri(@NotNull Track track, @NotNull URL url)
+    {
+        if (track.isRadio() || track.isLocal() || (serverSocket == null)) {
+            return url.toString();
+        }
+
+        byte[] token = new byte[16];
+        random.nextBytes(token);
+
+        StringBuilder path = new StringBuilder("/");
+        for (byte b : token) {
+            path.append(String.format(Locale.US, "%02x", b));
+        }
+
+        synchronized (sources) {
+            sources.put(path.toString(), new Source(url, key(url)));
+            while (sources.size() > MAX_SOURCES) {
+                sources.remove(sources.keySet().iterator().next());
+            }
+        }
+
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+
+    // the stream URL without the session token, which changes with every login
+    private static String key(URL url)
+    {
+        return url.toString().replaceAll("([?&])(ssid|auth)=[^&]*&?", "$1").replaceAll("/ssid/[^/]*", "").replaceAll("[?&]$", "");
+    }
+
+
+    // start and end (inclusive) of a "bytes=" range, null if it can't be satisfied
+    private static long[] parseRange(String range, long length)
+    {
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+
+        String[] bounds = range.substring(6).trim().split("-", -1);
+        if (bounds.length != 2) {
+            return null;
+        }
+
+        long start;
+        long end;
+        try {
+            if (bounds[0].isEmpty()) {
+                // suffix: the last so many bytes
+                start = Math.max(0, length - Long.parseLong(bounds[1]));
+                end   = length - 1;
+            }
+            else {
+                start = Long.parseLong(bounds[0]);
+                end   = bounds[1].isEmpty() ? length - 1 : Math.min(Long.parseLong(bounds[1]), length - 1);
+            }
+        }
+        catch (Exception e) {
+            return null;
+        }
+
+        if ((start >= length) || (start > end)) {
+            return null;
+        }
+        return new long[]{start, end};
+    }
+
+
+    private static String readLine(InputStream inputStream) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+
+        int read = inputStream.read();
+        if (read < 0) {
+            return null;
+        }
+        while ((read >= 0) && (read != '\n') && (line.length() < MAX_LINE_LENGTH)) {
+            if (read != '\r') {
+                line.append((char) read);
+            }
+            read = inputStream.read();
+        }
+
+        return line.toString();
+    }
+
+
+    private static void writeHeader(OutputStream outputStream, String status, String contentType, long contentLength, String contentRange) throws IOException
+    {
+        StringBuilder header = new StringBuilder();
+        header.append("HTTP/1.1 ").append(status).append("\r\n");
+        if ((contentType != null) && !contentType.isEmpty()) {
+            header.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (contentLength >= 0) {
+            header.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        if (contentRange != null) {
+            header.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        header.append("Accept-Ranges: bytes\r\n");
+        header.append("Connection: close\r\n");
+        header.append("\r\n");
+
+        outputStream.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+
+    private void accept()
+    {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            }
+            catch (Exception e) {
+                return;
+            }
+
+            Thread connection = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    serve(socket);
+                }
+            });
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+
+    private File directory()
+    {
+        File directory = new File(Amproid.getAppContext().getCacheDir(), DIRECTORY);
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+        return directory;
+    }
+
+
+    private long diskSize()
+    {
+        File directory = directory();
+        if (directory == null) {
+            return 0;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        return total;
+    }
+
+
+    private File file(String key)
+    {
+        File directory = directory();
+        if (directory == null) {
+            return null;
+        }
+
+        // the key is also stored in the file, so colliding hashes are detected when reading
+        return new File(directory, Integer.toHexString(key.hashCode()));
+    }
+
+
+    private void finishCacheFile(DataOutputStream cacheStream, File part, String key, boolean complete)
+    {
+        if (cacheStream == null) {
+            return;
+        }
+
+        try {
+            cacheStream.close();
+        }
+        catch (Exception e) {
+            complete = false;
+        }
+
+        File file = file(key);
+        if (!complete || (file == null) || !part.renameTo(file)) {
+            part.delete();
+            return;
+        }
+
+        synchronized (this) {
+            trimDisk(file.getParentFile());
+        }
+    }
+
+
+    private void serve(Socket socket)
+    {
+        try {
+            InputStream  inputStream  = new BufferedInputStream(socket.getInputStream());
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+
+            String requestLine = readLine(inputStream);
+            String range       = null;
+
+            String line = readLine(inputStream);
+            while ((line != null) && !line.isEmpty()) {
+                if (line.regionMatches(true, 0, "Range:", 0, 6)) {
+                    range = line.substring(6).trim();
+                }
+                line = readLine(inputStream);
+            }
+
+            Source   source = null;
+            String[] parts  = requestLine == null ? new String[0] : requestLine.split(" ");
+            if (parts.length >= 2) {
+                synchronized (sources) {
+                    source = sources.get(parts[1]);
+                }
+            }
+
+            if (source == null) {
+                writeHeader(outputStream, "404 Not Found", null, 0, null);
+            }
+            else if (!serveFromCache(source, range, outputStream)) {
+                serveFromNetwork(source, range, outputStream);
+            }
+
+            outputStream.flush();
+        }
+        catch (Exception ignored) {
+            // most likely the media player closed the connection, because it's seeking or it's been released
+        }
+
+        try {
+            socket.close();
+        }
+        catch (Exception ignored) {
+        }
+    }
+
+
+    private boolean serveFromCache(Source source, String range, OutputStream outputStream) throws IOException
+    {
+        File file = file(source.key);
+        if ((file == null) || !file.exists()) {
+            return false;
+        }
+
+        RandomAccessFile randomAccessFile;
+        String           contentType;
+        long             dataOffset;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+        }
+        catch (Exception e) {
+            return false;
+        }
+
+        try {
+            try {
+                if (!randomAccessFile.readUTF().equals(source.key)) {
+                    return false;
+                }
+                contentType = randomAccessFile.readUTF();
+                dataOffset  = randomAccessFile.getFilePointer();
+            }
+            catch (Exception e) {
+                // corrupt
+                file.delete();
+                return false;
+            }
+
+            hits.incrementAndGet();
+
+            // least recently used are trimmed first
+            file.setLastModified(System.currentTimeMillis());
+
+            long   length = randomAccessFile.length() - dataOffset;
+            long   start  = 0;
+            long   end    = length - 1;
+            String status = "200 OK";
+
+            String contentRange = null;
+            if (range != null) {
+                long[] bounds = parseRange(range, length);
+                if (bounds == null) {
+                    writeHeader(outputStream, "416 Range Not Satisfiable", null, 0, "bytes */" + length);
+                    return true;
+                }
+
+                start        = bounds[0];
+                end          = bounds[1];
+                status       = "206 Partial Content";
+                contentRange = "bytes " + start + "-" + end + "/" + length;
+            }
+
+            writeHeader(outputStream, status, contentType, end - start + 1, contentRange);
+
+            randomAccessFile.seek(dataOffset + start);
+
+            byte[] buffer    = new byte[BUFFER_SIZE];
+            long   remaining = end - start + 1;
+            while (remaining > 0) {
+                int read = randomAccessFile.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+                bytesSaved.addAndGet(read);
+            }
+        }
+        finally {
+            randomAccessFile.close();
+        }
+
+        return true;
+    }
+
+
+    private void serveFromNetwork(Source source, String range, OutputStream outputStream) throws IOException
+    {
+        misses.incrementAndGet();
+
+        // only whole songs are cached, and only by one connection at a time
+        // a response without length (transcoded on the fly) can't be told apart from one the server cut short, those are streamed only
+        boolean tee = (range == null) || range.equals("bytes=0-");
+        if (tee) {
+            synchronized (writing) {
+                tee = writing.add(source.key);
+            }
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            connection = AmpacheTransport.getInstance().openMedia(source.url, range);
+
+            int responseCode = connection.getResponseCode();
+            if ((responseCode != HttpURLConnection.HTTP_OK) && (responseCode != HttpURLConnection.HTTP_PARTIAL)) {
+                // the media player's error handling is the same as without the proxy
+                writeHeader(outputStream, responseCode + " " + connection.getResponseMessage(), null, 0, null);
+                return;
+            }
+
+            long   contentLength = connection.getContentLengthLong();
+            String contentType   = connection.getContentType();
+            writeHeader(outputStream, responseCode == HttpURLConnection.HTTP_PARTIAL ? "206 Partial Content" : "200 OK", contentType, contentLength, connection.getHeaderField("Content-Range"));
+
+            File             part        = null;
+            DataOutputStream cacheStream = null;
+            if (tee && (responseCode == HttpURLConnection.HTTP_OK) && (contentLength >= 0)) {
+                File file = file(source.key);
+                if (file != null) {
+                    part = new File(file.getPath() + PART_SUFFIX);
+                    try {
+                        cacheStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(part), BUFFER_SIZE));
+                        cacheStream.writeUTF(source.key);
+                        cacheStream.writeUTF(contentType == null ? "" : contentType);
+                    }
+                    catch (Exception e) {
+                        finishCacheFile(cacheStream, part, source.key, false);
+                        cacheStream = null;
+                    }
+                }
+            }
+
+            boolean complete  = false;
+            long    total     = 0;
+            long    readNanos = 0;
+            try {
+                InputStream inputStream = connection.getInputStream();
+
+                byte[] buffer    = new byte[BUFFER_SIZE];
+                long   readStart = System.nanoTime();
+                int    read      = inputStream.read(buffer);
+                readNanos += System.nanoTime() - readStart;
+                while (read >= 0) {
+                    if (cacheStream != null) {
+                        try {
+                            cacheStream.write(buffer, 0, read);
+                        }
+                        catch (Exception e) {
+                            // probably out of space, keep on streaming anyway
+                            finishCacheFile(cacheStream, part, source.key, false);
+                            cacheStream = null;
+                        }
+                    }
+
+                    outputStream.write(buffer, 0, read);
+                    total += read;
+                    bytesFetched.addAndGet(read);
+
+                    readStart = System.nanoTime();
+                    read      = inputStream.read(buffer);
+                    readNanos += System.nanoTime() - readStart;
+                }
+
+                complete = (total == contentLength);
+            }
+            finally {
+                finishCacheFile(cacheStream, part, source.key, complete);
+
+                // also when the media player hung up because of seeking or skipping
+                StreamQuality.getInstance().measured(total, readNanos);
+            }
+        }
+        finally {
+            if (tee) {
+                synchronized (writing) {
+                    writing.remove(source.key);
+                }
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+
+    private void trimDisk(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        // least recently played first
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File o1, File o2)
+            {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            if (file.getName().endsWith(PART_SUFFIX)) {
+                // still downloading
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+
+    private static final class Source
+    {
+        final URL    url;
+        final String key;
+
+
+        Source(URL url, String key)
+        {
+            this.url = url;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.audiofx.Equalizer;
+import android.media.audiofx.LoudnessEnhancer;
+
+
+// one audio session for all players, with the effects attached to it once and kept for as long as the service runs
+// tracks only switch between the plain and radio presets, which is nothing if the preset is already the one in use
+final class AudioEffects
+{
+    private static final int FX_PRIORITY = 9;
+
+    private final AmproidService amproidService;
+    private final int            audioSessionId;
+
+    private Equalizer        equalizer        = null;
+    private LoudnessEnhancer loudnessEnhancer = null;
+    private int              attachedTo       = 0;
+    private boolean          applied          = false;
+    private boolean          radio            = false;
+
+
+    AudioEffects(AmproidService amproidService)
+    {
+        this.amproidService = amproidService;
+
+        int generated = 0;
+        try {
+            AudioManager audioManager = (AudioManager) amproidService.getSystemService(Context.AUDIO_SERVICE);
+            if (audioManager != null) {
+                generated = audioManager.generateAudioSessionId();
+            }
+        }
+        catch (Exception ignored) {
+        }
+        audioSessionId = Math.max(generated, 0);
+
+        if (audioSessionId != 0) {
+            attach(audioSessionId);
+        }
+    }
+
+
+    // the settings of a preset changed, it's set again even if it's the one in use
+    void apply(boolean radio)
+    {
+        applied = false;
+        use(attachedTo, radio);
+    }
+
+
+    // 0 if there's no shared session, players then have their own
+    int getAudioSessionId()
+    {
+        return audioSessionId;
+    }
+
+
+    Equalizer getEqualizer()
+    {
+        return equalizer;
+    }
+
+
+    LoudnessEnhancer getLoudnessEnhancer()
+    {
+        return loudnessEnhancer;
+    }
+
+
+    void release()
+    {
+        if (equalizer != null) {
+            equalizer.release();
+            equalizer = null;
+        }
+        if (loudnessEnhancer != null) {
+            loudnessEnhancer.release();
+            loudnessEnhancer = null;
+        }
+
+        attachedTo = 0;
+        applied    = false;
+    }
+
+
+    // a player started in the given session, normally the shared one, so all that may be needed is a different preset
+    void use(int sessionId, boolean radio)
+    {
+        if ((sessionId != 0) && ((sessionId != attachedTo) || (equalizer == null) || (loudnessEnhancer == null))) {
+            attach(sessionId);
+        }
+        if (applied && (this.radio == radio)) {
+            return;
+        }
+
+        this.radio = radio;
+        applied    = setEqualizer() & setLoudnessEnhancer();
+    }
+
+
+    private void attach(int sessionId)
+    {
+        if (sessionId != attachedTo) {
+            release();
+        }
+        attachedTo = sessionId;
+
+        try {
+            if (equalizer == null) {
+                equalizer = new Equalizer(FX_PRIORITY, sessionId);
+            }
+        }
+        catch (Exception ignored) {
+        }
+        try {
+            if (loudnessEnhancer == null) {
+                loudnessEnhancer = new LoudnessEnhancer(sessionId);
+            }
+        }
+        catch (Exception ignored) {
+        }
+    }
+
+
+    private boolean setEqualizer()
+    {
+        Equalizer.Settings equalizerSettings = radio ? amproidService.equalizerSettingsRadio : amproidService.equalizerSettingsPlain;
+        if (equalizer == null) {
+            return false;
+        }
+
+        try {
+            // no settings saved for this preset, the other preset's levels must not stay in effect
+            if ((equalizerSettings == null) || (equalizerSettings.numBands != equalizer.getNumberOfBands())) {
+                equalizer.setEnabled(false);
+                return true;
+            }
+
+
+            short minLevel = equalizer.getBandLevelRange()[0];
+            short maxLevel = equalizer.getBandLevelRange()[1];
+
+            for (int i = 0; i < equalizerSettings.numBands; i++) {
+                short level = equalizerSettings.bandLevels[i];
+
+                if (level < minLevel) {
+                    level = minLevel;
+                }
+                if (level > maxLevel) {
+                    level = maxLevel;
+                }
+
+                equalizer.setBandLevel((short) i, level);
+            }
+
+            equalizer.setEnabled(true);
+        }
+        catch (Exception e) {
+            return false;
+        }
+
+        return true;
+    }
+
+
+    private boolean setLoudnessEnhancer()
+    {
+        if (loudnessEnhancer == null) {
+            return false;
+        }
+
+        try {
+            loudnessEnhancer.setTargetGain(radio ? amproidService.loudnessGainSettingRadio : amproidService.loudnessGainSettingPlain);
+            loudnessEnhancer.setEnabled(true);
+        }
+        catch (Exception e) {
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import android.os.Bundle;
+import android.os.Handler;
+
+import com.pppphun.amproid.shared.Amproid;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+
+
+// per server: after consecutive network failures calls fail fast, until a ping gets through again
+final class CircuitBreaker
+{
+    private static final int  FAILURE_THRESHOLD = 3;
+    private static final long MIN_OPEN_TIME     = 5000;
+    private static final long MAX_OPEN_TIME     = 60000;
+    private static final int  PROBE_TIMEOUT     = 5000;
+
+    private enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final HashMap<String, CircuitBreaker> breakers = new HashMap<>();
+
+    private static Handler stateHandler = null;
+
+    private final String url;
+    private final String apiPath;
+
+    private State state               = State.CLOSED;
+    private int   consecutiveFailures = 0;
+    private long  openTime            = MIN_OPEN_TIME;
+
+
+    private CircuitBreaker(String url, String apiPath)
+    {
+        this.url     = url;
+        this.apiPath = apiPath;
+    }
+
+
+    static CircuitBreaker forServer(String url, String apiPath)
+    {
+        synchronized (breakers) {
+            CircuitBreaker breaker = breakers.get(url);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(url, apiPath);
+                breakers.put(url, breaker);
+            }
+            return breaker;
+        }
+    }
+
+
+    static boolean isAvailable(String url)
+    {
+        CircuitBreaker breaker;
+        synchronized (breakers) {
+            breaker = breakers.get(url);
+        }
+
+        return (breaker == null) || breaker.allowRequest();
+    }
+
+
+    // state changes are sent here, so that the service can switch between cached and fresh content
+    static synchronized void setStateHandler(Handler handler)
+    {
+        stateHandler = handler;
+    }
+
+
+    synchronized boolean allowRequest()
+    {
+        return state == State.CLOSED;
+    }
+
+
+    void recordFailure()
+    {
+        synchronized (this) {
+            consecutiveFailures++;
+            if ((state != State.CLOSED) || (consecutiveFailures < FAILURE_THRESHOLD)) {
+                return;
+            }
+            open();
+        }
+        sendState(false);
+    }
+
+
+    void recordSuccess()
+    {
+        synchronized (this) {
+            consecutiveFailures = 0;
+            if (state == State.CLOSED) {
+                return;
+            }
+            state    = State.CLOSED;
+            openTime = MIN_OPEN_TIME;
+        }
+        sendState(true);
+    }
+
+
+    private void open()
+    {
+        state = State.OPEN;
+
+        AmpacheTransport.getInstance().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                probe();
+            }
+        }, openTime);
+    }
+
+
+    private void probe()
+    {
+        synchronized (this) {
+            if (state != State.OPEN) {
+                return;
+            }
+            state = State.HALF_OPEN;
+        }
+
+        // "ping" needs no authentication and its response is tiny, any well-formed HTTP answer means the server is back
+        boolean           reachable  = false;
+        HttpURLConnection connection = null;
+        try {
+            connection = AmpacheTransport.getInstance().open(new URL(url + apiPath + "?action=ping"), PROBE_TIMEOUT, PROBE_TIMEOUT);
+            reachable  = (connection.getResponseCode() == HttpURLConnection.HTTP_OK);
+        }
+        catch (Exception ignored) {
+        }
+        AmpacheTransport.getInstance().release(connection);
+
+        if (reachable) {
+            recordSuccess();
+            return;
+        }
+
+        synchronized (this) {
+            if (state != State.HALF_OPEN) {
+                return;
+            }
+            openTime = Math.min(openTime * 2, MAX_OPEN_TIME);
+            open();
+        }
+    }
+
+
+    private void sendState(boolean available)
+    {
+        Handler handler;
+        synchronized (CircuitBreaker.class) {
+            handler = stateHandler;
+        }
+        if (handler == null) {
+            return;
+        }
+
+        Bundle arguments = new Bundle();
+        arguments.putBoolean("serverAvailable", available);
+        arguments.putString("url", url);
+        Amproid.sendMessage(handler, R.string.msg_async_server_state, arguments);
+    }
+}
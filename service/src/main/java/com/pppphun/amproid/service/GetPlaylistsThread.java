@@ -31,7 +31,6 @@ import android.os.SystemClock;
 
 import com.pppphun.amproid.shared.Amproid;
 
-import java.util.HashMap;
 import java.util.Vector;
 
 
@@ -81,7 +80,7 @@ class GetPlaylistsThread extends ThreadCancellable
             return;
         }
 
-        Vector<HashMap<String, String>> playlists = ampacheAPICaller.getPlaylists(authToken);
+        Vector<AmpacheItem> playlists = AmpacheItem.fromResults(AmpacheItem.Type.PLAYLIST, ampacheAPICaller.getPlaylists(authToken));
         if (isCancelled()) {
             return;
         }
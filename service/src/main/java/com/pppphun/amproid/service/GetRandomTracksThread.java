@@ -0,0 +1,207 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2021. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+
+package com.pppphun.amproid.service;
+
+
+import static com.pppphun.amproid.shared.Amproid.ConnectionStatus.CONNECTION_NONE;
+import static com.pppphun.amproid.shared.Amproid.ConnectionStatus.CONNECTION_UNKNOWN;
+
+import android.os.Bundle;
+import android.os.Handler;
+
+import com.pppphun.amproid.shared.Amproid;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Vector;
+
+
+// a run of shuffle tracks for the service's lookahead pool, picked the same way GetTracksThread picks them one by one
+public class GetRandomTracksThread extends ThreadCancellable
+{
+    // each kind is fetched this many at a time, a run of tracks needs only a few of each
+    private static final int BATCH_SIZE = 3;
+
+    private final String authToken;
+    private final String url;
+    private       String randomGenres;
+    private       int    randomGenresRemaining;
+    private final int    count;
+
+    private final Handler amproidServiceHandler;
+
+
+    GetRandomTracksThread(String authToken, String url, String randomGenres, int randomGenresRemaining, int count, Handler amproidServiceHandler)
+    {
+        this.authToken             = authToken;
+        this.url                   = url;
+        this.randomGenres          = randomGenres == null ? "" : randomGenres;
+        this.randomGenresRemaining = randomGenresRemaining;
+        this.count                 = count;
+
+        this.amproidServiceHandler = amproidServiceHandler;
+    }
+
+
+    @Override
+    public void run()
+    {
+        if ((authToken == null) || authToken.isEmpty()) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_random_tracks, R.string.error_blank_token);
+            return;
+        }
+        if ((url == null) || url.isEmpty()) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_random_tracks, R.string.error_invalid_server_url);
+            return;
+        }
+
+        // this runs ahead of playback, no need to wait for the network
+        Amproid.ConnectionStatus connectionStatus = Amproid.getConnectionStatus();
+        if ((connectionStatus == CONNECTION_UNKNOWN) || (connectionStatus == CONNECTION_NONE)) {
+            sendDownloaded();
+            return;
+        }
+
+        AmpacheAPICaller ampacheAPICaller = new AmpacheAPICaller(url);
+        if (!ampacheAPICaller.getErrorMessage().isEmpty()) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_random_tracks, ampacheAPICaller.getErrorMessage());
+            return;
+        }
+
+        Random        randomizer    = new Random();
+        Vector<Track> tracks        = new Vector<>();
+        Vector<Track> shuffled      = new Vector<>();
+        Vector<Track> favorites     = new Vector<>();
+        Vector<Track> recentlyAdded = new Vector<>();
+
+        while ((tracks.size() < count) && !isCancelled()) {
+            if ((randomGenresRemaining > 0) && (randomGenres.length() > 0)) {
+                // the rest of the genre chain in one go
+                Vector<Track> genreTracks = ampacheAPICaller.getTracks(authToken, randomGenresRemaining, randomGenres, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_GENRE);
+                if (!ampacheAPICaller.getErrorMessage().isEmpty()) {
+                    break;
+                }
+                for (Track track : genreTracks) {
+                    track.setShuffleSource(Track.ShuffleSource.SHUFFLE_SOURCE_SHUFFLE);
+                }
+                tracks.addAll(genreTracks);
+
+                randomGenresRemaining = -1;
+                randomGenres          = "";
+            }
+            else if (randomGenresRemaining < 0) {
+                boolean       favorite = (randomizer.nextInt(100) < 66);
+                Vector<Track> batch    = favorite ? favorites : recentlyAdded;
+                if (batch.isEmpty()) {
+                    if (favorite) {
+                        batch.addAll(ampacheAPICaller.getTracks(authToken, BATCH_SIZE, null, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_FLAGGED));
+                    }
+                    else {
+                        batch.addAll(ampacheAPICaller.getTracks(authToken, BATCH_SIZE, String.valueOf(Amproid.getRecentSongCount()), AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_RANDOM_RECENTLY_ADDED));
+                    }
+                    if (!ampacheAPICaller.getErrorMessage().isEmpty()) {
+                        break;
+                    }
+                }
+
+                // nothing flagged or recently added, a plain shuffle track comes instead
+                randomGenresRemaining = 0;
+                if (!batch.isEmpty()) {
+                    Track track = batch.remove(0);
+                    track.setShuffleSource(favorite ? Track.ShuffleSource.SHUFFLE_SOURCE_FAVORIE : Track.ShuffleSource.SHUFFLE_SOURCE_RECENTLY_ADDED);
+                    tracks.add(track);
+                }
+            }
+            else {
+                if (shuffled.isEmpty()) {
+                    shuffled.addAll(ampacheAPICaller.getTracks(authToken, BATCH_SIZE, null, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_NONE));
+                    if (!ampacheAPICaller.getErrorMessage().isEmpty() || shuffled.isEmpty()) {
+                        break;
+                    }
+                }
+
+                Track track = shuffled.remove(0);
+                track.setShuffleSource(Track.ShuffleSource.SHUFFLE_SOURCE_SHUFFLE);
+                tracks.add(track);
+
+                randomGenres = "";
+                Vector<String> trackGenres = track.getTagsFiltered();
+                for (String trackGenre : trackGenres) {
+                    try {
+                        randomGenres = (randomGenres.length() > 0 ? randomGenres + (char) 255 : "") + URLEncoder.encode(trackGenre, StandardCharsets.UTF_8.toString());
+                    }
+                    catch (Exception ignored) {
+                        // in case UTF-8 is not supported, we just don't care: worst case is all songs will be random (not genre driven)
+                    }
+                }
+                randomGenresRemaining = randomizer.nextInt(3) + 1;
+            }
+        }
+
+        if (isCancelled()) {
+            return;
+        }
+
+        // what's been picked so far is still good, the error only matters if there's nothing
+        if (tracks.isEmpty() && !ampacheAPICaller.getErrorMessage().isEmpty()) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_random_tracks, ampacheAPICaller.getErrorMessage());
+            return;
+        }
+
+        OfflineStore.getInstance().resolve(tracks);
+
+        Bundle arguments = new Bundle();
+        arguments.putSerializable("tracks", tracks);
+        arguments.putString("randomGenres", randomGenres);
+        arguments.putInt("randomGenresRemaining", randomGenresRemaining);
+        Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_random_tracks, arguments);
+    }
+
+
+    // without network, shuffle goes on with the songs downloaded for offline playback, the genre chain is left as it was
+    private void sendDownloaded()
+    {
+        Vector<Track> downloaded = OfflineStore.getInstance().getDownloadedTracks();
+        if (downloaded.isEmpty()) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_random_tracks, R.string.error_no_network);
+            return;
+        }
+
+        Collections.shuffle(downloaded);
+
+        Vector<Track> tracks = new Vector<>();
+        for (int i = 0; (i < count) && (i < downloaded.size()); i++) {
+            Track track = downloaded.get(i);
+            track.setShuffleSource(Track.ShuffleSource.SHUFFLE_SOURCE_SHUFFLE);
+            tracks.add(track);
+        }
+
+        Bundle arguments = new Bundle();
+        arguments.putSerializable("tracks", tracks);
+        arguments.putString("randomGenres", randomGenres);
+        arguments.putInt("randomGenresRemaining", randomGenresRemaining);
+        Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_random_tracks, arguments);
+    }
+}
@@ -32,7 +32,6 @@ import android.os.SystemClock;
 import com.pppphun.amproid.shared.Amproid;
 
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Vector;
 
 
@@ -82,7 +81,7 @@ public class GetRecentAlbumsThread extends ThreadCancellable
             return;
         }
 
-        Vector<HashMap<String, String>> recentAlbums = ampacheAPICaller.getRecentAlbums(authToken, Amproid.getRecentSongCount());
+        Vector<AmpacheItem> recentAlbums = AmpacheItem.fromResults(AmpacheItem.Type.ALBUM, ampacheAPICaller.getRecentAlbums(authToken, Amproid.getRecentSongCount()));
         if (isCancelled()) {
             return;
         }
@@ -91,22 +90,12 @@ public class GetRecentAlbumsThread extends ThreadCancellable
             return;
         }
 
-        recentAlbums.sort(new Comparator<HashMap<String, String>>()
+        recentAlbums.sort(new Comparator<AmpacheItem>()
         {
             @Override
-            public int compare(HashMap<String, String> o1, HashMap<String, String> o2)
+            public int compare(AmpacheItem o1, AmpacheItem o2)
             {
-                String name1 = o1.get("name");
-                String name2 = o2.get("name");
-
-                if (name1 == null) {
-                    name1 = "A";
-                }
-                if (name2 == null) {
-                    name2 = "A";
-                }
-
-                return name1.compareTo(name2);
+                return o1.getName().compareTo(o2.getName());
             }
         });
 
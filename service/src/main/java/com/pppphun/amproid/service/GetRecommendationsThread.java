@@ -174,11 +174,11 @@ public class GetRecommendationsThread extends ThreadCancellable
             favTracks.remove(0);
         }
 
-        Vector<HashMap<String, String>> cachedPlaylists = playlistsCache.getPlaylists();
+        Vector<AmpacheItem> cachedPlaylists = playlistsCache.getPlaylists();
 
-        Vector<HashMap<String, String>> artists   = new Vector<>();
-        Vector<HashMap<String, String>> albums    = new Vector<>();
-        Vector<HashMap<String, String>> playlists = new Vector<>();
+        Vector<AmpacheItem> artists   = new Vector<>();
+        Vector<AmpacheItem> albums    = new Vector<>();
+        Vector<AmpacheItem> playlists = new Vector<>();
 
         Vector<String> artistsUnique = new Vector<>();
         Vector<String> albumsUnique  = new Vector<>();
@@ -191,18 +191,18 @@ public class GetRecommendationsThread extends ThreadCancellable
             if (!artistsUnique.contains(track.getArtistId())) {
                 artistsUnique.add(track.getArtistId());
 
-                artists.addAll(ampacheAPICaller.getArtist(authToken, track.getArtistId()));
+                artists.addAll(AmpacheItem.fromResults(AmpacheItem.Type.ARTIST, ampacheAPICaller.getArtist(authToken, track.getArtistId())));
                 if (isCancelled()) {
                     return;
                 }
 
-                for (HashMap<String, String> playlist : cachedPlaylists) {
-                    if (Amproid.stringContains(track.getArtist(), playlist.get("name"))) {
+                for (AmpacheItem playlist : cachedPlaylists) {
+                    if (Amproid.stringContains(track.getArtist(), playlist.getName())) {
                         playlists.add(playlist);
                     }
                 }
 
-                Vector<HashMap<String, String>> artistAlbums = new Vector<>(ampacheAPICaller.getAlbums(authToken, track.getArtistId()));
+                Vector<AmpacheItem> artistAlbums = AmpacheItem.fromResults(AmpacheItem.Type.ALBUM, ampacheAPICaller.getAlbums(authToken, track.getArtistId()));
                 if (isCancelled()) {
                     return;
                 }
@@ -210,7 +210,7 @@ public class GetRecommendationsThread extends ThreadCancellable
                     int ind = randomizer.nextInt(artistAlbums.size());
                     int cnt = 0;
                     while ((ind < artistAlbums.size()) && (cnt < 2)) {
-                        albumsUnique.add(artistAlbums.get(ind).get("id"));
+                        albumsUnique.add(artistAlbums.get(ind).getId());
                         albums.add(artistAlbums.get(ind));
                         ind++;
                         cnt++;
@@ -219,7 +219,7 @@ public class GetRecommendationsThread extends ThreadCancellable
             }
             if (!albumsUnique.contains(track.getAlbumId())) {
                 albumsUnique.add(track.getAlbumId());
-                albums.addAll(ampacheAPICaller.getAlbum(authToken, track.getAlbumId()));
+                albums.addAll(AmpacheItem.fromResults(AmpacheItem.Type.ALBUM, ampacheAPICaller.getAlbum(authToken, track.getAlbumId())));
                 if (isCancelled()) {
                     return;
                 }
@@ -279,8 +279,8 @@ public class GetRecommendationsThread extends ThreadCancellable
 
                     String[] tagParts = sortTags.get(i).split("\\s+");
                     for (String tagPart : tagParts) {
-                        for (HashMap<String, String> playlist : cachedPlaylists) {
-                            if (Amproid.stringContains(tagPart, playlist.get("name")) && !playlists.contains(playlist)) {
+                        for (AmpacheItem playlist : cachedPlaylists) {
+                            if (Amproid.stringContains(tagPart, playlist.getName()) && !playlists.contains(playlist)) {
                                 playlists.add(playlist);
                             }
                         }
@@ -316,7 +316,7 @@ public class GetRecommendationsThread extends ThreadCancellable
         arguments.putSerializable("playlists", playlists);
         arguments.putSerializable("genres", genres);
 
-        Vector<HashMap<String, String>> radios = ampacheAPICaller.getLiveStreams(authToken);
+        Vector<AmpacheItem> radios = AmpacheItem.fromResults(AmpacheItem.Type.RADIO, ampacheAPICaller.getLiveStreams(authToken));
         if (radios.size() > 0) {
             arguments.putSerializable("radio", radios.get(randomizer.nextInt(radios.size())));
         }
@@ -42,23 +42,41 @@ import com.pppphun.amproid.shared.Amproid;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 
 public class GetTracksThread extends ThreadCancellable
 {
+    private static final int PAGE_SIZE       = 100;
+    private static final int SONG_BATCH_SIZE = 50;
+    private static final int PROGRESS_STEP   = 10;
+
     private final String authToken;
     private final String url;
     private final int    playMode;
     private final String ampacheId;
     private       String randomGenres;
     private       int    randomGenresRemaining;
+    private final int    startIndex;
+    private       int    pageOffset = 0;
 
     private final Handler amproidServiceHandler;
 
 
     GetTracksThread(String authToken, String url, int playMode, String ampacheId, String randomGenres, int randomGenresRemaining, Handler amproidServiceHandler)
+    {
+        this(authToken, url, playMode, ampacheId, randomGenres, randomGenresRemaining, 0, amproidServiceHandler);
+    }
+
+
+    // startIndex: the track playback will start with, pages are fetched until it's there
+    GetTracksThread(String authToken, String url, int playMode, String ampacheId, String randomGenres, int randomGenresRemaining, int startIndex, Handler amproidServiceHandler)
     {
         this.authToken             = authToken;
         this.url                   = url;
@@ -66,14 +84,41 @@ public class GetTracksThread extends ThreadCancellable
         this.ampacheId             = ampacheId;
         this.randomGenres          = randomGenres;
         this.randomGenresRemaining = randomGenresRemaining;
+        this.startIndex            = Math.max(startIndex, 0);
 
         this.amproidServiceHandler = amproidServiceHandler;
     }
 
 
+    String getAmpacheId()
+    {
+        return ampacheId;
+    }
+
+
     @Override
     public void run()
     {
+        // pinned lists play from the downloaded songs instead of waiting for the network
+        String pinId = OfflineStore.pinId(playMode, ampacheId);
+        if ((pinId != null) && OfflineStore.getInstance().isPinned(pinId)) {
+            Amproid.ConnectionStatus connectionStatus = Amproid.getConnectionStatus();
+            if ((connectionStatus == CONNECTION_UNKNOWN) || (connectionStatus == CONNECTION_NONE)) {
+                Vector<Track> tracks = OfflineStore.getInstance().getPinnedTracks(pinId);
+                if ((tracks != null) && !tracks.isEmpty()) {
+                    Bundle arguments = new Bundle();
+                    arguments.putSerializable("tracks", tracks);
+                    arguments.putString("ampacheId", ampacheId);
+                    String queueTitle = OfflineStore.getInstance().getPinnedTitle(pinId);
+                    if ((queueTitle != null) && (queueTitle.length() > 0)) {
+                        arguments.putString("queueTitle", queueTitle);
+                    }
+                    Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks, arguments);
+                    return;
+                }
+            }
+        }
+
         if ((authToken == null) || authToken.isEmpty()) {
             Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks, R.string.error_blank_token);
             return;
@@ -101,11 +146,38 @@ public class GetTracksThread extends ThreadCancellable
             return;
         }
 
+        // playback can start with the first track while the rest of the list is still coming in
+        AmpacheAPICaller.TrackListener startTrackListener = new AmpacheAPICaller.TrackListener()
+        {
+            private int parsedCount = 0;
+
+
+            @Override
+            public void trackParsed(Track track)
+            {
+                if ((parsedCount++ != startIndex) || isCancelled()) {
+                    return;
+                }
+
+                OfflineStore.getInstance().resolve(track);
+
+                Bundle arguments = new Bundle();
+                arguments.putSerializable("track", track);
+                arguments.putString("ampacheId", ampacheId);
+                arguments.putInt("playMode", playMode);
+                arguments.putInt("trackIndex", startIndex);
+                Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks_first, arguments);
+            }
+        };
+
         boolean       favorites     = false;
         boolean       recentlyAdded = false;
         Vector<Track> tracks        = new Vector<>();
         String        queueTitle    = null;
         boolean       multiBrowse   = false;
+        boolean       morePages     = false;
+
+        AmpacheAPICaller.GetTracksIdType pagedIdType = AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_NONE;
         if (playMode == PLAY_MODE_RANDOM) {
             if ((randomGenresRemaining > 0) && (randomGenres.length() > 0)) {
                 tracks.addAll(ampacheAPICaller.getTracks(authToken, 1, randomGenres, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_GENRE));
@@ -150,7 +222,14 @@ public class GetTracksThread extends ThreadCancellable
             }
         }
         else if (playMode == PLAY_MODE_PLAYLIST) {
-            tracks.addAll(ampacheAPICaller.getTracks(authToken, 0, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_PLAYLIST));
+            if (ampacheId.startsWith("smart_")) {
+                // smart playlists are generated on each call, pages wouldn't add up to one list
+                tracks.addAll(ampacheAPICaller.getTracks(authToken, 0, 0, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_PLAYLIST, startTrackListener));
+            }
+            else {
+                pagedIdType = AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_PLAYLIST;
+                morePages   = getFirstPages(ampacheAPICaller, pagedIdType, tracks, startTrackListener);
+            }
             try {
                 queueTitle = ampacheAPICaller.getPlaylist(authToken, ampacheId).get(0).get("name");
             }
@@ -158,7 +237,7 @@ public class GetTracksThread extends ThreadCancellable
             }
         }
         else if (playMode == PLAY_MODE_ARTIST) {
-            tracks.addAll(ampacheAPICaller.getTracks(authToken, 7, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_ARTIST));
+            tracks.addAll(ampacheAPICaller.getTracks(authToken, 7, 0, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_ARTIST, startTrackListener));
             try {
                 queueTitle = ampacheAPICaller.getArtist(authToken, ampacheId).get(0).get("name");
             }
@@ -166,7 +245,8 @@ public class GetTracksThread extends ThreadCancellable
             }
         }
         else if (playMode == PLAY_MODE_ALBUM) {
-            tracks.addAll(ampacheAPICaller.getTracks(authToken, 0, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_ALBUM));
+            pagedIdType = AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_ALBUM;
+            morePages   = getFirstPages(ampacheAPICaller, pagedIdType, tracks, startTrackListener);
             try {
                 queueTitle = ampacheAPICaller.getAlbum(authToken, ampacheId).get(0).get("name");
             }
@@ -176,15 +256,15 @@ public class GetTracksThread extends ThreadCancellable
         else if (playMode == PLAY_MODE_BROWSE) {
             String[] trackIds = ampacheId.split(",");
             multiBrowse = (trackIds.length > 1);
-            for (String trackId: trackIds) {
-                tracks.addAll(ampacheAPICaller.getTracks(authToken, 1, trackId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_SONG));
-                if (isCancelled() || !ampacheAPICaller.getErrorMessage().isEmpty()) {
-                    break;
-                }
+            if (multiBrowse) {
+                tracks.addAll(getSongs(trackIds));
+            }
+            else {
+                tracks.addAll(ampacheAPICaller.getTracks(authToken, 1, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_SONG));
             }
         }
         else if (playMode == PLAY_MODE_GENRE) {
-            tracks.addAll(ampacheAPICaller.getTracks(authToken, 7, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_GENRE));
+            tracks.addAll(ampacheAPICaller.getTracks(authToken, 7, 0, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_GENRE, startTrackListener));
 
             String[] tags = ampacheId.split(String.valueOf((char) 255));
             for (int i = 0; i < tags.length; i++) {
@@ -194,7 +274,7 @@ public class GetTracksThread extends ThreadCancellable
         }
         else if (playMode == PLAY_MODE_RANDOM_RECENT) {
             // note here id should contain the number of recent tracks to select from (how far to go back)
-            tracks.addAll(ampacheAPICaller.getTracks(authToken, 7, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_RANDOM_RECENTLY_ADDED));
+            tracks.addAll(ampacheAPICaller.getTracks(authToken, 7, 0, ampacheId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_RANDOM_RECENTLY_ADDED, startTrackListener));
             queueTitle = "Shuffle new";
         }
         else if (playMode == PLAY_MODE_RADIO) {
@@ -210,6 +290,9 @@ public class GetTracksThread extends ThreadCancellable
             return;
         }
 
+        // downloaded songs play from the device even when online
+        OfflineStore.getInstance().resolve(tracks);
+
         Bundle arguments = new Bundle();
         arguments.putSerializable("tracks", tracks);
         arguments.putString("ampacheId", ampacheId);
@@ -225,6 +308,158 @@ public class GetTracksThread extends ThreadCancellable
         if (multiBrowse) {
             arguments.putBoolean("multiBrowse", true);
         }
+        if (morePages) {
+            arguments.putBoolean("morePages", true);
+        }
         Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks, arguments);
+
+        // playback has started with the first pages, the rest of the queue follows
+        int queuedCount = tracks.size();
+        while (morePages && !isCancelled()) {
+            Vector<Track> page = new Vector<>();
+            morePages = getPage(ampacheAPICaller, pagedIdType, page, null);
+
+            // a failed page just leaves the queue shorter, the error was already accounted for by the API caller
+            if (isCancelled() || !ampacheAPICaller.getErrorMessage().isEmpty()) {
+                break;
+            }
+            if (page.isEmpty()) {
+                continue;
+            }
+            OfflineStore.getInstance().resolve(page);
+
+            Bundle pageArguments = new Bundle();
+            pageArguments.putSerializable("tracks", page);
+            pageArguments.putString("ampacheId", ampacheId);
+            pageArguments.putInt("queuedCount", queuedCount);
+            pageArguments.putBoolean("morePages", morePages);
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks_page, pageArguments);
+
+            queuedCount += page.size();
+        }
+    }
+
+
+    // enough pages to have the start track, returns true if there may be more pages
+    private boolean getFirstPages(AmpacheAPICaller ampacheAPICaller, AmpacheAPICaller.GetTracksIdType idType, Vector<Track> tracks, AmpacheAPICaller.TrackListener trackListener)
+    {
+        boolean morePages = true;
+        while (morePages && !isCancelled() && (tracks.size() <= startIndex)) {
+            morePages = getPage(ampacheAPICaller, idType, tracks, trackListener);
+        }
+        if (tracks.isEmpty() || !ampacheAPICaller.getErrorMessage().isEmpty()) {
+            return false;
+        }
+
+        return morePages;
+    }
+
+
+    // songs by ID in the order of the IDs, a few searches for many songs at a time, then concurrent calls for whatever those didn't find
+    private Vector<Track> getSongs(String[] trackIds)
+    {
+        HashMap<String, Track> found = new HashMap<>();
+
+        AmpacheAPICaller batchCaller = new AmpacheAPICaller(url);
+        for (int i = 0; (i < trackIds.length) && !isCancelled(); i += SONG_BATCH_SIZE) {
+            String[]      batch   = Arrays.copyOfRange(trackIds, i, Math.min(i + SONG_BATCH_SIZE, trackIds.length));
+            Vector<Track> results = batchCaller.getTracks(authToken, batch.length, String.join(",", batch), AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_SONGS);
+            if (results.isEmpty() && !batchCaller.getErrorMessage().isEmpty()) {
+                // probably a server that can't search by ID, the rest is done one by one
+                break;
+            }
+
+            // a server that doesn't know the ID rule may just ignore it, and return any songs
+            HashSet<String> requested = new HashSet<>(Arrays.asList(batch));
+            boolean         matched   = false;
+            for (Track track : results) {
+                if (requested.contains(track.getId())) {
+                    found.put(track.getId(), track);
+                    matched = true;
+                }
+            }
+            if (!results.isEmpty() && !matched) {
+                break;
+            }
+            sendProgress(Math.min(i + SONG_BATCH_SIZE, trackIds.length), trackIds.length);
+        }
+
+        Vector<String> missing = new Vector<>();
+        for (String trackId : trackIds) {
+            if (!found.containsKey(trackId) && !missing.contains(trackId)) {
+                missing.add(trackId);
+            }
+        }
+
+        if (!missing.isEmpty() && !isCancelled()) {
+            // on the transport's executor, it's what caps the number of API calls at a time
+            Vector<Future<Vector<Track>>> futures = new Vector<>();
+            for (final String trackId : missing) {
+                futures.add(AmpacheTransport.getInstance().submit(new Callable<Vector<Track>>()
+                {
+                    @Override
+                    public Vector<Track> call()
+                    {
+                        // one caller each, the caller keeps the state of its last call
+                        return new AmpacheAPICaller(url).getTracks(authToken, 1, trackId, AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_SONG);
+                    }
+                }));
+            }
+
+            int done = trackIds.length - missing.size();
+            for (Future<Vector<Track>> future : futures) {
+                if (isCancelled()) {
+                    for (Future<Vector<Track>> remaining : futures) {
+                        remaining.cancel(true);
+                    }
+                    break;
+                }
+
+                try {
+                    for (Track track : future.get()) {
+                        found.put(track.getId(), track);
+                    }
+                }
+                catch (Exception ignored) {
+                    // a song that can't be had just leaves the queue shorter
+                }
+
+                done++;
+                if ((done % PROGRESS_STEP == 0) || (done == trackIds.length)) {
+                    sendProgress(done, trackIds.length);
+                }
+            }
+        }
+
+        Vector<Track> tracks = new Vector<>();
+        for (String trackId : trackIds) {
+            Track track = found.get(trackId);
+            if (track != null) {
+                // the same song may be in the queue more than once
+                tracks.add(tracks.contains(track) ? new Track(track) : track);
+            }
+        }
+        return tracks;
+    }
+
+
+    // returns true if there may be more pages
+    private boolean getPage(AmpacheAPICaller ampacheAPICaller, AmpacheAPICaller.GetTracksIdType idType, Vector<Track> tracks, AmpacheAPICaller.TrackListener trackListener)
+    {
+        tracks.addAll(ampacheAPICaller.getTracks(authToken, PAGE_SIZE, pageOffset, ampacheId, idType, trackListener));
+
+        // offset counts rows on the server, some of which may not have made it into tracks
+        pageOffset += ampacheAPICaller.getLastResultCount();
+
+        return ampacheAPICaller.getErrorMessage().isEmpty() && (ampacheAPICaller.getLastResultCount() >= PAGE_SIZE);
+    }
+
+
+    private void sendProgress(int done, int total)
+    {
+        Bundle arguments = new Bundle();
+        arguments.putInt("done", done);
+        arguments.putInt("total", total);
+        Amproid.sendMessage(amproidServiceHandler, R.string.msg_async_progress, arguments);
     }
 }
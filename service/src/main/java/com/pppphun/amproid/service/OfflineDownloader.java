@@ -0,0 +1,185 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import static com.pppphun.amproid.shared.Amproid.ConnectionStatus.CONNECTION_NONE;
+import static com.pppphun.amproid.shared.Amproid.ConnectionStatus.CONNECTION_UNKNOWN;
+
+import com.pppphun.amproid.shared.Amproid;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+// downloads the songs of pinned playlists and albums a few at a time, partial downloads continue where they stopped
+final class OfflineDownloader
+{
+    private static final int  MAX_CONCURRENT_DOWNLOADS = 2;
+    private static final long MIN_FREE_SPACE           = 256 * 1024 * 1024L;
+    private static final int  BUFFER_SIZE              = 65536;
+    private static final long IDLE_THREAD_KEEP_ALIVE   = 30;
+
+    private final OfflineStore       store;
+    private final ThreadPoolExecutor executor;
+    private final HashSet<String>    queued = new HashSet<>();
+
+
+    OfflineDownloader(OfflineStore store)
+    {
+        this.store = store;
+
+        // few, so that playback's own streaming isn't starved
+        executor = new ThreadPoolExecutor(MAX_CONCURRENT_DOWNLOADS, MAX_CONCURRENT_DOWNLOADS, IDLE_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+
+    void enqueue(final Track track)
+    {
+        if ((track == null) || track.isRadio() || track.isLocal() || (track.getUrl() == null)) {
+            return;
+        }
+
+        final File file = store.songFile(track.getId());
+        if ((file == null) || file.exists()) {
+            return;
+        }
+
+        synchronized (queued) {
+            if (!queued.add(track.getId())) {
+                return;
+            }
+        }
+
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    download(track, file);
+                }
+                finally {
+                    synchronized (queued) {
+                        queued.remove(track.getId());
+                    }
+                }
+            }
+        });
+    }
+
+
+    int getQueuedCount()
+    {
+        synchronized (queued) {
+            return queued.size();
+        }
+    }
+
+
+    // failures leave the partial file in place, the next resume continues from there
+    private void download(Track track, File file)
+    {
+        if (file.exists() || !store.isWanted(track.getId())) {
+            return;
+        }
+
+        Amproid.ConnectionStatus connectionStatus = Amproid.getConnectionStatus();
+        if ((connectionStatus == CONNECTION_UNKNOWN) || (connectionStatus == CONNECTION_NONE)) {
+            return;
+        }
+
+        String authToken = store.getAuthToken();
+        File   part      = store.partFile(track.getId());
+        if (authToken.isEmpty() || (part == null) || (file.getParentFile().getUsableSpace() < MIN_FREE_SPACE)) {
+            return;
+        }
+
+        long offset = part.exists() ? part.length() : 0;
+
+        HttpURLConnection connection = null;
+        try {
+            // stored with the session the list was fetched in, the current one is put in its place
+            connection = AmpacheTransport.getInstance().openMedia(Track.withSession(track.getUrl(), authToken), offset > 0 ? "bytes=" + offset + "-" : null);
+
+            int     responseCode = connection.getResponseCode();
+            boolean append;
+            if ((responseCode == HttpURLConnection.HTTP_PARTIAL) && (offset > 0)) {
+                append = true;
+            }
+            else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // the server doesn't do ranges, or there was nothing to continue
+                append = false;
+            }
+            else {
+                if (responseCode == 416) {
+                    // the partial file doesn't match the song anymore
+                    part.delete();
+                }
+                return;
+            }
+
+            long expected = connection.getContentLengthLong();
+            long written  = 0;
+            try (InputStream inputStream = connection.getInputStream(); OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(part, append), BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int    read   = inputStream.read(buffer);
+                while (read >= 0) {
+                    outputStream.write(buffer, 0, read);
+                    written += read;
+
+                    // unpinned meanwhile
+                    if (!store.isWanted(track.getId())) {
+                        break;
+                    }
+
+                    read = inputStream.read(buffer);
+                }
+            }
+
+            if (!store.isWanted(track.getId())) {
+                part.delete();
+                return;
+            }
+
+            if ((expected < 0) || (written == expected)) {
+                part.renameTo(file);
+            }
+        }
+        catch (Exception ignored) {
+        }
+        finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import static com.pppphun.amproid.service.AmproidService.PLAY_MODE_ALBUM;
+import static com.pppphun.amproid.service.AmproidService.PLAY_MODE_PLAYLIST;
+import static com.pppphun.amproid.service.AmproidService.PREFIX_ALBUM;
+import static com.pppphun.amproid.service.AmproidService.PREFIX_PLAYLIST;
+
+import com.pppphun.amproid.shared.Amproid;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Vector;
+
+
+// playlists and albums kept on the device: their track lists and downloaded songs live with the app's files, not in the cache
+final class OfflineStore
+{
+    private static final String DIRECTORY   = "offline";
+    private static final String LISTS       = "lists";
+    private static final String SONGS       = "songs";
+    private static final String PART_SUFFIX = ".part";
+
+    private static OfflineStore instance = null;
+
+    private final HashMap<String, Pin> pins       = new HashMap<>();
+    private final OfflineDownloader    downloader = new OfflineDownloader(this);
+
+    private String authToken = "";
+
+
+    private OfflineStore()
+    {
+        loadPins();
+    }
+
+
+    static synchronized OfflineStore getInstance()
+    {
+        if (instance == null) {
+            instance = new OfflineStore();
+        }
+        return instance;
+    }
+
+
+    static boolean isPinnable(String mediaId)
+    {
+        return (mediaId != null) && ((mediaId.startsWith(PREFIX_PLAYLIST) && !mediaId.startsWith(PREFIX_PLAYLIST + "smart_")) || mediaId.startsWith(PREFIX_ALBUM));
+    }
+
+
+    // media ID of what the play mode plays, null if that can't be pinned
+    static String pinId(int playMode, String ampacheId)
+    {
+        String mediaId = null;
+        if (playMode == PLAY_MODE_PLAYLIST) {
+            mediaId = PREFIX_PLAYLIST + ampacheId;
+        }
+        else if (playMode == PLAY_MODE_ALBUM) {
+            mediaId = PREFIX_ALBUM + ampacheId;
+        }
+
+        return isPinnable(mediaId) ? mediaId : null;
+    }
+
+
+    synchronized String getAuthToken()
+    {
+        return authToken;
+    }
+
+
+    // every song that can be played without network, for shuffle
+    Vector<Track> getDownloadedTracks()
+    {
+        Vector<Track>   tracks = new Vector<>();
+        HashSet<String> seen   = new HashSet<>();
+        synchronized (pins) {
+            for (Pin pin : pins.values()) {
+                for (Track track : pin.tracks) {
+                    if (seen.add(track.getId())) {
+                        addIfDownloaded(tracks, track);
+                    }
+                }
+            }
+        }
+        return tracks;
+    }
+
+
+    // the downloaded songs of a pinned list, in order, or null if it's not pinned
+    Vector<Track> getPinnedTracks(String mediaId)
+    {
+        synchronized (pins) {
+            Pin pin = pins.get(mediaId);
+            if (pin == null) {
+                return null;
+            }
+
+            Vector<Track> tracks = new Vector<>();
+            for (Track track : pin.tracks) {
+                addIfDownloaded(tracks, track);
+            }
+            return tracks;
+        }
+    }
+
+
+    String getPinnedTitle(String mediaId)
+    {
+        synchronized (pins) {
+            Pin pin = pins.get(mediaId);
+            return pin == null ? null : pin.title;
+        }
+    }
+
+
+    boolean isPinned(String mediaId)
+    {
+        synchronized (pins) {
+            return pins.containsKey(mediaId);
+        }
+    }
+
+
+    // a song still belongs to at least one pinned list
+    boolean isWanted(String songId)
+    {
+        synchronized (pins) {
+            for (Pin pin : pins.values()) {
+                for (Track track : pin.tracks) {
+                    if (track.getId().equals(songId)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+
+    File partFile(String songId)
+    {
+        File file = songFile(songId);
+        return file == null ? null : new File(file.getPath() + PART_SUFFIX);
+    }
+
+
+    // pinning again refreshes the list, songs no longer in it are deleted
+    void pin(@NotNull String mediaId, String title, @NotNull Vector<Track> tracks)
+    {
+        Pin pin = new Pin(mediaId, title, tracks);
+        if (!writePin(pin)) {
+            return;
+        }
+
+        synchronized (pins) {
+            pins.put(mediaId, pin);
+        }
+        deleteUnwanted();
+
+        for (Track track : tracks) {
+            downloader.enqueue(track);
+        }
+    }
+
+
+    // plays from the local file if the song is downloaded
+    void resolve(Track track)
+    {
+        if ((track == null) || track.isRadio() || track.isLocal()) {
+            return;
+        }
+
+        File file = songFile(track.getId());
+        if ((file == null) || !file.exists()) {
+            return;
+        }
+
+        try {
+            track.setUrl(file.toURI().toURL());
+        }
+        catch (Exception ignored) {
+        }
+    }
+
+
+    void resolve(Vector<Track> tracks)
+    {
+        for (Track track : tracks) {
+            resolve(track);
+        }
+    }
+
+
+    // downloads need a valid session, this is called whenever there's a new one
+    void resume(String authToken)
+    {
+        if ((authToken == null) || authToken.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            this.authToken = authToken;
+        }
+
+        Vector<Track> missing = new Vector<>();
+        synchronized (pins) {
+            for (Pin pin : pins.values()) {
+                missing.addAll(pin.tracks);
+            }
+        }
+        for (Track track : missing) {
+            downloader.enqueue(track);
+        }
+    }
+
+
+    File songFile(String songId)
+    {
+        File directory = directory(SONGS);
+        if ((directory == null) || (songId == null) || songId.isEmpty()) {
+            return null;
+        }
+        return new File(directory, songId.replaceAll("[^0-9A-Za-z_-]", "_"));
+    }
+
+
+    String summary()
+    {
+        int pinCount;
+        int songCount;
+        synchronized (pins) {
+            pinCount = pins.size();
+
+            HashSet<String> songIds = new HashSet<>();
+            for (Pin pin : pins.values()) {
+                for (Track track : pin.tracks) {
+                    songIds.add(track.getId());
+                }
+            }
+            songCount = songIds.size();
+        }
+
+        int  downloadedCount = 0;
+        long downloadedBytes = 0;
+        long partialBytes    = 0;
+        long freeBytes       = 0;
+
+        File directory = directory(SONGS);
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(PART_SUFFIX)) {
+                        partialBytes += file.length();
+                    }
+                    else {
+                        downloadedCount++;
+                        downloadedBytes += file.length();
+                    }
+                }
+            }
+            freeBytes = directory.getUsableSpace();
+        }
+
+        return String.format(Locale.US, "offline: pinned=%d songs=%d downloaded=%d bytes=%d partial=%d queued=%d free=%d\n", pinCount, songCount, downloadedCount, downloadedBytes, partialBytes, downloader.getQueuedCount(), freeBytes);
+    }
+
+
+    void unpin(String mediaId)
+    {
+        synchronized (pins) {
+            if (pins.remove(mediaId) == null) {
+                return;
+            }
+        }
+
+        File file = listFile(mediaId);
+        if (file != null) {
+            file.delete();
+        }
+        deleteUnwanted();
+    }
+
+
+    private void addIfDownloaded(Vector<Track> tracks, Track track)
+    {
+        File file = songFile(track.getId());
+        if ((file == null) || !file.exists()) {
+            return;
+        }
+
+        // a copy, the stored one keeps its stream URL for downloading
+        Track local = new Track(track);
+        try {
+            local.setUrl(file.toURI().toURL());
+        }
+        catch (Exception e) {
+            return;
+        }
+
+        tracks.add(local);
+    }
+
+
+    private void deleteUnwanted()
+    {
+        File directory = directory(SONGS);
+        if (directory == null) {
+            return;
+        }
+
+        HashSet<String> wanted = new HashSet<>();
+        synchronized (pins) {
+            for (Pin pin : pins.values()) {
+                for (Track track : pin.tracks) {
+                    File file = songFile(track.getId());
+                    if (file != null) {
+                        wanted.add(file.getName());
+                    }
+                }
+            }
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(PART_SUFFIX)) {
+                name = name.substring(0, name.length() - PART_SUFFIX.length());
+            }
+            if (!wanted.contains(name)) {
+                file.delete();
+            }
+        }
+    }
+
+
+    private File directory(String subDirectory)
+    {
+        File directory = new File(new File(Amproid.getAppContext().getFilesDir(), DIRECTORY), subDirectory);
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+        return directory;
+    }
+
+
+    private File listFile(String mediaId)
+    {
+        File directory = directory(LISTS);
+        if (directory == null) {
+            return null;
+        }
+
+        // the media ID is also stored in the file, so colliding hashes are detected when reading
+        return new File(directory, Integer.toHexString(mediaId.hashCode()));
+    }
+
+
+    private void loadPins()
+    {
+        File directory = directory(LISTS);
+        if (directory == null) {
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(file))) {
+                Object read = inputStream.readObject();
+                if (read instanceof Pin) {
+                    pins.put(((Pin) read).mediaId, (Pin) read);
+                }
+            }
+            catch (Exception ignored) {
+                // corrupt or written by an older version
+                file.delete();
+            }
+        }
+    }
+
+
+    private boolean writePin(Pin pin)
+    {
+        File file = listFile(pin.mediaId);
+        if (file == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(file))) {
+                outputStream.writeObject(pin);
+            }
+            catch (Exception ignored) {
+                file.delete();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private static final class Pin implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String        mediaId;
+        private final String        title;
+        private final Vector<Track> tracks;
+
+
+        private Pin(String mediaId, String title, Vector<Track> tracks)
+        {
+            this.mediaId = mediaId;
+            this.title   = title;
+            this.tracks  = new Vector<>(tracks);
+        }
+    }
+}
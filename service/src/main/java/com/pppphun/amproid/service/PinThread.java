@@ -0,0 +1,141 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import static com.pppphun.amproid.service.AmproidService.PREFIX_ALBUM;
+import static com.pppphun.amproid.service.AmproidService.PREFIX_PLAYLIST;
+import static com.pppphun.amproid.shared.Amproid.ConnectionStatus.CONNECTION_NONE;
+import static com.pppphun.amproid.shared.Amproid.ConnectionStatus.CONNECTION_UNKNOWN;
+
+import android.os.Bundle;
+import android.os.Handler;
+
+import com.pppphun.amproid.shared.Amproid;
+
+import java.util.Vector;
+
+
+// the complete track list of a playlist or album, handed to the offline store which downloads the songs
+class PinThread extends ThreadCancellable
+{
+    private static final int PAGE_SIZE = 100;
+
+    private final String authToken;
+    private final String url;
+    private final String mediaId;
+
+    private final Handler amproidServiceHandler;
+
+
+    PinThread(String authToken, String url, String mediaId, Handler amproidServiceHandler)
+    {
+        this.authToken = authToken;
+        this.url       = url;
+        this.mediaId   = mediaId;
+
+        this.amproidServiceHandler = amproidServiceHandler;
+    }
+
+
+    @Override
+    public void run()
+    {
+        if ((authToken == null) || authToken.isEmpty()) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_pin, R.string.error_blank_token);
+            return;
+        }
+        if ((url == null) || url.isEmpty()) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_pin, R.string.error_invalid_server_url);
+            return;
+        }
+
+        // asked for by the user, there's no point in waiting for the network
+        Amproid.ConnectionStatus connectionStatus = Amproid.getConnectionStatus();
+        if ((connectionStatus == CONNECTION_UNKNOWN) || (connectionStatus == CONNECTION_NONE)) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_pin, R.string.error_no_network);
+            return;
+        }
+
+        AmpacheAPICaller ampacheAPICaller = new AmpacheAPICaller(url);
+        if (!ampacheAPICaller.getErrorMessage().isEmpty()) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_pin, ampacheAPICaller.getErrorMessage());
+            return;
+        }
+
+        AmpacheAPICaller.GetTracksIdType idType;
+        String                           ampacheId;
+        String                           title = null;
+        if (mediaId.startsWith(PREFIX_PLAYLIST)) {
+            idType    = AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_PLAYLIST;
+            ampacheId = mediaId.replace(PREFIX_PLAYLIST, "");
+            try {
+                title = ampacheAPICaller.getPlaylist(authToken, ampacheId).get(0).get("name");
+            }
+            catch (Exception ignored) {
+            }
+        }
+        else if (mediaId.startsWith(PREFIX_ALBUM)) {
+            idType    = AmpacheAPICaller.GetTracksIdType.GET_TRACKS_ID_TYPE_ALBUM;
+            ampacheId = mediaId.replace(PREFIX_ALBUM, "");
+            try {
+                title = ampacheAPICaller.getAlbum(authToken, ampacheId).get(0).get("name");
+            }
+            catch (Exception ignored) {
+            }
+        }
+        else {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_pin, R.string.error_tracks_empty);
+            return;
+        }
+
+        // all pages, a partial list would be pinned as if it was complete
+        Vector<Track> tracks     = new Vector<>();
+        int           pageOffset = 0;
+        boolean       morePages  = true;
+        while (morePages && !isCancelled()) {
+            tracks.addAll(ampacheAPICaller.getTracks(authToken, PAGE_SIZE, pageOffset, ampacheId, idType));
+            if (!ampacheAPICaller.getErrorMessage().isEmpty()) {
+                Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_pin, ampacheAPICaller.getErrorMessage());
+                return;
+            }
+
+            pageOffset += ampacheAPICaller.getLastResultCount();
+            morePages   = (ampacheAPICaller.getLastResultCount() >= PAGE_SIZE);
+        }
+
+        if (isCancelled()) {
+            return;
+        }
+        if (tracks.isEmpty()) {
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_pin, R.string.error_tracks_empty);
+            return;
+        }
+
+        OfflineStore.getInstance().pin(mediaId, title, tracks);
+
+        Bundle arguments = new Bundle();
+        arguments.putString("mediaId", mediaId);
+        arguments.putInt("trackCount", tracks.size());
+        Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_pin, arguments);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import android.os.Handler;
+import android.os.Looper;
+
+
+// the one clock of playback: what has to happen at a point of the song is scheduled for when it's due instead of polling the position
+// it runs on the main looper, and while nothing is playing there's nothing scheduled at all
+// players report from whichever thread they were started on, so the state is only touched under the clock's lock
+final class PlaybackClock
+{
+    // the position is saved with the queue snapshot this often while playing
+    private static final long CHECKPOINT_INTERVAL = 10 * 1000;
+
+    // an event this much ahead of the song (it stalled meanwhile) is scheduled again instead of done
+    private static final int EARLY_TOLERANCE = 500;
+
+    private static PlaybackClock instance = null;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private AmproidMediaPlayer player    = null;
+    private int                fadeOutAt = -1;
+    private int                nextAt    = -1;
+
+    private final Runnable fadeOut = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            AmproidMediaPlayer player;
+            int                at;
+            synchronized (PlaybackClock.this) {
+                player = PlaybackClock.this.player;
+                at     = fadeOutAt;
+            }
+
+            if (isDue(player, at)) {
+                player.startFadeOut();
+            }
+        }
+    };
+
+    private final Runnable prepareNext = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            AmproidMediaPlayer player;
+            int                at;
+            synchronized (PlaybackClock.this) {
+                player = PlaybackClock.this.player;
+                at     = nextAt;
+            }
+
+            if (isDue(player, at)) {
+                player.requestNext();
+            }
+        }
+    };
+
+    private final Runnable checkpoint = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            AmproidMediaPlayer player;
+            synchronized (PlaybackClock.this) {
+                player = PlaybackClock.this.player;
+            }
+            if (player == null) {
+                return;
+            }
+
+            player.positionCheckpoint();
+
+            synchronized (PlaybackClock.this) {
+                if (PlaybackClock.this.player == player) {
+                    handler.postDelayed(checkpoint, CHECKPOINT_INTERVAL);
+                }
+            }
+        }
+    };
+
+
+    private PlaybackClock()
+    {
+    }
+
+
+    static synchronized PlaybackClock getInstance()
+    {
+        if (instance == null) {
+            instance = new PlaybackClock();
+        }
+        return instance;
+    }
+
+
+    // started, resumed or jumped to position: everything is scheduled from here
+    synchronized void playing(AmproidMediaPlayer player, int position)
+    {
+        cancel();
+
+        this.player = player;
+        fadeOutAt   = player.getFadeOutAt();
+        nextAt      = player.getNextPrepareAt();
+
+        if (fadeOutAt >= 0) {
+            handler.postDelayed(fadeOut, Math.max(fadeOutAt - position, 0));
+        }
+        if (nextAt >= 0) {
+            handler.postDelayed(prepareNext, Math.max(nextAt - position, 0));
+        }
+        handler.postDelayed(checkpoint, CHECKPOINT_INTERVAL);
+    }
+
+
+    // paused, stalled, stopped or released, nothing is due until it plays again
+    synchronized void stopped(AmproidMediaPlayer player)
+    {
+        if (this.player != player) {
+            return;
+        }
+
+        cancel();
+        this.player = null;
+    }
+
+
+    private void cancel()
+    {
+        handler.removeCallbacks(fadeOut);
+        handler.removeCallbacks(prepareNext);
+        handler.removeCallbacks(checkpoint);
+    }
+
+
+    // the song may have fallen behind the clock, in that case the events are scheduled again from where it actually is
+    private boolean isDue(AmproidMediaPlayer player, int at)
+    {
+        if (player == null) {
+            return false;
+        }
+
+        int position;
+        try {
+            position = player.getCurrentPosition();
+        }
+        catch (Exception e) {
+            return false;
+        }
+
+        // it may have been stopped meanwhile on another thread
+        synchronized (this) {
+            if (this.player != player) {
+                return false;
+            }
+            if (position >= at - EARLY_TOLERANCE) {
+                return true;
+            }
+
+            playing(player, position);
+        }
+        return false;
+    }
+}
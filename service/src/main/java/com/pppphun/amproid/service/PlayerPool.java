@@ -0,0 +1,151 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import android.os.Debug;
+
+import java.util.Locale;
+import java.util.Vector;
+
+
+// native players are reset and loaded with the next track instead of creating and releasing one for every track
+final class PlayerPool
+{
+    // the current and the next track's player are the most that are in use at the same time
+    private static final int MAX_IDLE = 2;
+
+    private static PlayerPool instance = null;
+
+    private final Vector<AmproidMediaPlayer> idle = new Vector<>();
+
+    private long created  = 0;
+    private long reused   = 0;
+    private long released = 0;
+
+    // track start latency, separately for fresh and reused native players
+    private final long[] starts        = new long[2];
+    private final long[] startNanos    = new long[2];
+    private final long[] maxStartNanos = new long[2];
+
+
+    private PlayerPool()
+    {
+    }
+
+
+    static synchronized PlayerPool getInstance()
+    {
+        if (instance == null) {
+            instance = new PlayerPool();
+        }
+        return instance;
+    }
+
+
+    // the service is going away, idle players are not kept for the next one
+    synchronized void clear()
+    {
+        for (AmproidMediaPlayer player : idle) {
+            player.release();
+            released++;
+        }
+        idle.clear();
+    }
+
+
+    // with previous, the player is for the next track, prepared quietly while previous still plays
+    AmproidMediaPlayer obtain(AmproidService amproidService, Track track, boolean autoStart, AmproidMediaPlayer previous)
+    {
+        AmproidMediaPlayer player = null;
+
+        synchronized (this) {
+            if (!idle.isEmpty()) {
+                player = idle.remove(idle.size() - 1);
+                reused++;
+            }
+            else {
+                created++;
+            }
+        }
+        if (player == null) {
+            player = new AmproidMediaPlayer(amproidService);
+        }
+
+        player.load(track, autoStart, previous);
+        return player;
+    }
+
+
+    // instead of release
+    void recycle(AmproidMediaPlayer player)
+    {
+        boolean reset = player.recycle();
+
+        synchronized (this) {
+            if (reset && (idle.size() < MAX_IDLE) && !idle.contains(player)) {
+                idle.add(player);
+                return;
+            }
+            released++;
+        }
+
+        player.release();
+    }
+
+
+    synchronized void reset()
+    {
+        created  = 0;
+        reused   = 0;
+        released = 0;
+
+        for (int i = 0; i < starts.length; i++) {
+            starts[i]        = 0;
+            startNanos[i]    = 0;
+            maxStartNanos[i] = 0;
+        }
+    }
+
+
+    synchronized void started(long nanos, boolean reusedPlayer)
+    {
+        int i = reusedPlayer ? 1 : 0;
+
+        starts[i]++;
+        startNanos[i] += nanos;
+        if (nanos > maxStartNanos[i]) {
+            maxStartNanos[i] = nanos;
+        }
+    }
+
+
+    synchronized String summary()
+    {
+        StringBuilder returnValue = new StringBuilder();
+        returnValue.append(String.format(Locale.US, "player pool: idle=%d created=%d reused=%d released=%d nativeHeapKB=%d\n", idle.size(), created, reused, released, Debug.getNativeHeapAllocatedSize() / 1024));
+        for (int i = 0; i < starts.length; i++) {
+            returnValue.append(String.format(Locale.US, "  %s players: starts=%d avgStartMs=%.1f maxStartMs=%.1f\n", i == 0 ? "new" : "reused", starts[i], starts[i] == 0 ? 0.0 : startNanos[i] / 1000000.0 / starts[i], maxStartNanos[i] / 1000000.0));
+        }
+        return returnValue.toString();
+    }
+}
@@ -22,7 +22,6 @@
 package com.pppphun.amproid.service;
 
 
-import static com.pppphun.amproid.service.AmproidService.PREFIX_PLAYLIST;
 import static com.pppphun.amproid.shared.Amproid.NEW_TOKEN_REASON_CACHE;
 
 import android.content.Context;
@@ -42,7 +41,6 @@ import com.pppphun.amproid.shared.Amproid;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Vector;
 
@@ -55,7 +53,7 @@ public class PlaylistsCache
     private final String url;
     private final Handler amproidServiceHandler;
 
-    private Vector<HashMap<String, String>> playlists = new Vector<>();
+    private Vector<AmpacheItem> playlists = new Vector<>();
 
     private boolean valid        = false;
     private boolean sendValidMsg = false;
@@ -101,24 +99,14 @@ public class PlaylistsCache
                         }
 
                         @SuppressWarnings("unchecked")
-                        Vector<HashMap<String, String>> playlists = (Vector<HashMap<String, String>>) arguments.getSerializable("playlists");
+                        Vector<AmpacheItem> playlists = (Vector<AmpacheItem>) arguments.getSerializable("playlists");
                         if (playlists != null) {
-                            playlists.sort(new Comparator<HashMap<String, String>>()
+                            playlists.sort(new Comparator<AmpacheItem>()
                             {
                                 @Override
-                                public int compare(HashMap<String, String> o1, HashMap<String, String> o2)
+                                public int compare(AmpacheItem o1, AmpacheItem o2)
                                 {
-                                    String n1 = o1.get("name");
-                                    String n2 = o2.get("name");
-
-                                    if (n1 == null) {
-                                        n1 = "";
-                                    }
-                                    if (n2 == null) {
-                                        n2 = "";
-                                    }
-
-                                    return n1.compareTo(n2);
+                                    return o1.getName().compareTo(o2.getName());
                                 }
                             });
 
@@ -182,9 +170,9 @@ public class PlaylistsCache
     }
 
 
-    public Vector<HashMap<String, String>> getPlaylists()
+    public Vector<AmpacheItem> getPlaylists()
     {
-        Vector<HashMap<String, String>> playlists = new Vector<>();
+        Vector<AmpacheItem> playlists = new Vector<>();
 
         if (!isValid()) {
             return playlists;
@@ -194,18 +182,13 @@ public class PlaylistsCache
         boolean                 hideDotPlaylists = preferences.getBoolean(Amproid.getAppContext().getString(R.string.dot_playlists_hide_preference), true);
 
         synchronized (this) {
-            playlists = Amproid.deepCopyItems(this.playlists);
+            playlists = new Vector<>(this.playlists);
         }
 
-        Vector<HashMap<String, String>> playlistsFiltered = new Vector<>();
-
-        for (HashMap<String, String> playlist : playlists) {
-            if (!playlist.containsKey("id") || !playlist.containsKey("name")) {
-                continue;
-            }
+        Vector<AmpacheItem> playlistsFiltered = new Vector<>();
 
-            String name = playlist.get("name");
-            if (hideDotPlaylists && (name != null) && name.startsWith(".")) {
+        for (AmpacheItem playlist : playlists) {
+            if (hideDotPlaylists && playlist.getName().startsWith(".")) {
                 continue;
             }
 
@@ -246,8 +229,8 @@ public class PlaylistsCache
 
     private void loadPlaylists()
     {
-        Vector<HashMap<String, String>> playlists = new Vector<>();
-        boolean                         found     = false;
+        Vector<AmpacheItem> playlists = new Vector<>();
+        boolean             found     = false;
 
         SharedPreferences preferences = context.getSharedPreferences(context.getString(R.string.playlist_cache_preferences), Context.MODE_PRIVATE);
 
@@ -255,35 +238,24 @@ public class PlaylistsCache
         while (preferences.contains(Integer.toString(key))) {
             found = true;
 
-            HashMap<String, String> playlist = new HashMap<>();
-
-            playlist.put("id", preferences.getString(Integer.toString(key), ""));
-            playlist.put("name", preferences.getString(Integer.toString(key + 1), ""));
-            if (preferences.contains(Integer.toString(key + 2))) {
-                playlist.put("art", preferences.getString(Integer.toString(key + 2), ""));
-            }
-
-            playlists.add(playlist);
+            playlists.add(new AmpacheItem(
+                    AmpacheItem.Type.PLAYLIST,
+                    preferences.getString(Integer.toString(key), ""),
+                    preferences.getString(Integer.toString(key + 1), ""),
+                    preferences.getString(Integer.toString(key + 2), null),
+                    null,
+                    null
+            ));
 
             key += 10;
         }
 
-        playlists.sort(new Comparator<HashMap<String, String>>()
+        playlists.sort(new Comparator<AmpacheItem>()
         {
             @Override
-            public int compare(HashMap<String, String> o1, HashMap<String, String> o2)
+            public int compare(AmpacheItem o1, AmpacheItem o2)
             {
-                String n1 = o1.get("name");
-                String n2 = o2.get("name");
-
-                if (n1 == null) {
-                    n1 = "";
-                }
-                if (n2 == null) {
-                    n2 = "";
-                }
-
-                return n1.compareTo(n2);
+                return o1.getName().compareTo(o2.getName());
             }
         });
 
@@ -296,9 +268,9 @@ public class PlaylistsCache
 
     private void savePlaylists()
     {
-        Vector<HashMap<String, String>> playlists;
+        Vector<AmpacheItem> playlists;
         synchronized (this) {
-            playlists = Amproid.deepCopyItems(this.playlists);
+            playlists = new Vector<>(this.playlists);
         }
 
         SharedPreferences        preferences       = context.getSharedPreferences(context.getString(R.string.playlist_cache_preferences), Context.MODE_PRIVATE);
@@ -307,11 +279,11 @@ public class PlaylistsCache
         preferencesEditor.clear();
 
         int key = 10;
-        for (HashMap<String, String> playlist : playlists) {
-            preferencesEditor.putString(Integer.toString(key), playlist.get("id"));
-            preferencesEditor.putString(Integer.toString(key + 1), playlist.get("name"));
-            if (playlist.containsKey("art")) {
-                preferencesEditor.putString(Integer.toString(key + 2), playlist.get("art"));
+        for (AmpacheItem playlist : playlists) {
+            preferencesEditor.putString(Integer.toString(key), playlist.getId());
+            preferencesEditor.putString(Integer.toString(key + 1), playlist.getName());
+            if (playlist.getArt() != null) {
+                preferencesEditor.putString(Integer.toString(key + 2), playlist.getArt());
             }
             key += 10;
         }
@@ -333,27 +305,22 @@ public class PlaylistsCache
         final SharedPreferences preferences      = Amproid.getAppContext().getSharedPreferences(Amproid.getAppContext().getString(R.string.options_preferences), Context.MODE_PRIVATE);
         boolean                 hideDotPlaylists = preferences.getBoolean(Amproid.getAppContext().getString(R.string.dot_playlists_hide_preference), true);
 
-        Vector<HashMap<String, String>> playlists;
+        Vector<AmpacheItem> playlists;
         synchronized (this) {
-            playlists = Amproid.deepCopyItems(this.playlists);
+            playlists = new Vector<>(this.playlists);
         }
 
         ArrayList<MediaBrowserCompat.MediaItem> results = new ArrayList<>();
 
-        for (HashMap<String, String> playlist : playlists) {
-            if (!playlist.containsKey("id") || !playlist.containsKey("name")) {
-                continue;
-            }
-
-            String name = playlist.get("name");
-            if (hideDotPlaylists && (name != null) && name.startsWith(".")) {
+        for (AmpacheItem playlist : playlists) {
+            if (hideDotPlaylists && playlist.getName().startsWith(".")) {
                 continue;
             }
 
             results.add(new MediaBrowserCompat.MediaItem(new MediaDescriptionCompat.Builder()
-                    .setMediaId(PREFIX_PLAYLIST + playlist.get("id"))
-                    .setTitle(name)
-                    .setIconUri((playlist.get("art") == null) || (playlist.get("id").startsWith("smart_")) ? null : Uri.parse(playlist.get("art")))
+                    .setMediaId(playlist.getMediaId())
+                    .setTitle(playlist.getName())
+                    .setIconUri((playlist.getArt() == null) || (playlist.getId().startsWith("smart_")) ? null : Uri.parse(playlist.getArt()))
                     .build(), MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
         }
 
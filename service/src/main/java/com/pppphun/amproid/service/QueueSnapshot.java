@@ -0,0 +1,207 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import com.pppphun.amproid.shared.Amproid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+// the queue as it was when the service was last running, so that it can go on right away after a restart
+final class QueueSnapshot
+{
+    private static final String FILE_NAME   = "queue_snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int    MAGIC       = 0x414d5153;
+    private static final int    VERSION     = 1;
+
+    // where the track index and position are, those are updated in place
+    private static final int POSITION_OFFSET = 8;
+
+    private static QueueSnapshot instance = null;
+
+    // one thread, so writes are done in the order they were asked for
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+
+    private QueueSnapshot()
+    {
+    }
+
+
+    static synchronized QueueSnapshot getInstance()
+    {
+        if (instance == null) {
+            instance = new QueueSnapshot();
+        }
+        return instance;
+    }
+
+
+    void clear()
+    {
+        writer.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                file().delete();
+            }
+        });
+    }
+
+
+    // null if there's none, or it can't be read
+    Snapshot load()
+    {
+        File file = file();
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if ((input.readInt() != MAGIC) || (input.readInt() != VERSION)) {
+                return null;
+            }
+
+            int    index      = input.readInt();
+            long   position   = input.readLong();
+            int    playMode   = input.readInt();
+            String ampacheId  = input.readUTF();
+            String queueTitle = input.readUTF();
+
+            int           count  = input.readInt();
+            Vector<Track> tracks = new Vector<>();
+            for (int i = 0; i < count; i++) {
+                tracks.add(Track.read(input));
+            }
+
+            return new Snapshot(playMode, ampacheId, queueTitle, tracks, index, position);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    // the whole queue, written to a temporary file first so a kill halfway through doesn't leave a broken one
+    void save(final int playMode, final String ampacheId, final String queueTitle, Vector<Track> tracks, final int index, final long position)
+    {
+        final Vector<Track> copy = new Vector<>(tracks);
+
+        writer.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                File file = file();
+                File temp = new File(file.getPath() + TEMP_SUFFIX);
+
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                    output.writeInt(MAGIC);
+                    output.writeInt(VERSION);
+                    output.writeInt(index);
+                    output.writeLong(position);
+                    output.writeInt(playMode);
+                    output.writeUTF(ampacheId == null ? "" : ampacheId);
+                    output.writeUTF(queueTitle == null ? "" : queueTitle);
+                    output.writeInt(copy.size());
+                    for (Track track : copy) {
+                        track.write(output);
+                    }
+                }
+                catch (Exception e) {
+                    temp.delete();
+                    return;
+                }
+
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                }
+            }
+        });
+    }
+
+
+    // just the header, the queue itself didn't change
+    void savePosition(final int index, final long position)
+    {
+        writer.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                File file = file();
+                if (!file.exists()) {
+                    return;
+                }
+
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                    randomAccessFile.seek(POSITION_OFFSET);
+                    randomAccessFile.writeInt(index);
+                    randomAccessFile.writeLong(position);
+                }
+                catch (Exception ignored) {
+                }
+            }
+        });
+    }
+
+
+    private File file()
+    {
+        return new File(Amproid.getAppContext().getFilesDir(), FILE_NAME);
+    }
+
+
+    static final class Snapshot
+    {
+        final int           playMode;
+        final String        ampacheId;
+        final String        queueTitle;
+        final Vector<Track> tracks;
+        final int           index;
+        final long          position;
+
+
+        Snapshot(int playMode, String ampacheId, String queueTitle, Vector<Track> tracks, int index, long position)
+        {
+            this.playMode   = playMode;
+            this.ampacheId  = ampacheId;
+            this.queueTitle = queueTitle;
+            this.tracks     = tracks;
+            this.index      = index;
+            this.position   = position;
+        }
+    }
+}
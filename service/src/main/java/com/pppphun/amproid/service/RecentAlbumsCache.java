@@ -22,7 +22,6 @@
 package com.pppphun.amproid.service;
 
 
-import static com.pppphun.amproid.service.AmproidService.PREFIX_ALBUM;
 import static com.pppphun.amproid.shared.Amproid.NEW_TOKEN_REASON_CACHE;
 
 import android.content.Context;
@@ -40,7 +39,6 @@ import androidx.media.MediaBrowserServiceCompat;
 import com.pppphun.amproid.shared.Amproid;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Vector;
 
@@ -53,7 +51,7 @@ public class RecentAlbumsCache
     private final String  url;
     private final Handler amproidServiceHandler;
 
-    private Vector<HashMap<String, String>> albums = new Vector<>();
+    private Vector<AmpacheItem> albums = new Vector<>();
 
     private boolean valid        = false;
     private boolean sendValidMsg = false;
@@ -99,7 +97,7 @@ public class RecentAlbumsCache
                         }
 
                         @SuppressWarnings("unchecked")
-                        Vector<HashMap<String, String>> recentAlbums = (Vector<HashMap<String, String>>) arguments.getSerializable("recentAlbums");
+                        Vector<AmpacheItem> recentAlbums = (Vector<AmpacheItem>) arguments.getSerializable("recentAlbums");
                         if (recentAlbums != null) {
                             synchronized (this) {
                                 albums = recentAlbums;
@@ -195,23 +193,20 @@ public class RecentAlbumsCache
             return;
         }
 
-        Vector<HashMap<String, String>> recentAlbums;
+        Vector<AmpacheItem> recentAlbums;
         synchronized (this) {
-            recentAlbums = Amproid.deepCopyItems(this.albums);
+            recentAlbums = new Vector<>(this.albums);
         }
 
         ArrayList<MediaBrowserCompat.MediaItem> results = new ArrayList<>();
 
-        for (HashMap<String, String> album : recentAlbums) {
-            if (!album.containsKey("id") || !album.containsKey("name")) {
-                continue;
-            }
+        for (AmpacheItem album : recentAlbums) {
             results.add(
                     new MediaBrowserCompat.MediaItem(
                             new MediaDescriptionCompat.Builder()
-                                    .setMediaId(PREFIX_ALBUM + album.get("id"))
-                                    .setTitle(album.get("name"))
-                                    .setIconUri(Uri.parse(album.get("art")))
+                                    .setMediaId(album.getMediaId())
+                                    .setTitle(album.getName())
+                                    .setIconUri(album.getArt() == null ? null : Uri.parse(album.getArt()))
                                     .build(),
                             MediaBrowserCompat.MediaItem.FLAG_PLAYABLE
                     )
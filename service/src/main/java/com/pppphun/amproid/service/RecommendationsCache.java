@@ -22,11 +22,7 @@
 package com.pppphun.amproid.service;
 
 
-import static com.pppphun.amproid.service.AmproidService.PREFIX_ALBUM;
-import static com.pppphun.amproid.service.AmproidService.PREFIX_ARTIST;
 import static com.pppphun.amproid.service.AmproidService.PREFIX_GENRE;
-import static com.pppphun.amproid.service.AmproidService.PREFIX_PLAYLIST;
-import static com.pppphun.amproid.service.AmproidService.PREFIX_RADIO;
 import static com.pppphun.amproid.shared.Amproid.NEW_TOKEN_REASON_CACHE;
 
 import android.content.Context;
@@ -47,7 +43,6 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Vector;
 
@@ -60,11 +55,11 @@ public class RecommendationsCache
     private final String url;
     private final Handler amproidServiceHandler;
 
-    private Vector<HashMap<String, String>> artists   = new Vector<>();
-    private Vector<HashMap<String, String>> albums    = new Vector<>();
-    private Vector<HashMap<String, String>> playlists = new Vector<>();
-    private Vector<String>                  genres    = new Vector<>();
-    private Vector<HashMap<String, String>> radios    = new Vector<>();
+    private Vector<AmpacheItem> artists   = new Vector<>();
+    private Vector<AmpacheItem> albums    = new Vector<>();
+    private Vector<AmpacheItem> playlists = new Vector<>();
+    private Vector<String>      genres    = new Vector<>();
+    private Vector<AmpacheItem> radios    = new Vector<>();
 
     private boolean valid        = false;
     private boolean sendValidMsg = false;
@@ -110,15 +105,14 @@ public class RecommendationsCache
                         }
 
                         @SuppressWarnings("unchecked")
-                        Vector<HashMap<String, String>> artists = (Vector<HashMap<String, String>>) arguments.getSerializable("artists");
+                        Vector<AmpacheItem> artists = (Vector<AmpacheItem>) arguments.getSerializable("artists");
                         @SuppressWarnings("unchecked")
-                        Vector<HashMap<String, String>> albums = (Vector<HashMap<String, String>>) arguments.getSerializable("albums");
+                        Vector<AmpacheItem> albums = (Vector<AmpacheItem>) arguments.getSerializable("albums");
                         @SuppressWarnings("unchecked")
-                        Vector<HashMap<String, String>> playlists = (Vector<HashMap<String, String>>) arguments.getSerializable("playlists");
+                        Vector<AmpacheItem> playlists = (Vector<AmpacheItem>) arguments.getSerializable("playlists");
                         @SuppressWarnings("unchecked")
                         Vector<String> genres = (Vector<String>) arguments.getSerializable("genres");
-                        @SuppressWarnings("unchecked")
-                        HashMap<String, String> radio = (HashMap<String, String>)arguments.getSerializable("radio");
+                        AmpacheItem radio = (AmpacheItem) arguments.getSerializable("radio");
 
                         if ((artists != null) && (albums != null) && (playlists != null) && (genres != null)) {
                             synchronized (this) {
@@ -224,60 +218,51 @@ public class RecommendationsCache
             return;
         }
 
-        Vector<HashMap<String, String>> artists;
-        Vector<HashMap<String, String>> albums;
-        Vector<HashMap<String, String>> playlists;
-        Vector<HashMap<String, String>> radios;
+        Vector<AmpacheItem> artists;
+        Vector<AmpacheItem> albums;
+        Vector<AmpacheItem> playlists;
+        Vector<AmpacheItem> radios;
         synchronized (this) {
-            artists   = Amproid.deepCopyItems(this.artists);
-            albums    = Amproid.deepCopyItems(this.albums);
-            playlists = Amproid.deepCopyItems(this.playlists);
-            radios    = Amproid.deepCopyItems(this.radios);
+            artists   = new Vector<>(this.artists);
+            albums    = new Vector<>(this.albums);
+            playlists = new Vector<>(this.playlists);
+            radios    = new Vector<>(this.radios);
         }
 
         ArrayList<MediaBrowserCompat.MediaItem> results = new ArrayList<>();
 
-        for (HashMap<String, String> artist : artists) {
-            if (!artist.containsKey("id") || !artist.containsKey("name")) {
-                continue;
-            }
+        for (AmpacheItem artist : artists) {
             results.add(
                     new MediaBrowserCompat.MediaItem(
                             new MediaDescriptionCompat.Builder()
-                                    .setMediaId(PREFIX_ARTIST + artist.get("id"))
-                                    .setTitle(artist.get("name"))
+                                    .setMediaId(artist.getMediaId())
+                                    .setTitle(artist.getName())
                                     .setSubtitle(Amproid.getAppContext().getString(R.string.subtitle_artist))
-                                    .setIconUri(Uri.parse(artist.get("art")))
+                                    .setIconUri(artist.getArt() == null ? null : Uri.parse(artist.getArt()))
                                     .build(),
                             MediaBrowserCompat.MediaItem.FLAG_PLAYABLE
                     )
             );
         }
-        for (HashMap<String, String> album : albums) {
-            if (!album.containsKey("id") || !album.containsKey("name")) {
-                continue;
-            }
+        for (AmpacheItem album : albums) {
             results.add(
                     new MediaBrowserCompat.MediaItem(
                             new MediaDescriptionCompat.Builder()
-                                    .setMediaId(PREFIX_ALBUM + album.get("id"))
-                                    .setTitle(album.get("name"))
+                                    .setMediaId(album.getMediaId())
+                                    .setTitle(album.getName())
                                     .setSubtitle(Amproid.getAppContext().getString(R.string.subtitle_album))
-                                    .setIconUri(Uri.parse(album.get("art")))
+                                    .setIconUri(album.getArt() == null ? null : Uri.parse(album.getArt()))
                                     .build(),
                             MediaBrowserCompat.MediaItem.FLAG_PLAYABLE
                     )
             );
         }
-        for (HashMap<String, String> playlist : playlists) {
-            if (!playlist.containsKey("id") || !playlist.containsKey("name")) {
-                continue;
-            }
+        for (AmpacheItem playlist : playlists) {
             results.add(
                     new MediaBrowserCompat.MediaItem(
                             new MediaDescriptionCompat.Builder()
-                                    .setMediaId(PREFIX_PLAYLIST + playlist.get("id"))
-                                    .setTitle(playlist.get("name"))
+                                    .setMediaId(playlist.getMediaId())
+                                    .setTitle(playlist.getName())
                                     .setSubtitle(Amproid.getAppContext().getString(R.string.subtitle_playlist))
                                     .build(),
                             MediaBrowserCompat.MediaItem.FLAG_PLAYABLE
@@ -301,15 +286,12 @@ public class RecommendationsCache
                 // in case UTF-8 is not supported, pretty much never happens with min SDK version being what it is
             }
         }
-        for (HashMap<String, String> radio : radios) {
-            if (!radio.containsKey("id") || !radio.containsKey("name")) {
-                continue;
-            }
+        for (AmpacheItem radio : radios) {
             results.add(
                     new MediaBrowserCompat.MediaItem(
                             new MediaDescriptionCompat.Builder()
-                                    .setMediaId(PREFIX_RADIO + radio.get("id"))
-                                    .setTitle(radio.get("name"))
+                                    .setMediaId(radio.getMediaId())
+                                    .setTitle(radio.getName())
                                     .setSubtitle(Amproid.getAppContext().getString(R.string.subtitle_radio))
                                     .build(),
                             MediaBrowserCompat.MediaItem.FLAG_PLAYABLE
@@ -22,12 +22,6 @@
 package com.pppphun.amproid.service;
 
 
-import static com.pppphun.amproid.service.AmproidService.PREFIX_ALBUM;
-import static com.pppphun.amproid.service.AmproidService.PREFIX_ARTIST;
-import static com.pppphun.amproid.service.AmproidService.PREFIX_GENRE;
-import static com.pppphun.amproid.service.AmproidService.PREFIX_PLAYLIST;
-import static com.pppphun.amproid.service.AmproidService.PREFIX_RADIO;
-import static com.pppphun.amproid.service.AmproidService.PREFIX_SONG;
 import static com.pppphun.amproid.shared.Amproid.NEW_TOKEN_REASON_CACHE;
 
 import android.content.Context;
@@ -47,6 +41,7 @@ import com.pppphun.amproid.shared.Amproid;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Vector;
 
@@ -59,7 +54,7 @@ public class SearchCache
     private final String url;
     private final Handler amproidServiceHandler;
 
-    private HashMap<Integer, Vector<HashMap<String, String>>> searchResults = new HashMap<>();
+    private HashMap<Integer, Vector<AmpacheItem>> searchResults = new HashMap<>();
 
     private boolean valid        = false;
     private boolean sendValidMsg = false;
@@ -92,7 +87,11 @@ public class SearchCache
                 if (action.equals(context.getString(R.string.msg_action_async_finished))) {
                     int asyncType = arguments.getInt(context.getString(R.string.msg_async_finished_type));
                     if (asyncType == context.getResources().getInteger(R.integer.async_search)) {
-                        synchronized (this) {
+                        synchronized (SearchCache.this) {
+                            // messages are dispatched on the sending thread, this is how results of a superseded search are recognized
+                            if (Thread.currentThread() != searchThread) {
+                                return;
+                            }
                             searchThread = null;
                         }
 
@@ -105,9 +104,9 @@ public class SearchCache
                         }
 
                         @SuppressWarnings("unchecked")
-                        HashMap<Integer, Vector<HashMap<String, String>>> results = (HashMap<Integer, Vector<HashMap<String, String>>>) arguments.getSerializable("found");
+                        HashMap<Integer, Vector<AmpacheItem>> results = (HashMap<Integer, Vector<AmpacheItem>>) arguments.getSerializable("found");
                         if (results != null) {
-                            synchronized (this) {
+                            synchronized (SearchCache.this) {
                                 SearchCache.this.searchResults = results;
                                 valid                          = true;
                             }
@@ -165,7 +164,7 @@ public class SearchCache
     }
 
 
-    public Vector<HashMap<String, String>> getSearchResults(boolean advancedOnly)
+    public Vector<AmpacheItem> getSearchResults(boolean advancedOnly)
     {
         if (!isValid()) {
             return new Vector<>();
@@ -188,6 +187,15 @@ public class SearchCache
     public void refreshSearch(Bundle searchParameters)
     {
         sendValidMsg = true;
+
+        // a new search supersedes the one still in progress
+        synchronized (this) {
+            if (searchThread != null) {
+                searchThread.cancel();
+                searchThread = null;
+            }
+        }
+
         doSearch(searchParameters);
     }
 
@@ -210,17 +218,17 @@ public class SearchCache
     }
 
 
-    private Vector<HashMap<String, String>> flatterSearchResults(boolean advancedOnly)
+    private Vector<AmpacheItem> flatterSearchResults(boolean advancedOnly)
     {
-        HashMap<Integer, Vector<HashMap<String, String>>> searchResults;
+        HashMap<Integer, Vector<AmpacheItem>> searchResults;
         synchronized (this) {
-            searchResults = Amproid.deepCopyItems(this.searchResults);
+            searchResults = this.searchResults;
         }
 
-        Vector<HashMap<String, String>> flatteredSearchResults = new Vector<>();
+        Vector<AmpacheItem> flatteredSearchResults = new Vector<>();
 
         // filter out duplicates
-        Vector<String> addedIds = new Vector<>();
+        HashSet<String> addedIds = new HashSet<>();
 
         int[] processOrder;
         if (advancedOnly) {
@@ -239,76 +247,26 @@ public class SearchCache
             };
         }
         for (int type : processOrder) {
-            Vector<HashMap<String, String>> items = searchResults.get(type);
+            Vector<AmpacheItem> items = searchResults.get(type);
             if (items == null) {
                 continue;
             }
 
-            for (HashMap<String, String> item : items) {
-                // it's not the same for songs and albums
-                if (item.containsKey("name") && !item.containsKey("title")) {
-                    item.put("title", item.get("name"));
-                    item.remove("name");
-                }
-            }
-
-            items.sort(new Comparator<HashMap<String, String>>()
+            // items are immutable, but the vector is shared with the cache
+            items = new Vector<>(items);
+            items.sort(new Comparator<AmpacheItem>()
             {
                 @Override
-                public int compare(HashMap<String, String> o1, HashMap<String, String> o2)
+                public int compare(AmpacheItem o1, AmpacheItem o2)
                 {
-                    String title1 = o1.get("title");
-                    String title2 = o2.get("title");
-
-                    if (title1 == null) {
-                        title1 = "";
-                    }
-                    if (title2 == null) {
-                        title2 = "";
-                    }
-
-                    return title1.compareToIgnoreCase(title2);
+                    return o1.getName().compareToIgnoreCase(o2.getName());
                 }
             });
 
-            for (HashMap<String, String> item : items) {
-                if (!item.containsKey("id") || !item.containsKey("title")) {
-                    continue;
-                }
-
-                String idPrefix         = PREFIX_SONG;
-                int    subtitleResource = R.string.subtitle_song;
-                if ((type == AmpacheAPICaller.SEARCH_RESULTS_ALBUMS) || (type == AmpacheAPICaller.SEARCH_RESULTS_ARTIST_ALBUMS)) {
-                    idPrefix         = PREFIX_ALBUM;
-                    subtitleResource = R.string.subtitle_album;
-                }
-                else if (type == AmpacheAPICaller.SEARCH_RESULTS_ARTISTS) {
-                    idPrefix         = PREFIX_ARTIST;
-                    subtitleResource = R.string.subtitle_artist;
-                }
-                else if (type == AmpacheAPICaller.SEARCH_RESULTS_PLAYLISTS) {
-                    idPrefix         = PREFIX_PLAYLIST;
-                    subtitleResource = R.string.subtitle_playlist;
-                }
-                else if (type == AmpacheAPICaller.SEARCH_RESULTS_TAGS) {
-                    idPrefix         = PREFIX_GENRE;
-                    subtitleResource = R.string.subtitle_genre;
-                }
-                else if (type == AmpacheAPICaller.SEARCH_RESULTS_RADIOS) {
-                    idPrefix         = PREFIX_RADIO;
-                    subtitleResource = R.string.radio_station;
-                }
-
-                String id = idPrefix + item.get("id");
-                if (addedIds.contains(id)) {
-                    continue;
+            for (AmpacheItem item : items) {
+                if (addedIds.add(item.getMediaId())) {
+                    flatteredSearchResults.add(item);
                 }
-                item.replace("id", id);
-
-                item.put("subtitle", context.getString(subtitleResource));
-
-                flatteredSearchResults.add(item);
-                addedIds.add(id);
             }
         }
 
@@ -326,16 +284,16 @@ public class SearchCache
             return;
         }
 
-        Vector<HashMap<String, String>>         flatteredSearchResults = flatterSearchResults(false);
+        Vector<AmpacheItem>                     flatteredSearchResults = flatterSearchResults(false);
         ArrayList<MediaBrowserCompat.MediaItem> results                = new ArrayList<>();
 
-        for (HashMap<String, String> item : flatteredSearchResults) {
+        for (AmpacheItem item : flatteredSearchResults) {
             results.add(new MediaBrowserCompat.MediaItem(
                     new MediaDescriptionCompat.Builder()
-                            .setMediaId(item.get("id"))
-                            .setTitle(item.get("title"))
-                            .setSubtitle(item.get("subtitle"))
-                            .setIconUri(item.get("art") == null ? null : Uri.parse(item.get("art")))
+                            .setMediaId(item.getMediaId())
+                            .setTitle(item.getName())
+                            .setSubtitle(context.getString(subtitleResource(item.getType())))
+                            .setIconUri(item.getArt() == null ? null : Uri.parse(item.getArt()))
                             .build(),
                     MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
         }
@@ -346,4 +304,23 @@ public class SearchCache
             resultToSend = null;
         }
     }
+
+
+    private int subtitleResource(AmpacheItem.Type type)
+    {
+        switch (type) {
+            case ALBUM:
+                return R.string.subtitle_album;
+            case ARTIST:
+                return R.string.subtitle_artist;
+            case PLAYLIST:
+                return R.string.subtitle_playlist;
+            case GENRE:
+                return R.string.subtitle_genre;
+            case RADIO:
+                return R.string.radio_station;
+            default:
+                return R.string.subtitle_song;
+        }
+    }
 }
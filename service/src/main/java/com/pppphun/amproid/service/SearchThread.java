@@ -43,6 +43,8 @@ class SearchThread extends ThreadCancellable
 
     private final Handler resultsHandler;
 
+    private volatile AmpacheAPICaller ampacheAPICaller = null;
+
 
     SearchThread(String authToken, String url, Bundle searchParameters, Handler resultsHandler)
     {
@@ -53,6 +55,18 @@ class SearchThread extends ThreadCancellable
     }
 
 
+    @Override
+    public void cancel()
+    {
+        super.cancel();
+
+        AmpacheAPICaller ampacheAPICaller = this.ampacheAPICaller;
+        if (ampacheAPICaller != null) {
+            ampacheAPICaller.cancel();
+        }
+    }
+
+
     @Override
     public void run()
     {
@@ -82,8 +96,14 @@ class SearchThread extends ThreadCancellable
             Amproid.sendMessage(resultsHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks, ampacheAPICaller.getErrorMessage());
             return;
         }
+        ampacheAPICaller.setConcurrentSearch(true);
+
+        this.ampacheAPICaller = ampacheAPICaller;
+        if (isCancelled()) {
+            return;
+        }
 
-        HashMap<Integer, Vector<HashMap<String, String>>> found = ampacheAPICaller.search(authToken, searchParameters);
+        HashMap<Integer, Vector<HashMap<String, String>>> results = ampacheAPICaller.search(authToken, searchParameters);
         if (isCancelled()) {
             return;
         }
@@ -92,16 +112,21 @@ class SearchThread extends ThreadCancellable
             return;
         }
 
-        Vector<HashMap<String, String>> artists = found.get(AmpacheAPICaller.SEARCH_RESULTS_ARTISTS);
+        HashMap<Integer, Vector<AmpacheItem>> found = new HashMap<>();
+        for (Integer type : results.keySet()) {
+            found.put(type, AmpacheItem.fromResults(itemType(type), results.get(type)));
+        }
+
+        Vector<AmpacheItem> artists = found.get(AmpacheAPICaller.SEARCH_RESULTS_ARTISTS);
         if ((artists != null) && (artists.size() > 0)) {
-            Vector<HashMap<String, String>> matchingPlaylists = new Vector<>();
+            Vector<AmpacheItem> matchingPlaylists = new Vector<>();
 
-            PlaylistsCache                  playlistsCache  = new PlaylistsCache(authToken, url, null);
-            Vector<HashMap<String, String>> cachedPlaylists = playlistsCache.getPlaylists();
+            PlaylistsCache      playlistsCache  = new PlaylistsCache(authToken, url, null);
+            Vector<AmpacheItem> cachedPlaylists = playlistsCache.getPlaylists();
 
-            for (HashMap<String, String> artist : artists) {
-                for (HashMap<String, String> playlist : cachedPlaylists) {
-                    if (Amproid.stringContains(artist.get("name"), playlist.get("name"))) {
+            for (AmpacheItem artist : artists) {
+                for (AmpacheItem playlist : cachedPlaylists) {
+                    if (Amproid.stringContains(artist.getName(), playlist.getName())) {
                         matchingPlaylists.add(playlist);
                     }
                 }
@@ -117,4 +142,25 @@ class SearchThread extends ThreadCancellable
         arguments.putBundle("searchParameters", searchParameters);
         Amproid.sendMessage(resultsHandler, R.string.msg_action_async_finished, R.integer.async_search, arguments);
     }
+
+
+    private AmpacheItem.Type itemType(int searchResultsType)
+    {
+        if ((searchResultsType == AmpacheAPICaller.SEARCH_RESULTS_ALBUMS) || (searchResultsType == AmpacheAPICaller.SEARCH_RESULTS_ARTIST_ALBUMS)) {
+            return AmpacheItem.Type.ALBUM;
+        }
+        if (searchResultsType == AmpacheAPICaller.SEARCH_RESULTS_ARTISTS) {
+            return AmpacheItem.Type.ARTIST;
+        }
+        if (searchResultsType == AmpacheAPICaller.SEARCH_RESULTS_PLAYLISTS) {
+            return AmpacheItem.Type.PLAYLIST;
+        }
+        if (searchResultsType == AmpacheAPICaller.SEARCH_RESULTS_TAGS) {
+            return AmpacheItem.Type.GENRE;
+        }
+        if (searchResultsType == AmpacheAPICaller.SEARCH_RESULTS_RADIOS) {
+            return AmpacheItem.Type.RADIO;
+        }
+        return AmpacheItem.Type.SONG;
+    }
 }
@@ -0,0 +1,211 @@
+/*
+ * This file is part of Amproid
+ *
+ * Copyright (c) 2023. Peter Papp
+ *
+ * Please visit https://github.com/4phun/Amproid for details
+ *
+ * Amproid is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Amproid is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amproid. If not, see http://www.gnu.org/licenses/
+ */
+
+package com.pppphun.amproid.service;
+
+
+import com.pppphun.amproid.shared.Amproid;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URL;
+import java.util.Locale;
+
+
+// picks the transcoding bitrate songs are streamed at, from the measured throughput and whether the network is metered
+final class StreamQuality
+{
+    // kbps, 0 is the original file as it is on the server
+    private static final int[] BITRATES = {0, 192, 128, 96};
+
+    // what each level needs to stream without stalling, the original may well be lossless
+    private static final int[] REQUIRED_KBPS = {1500, 192, 128, 96};
+
+    private static final String TRANSCODE_FORMAT = "mp3";
+    private static final int    METERED_LEVEL    = 2;
+
+    // hysteresis: down as soon as the current level isn't sustainable, up only after a few good samples and not right after going down
+    private static final double HEADROOM_DOWN    = 1.2;
+    private static final double HEADROOM_UP      = 2.0;
+    private static final int    UP_SAMPLES       = 3;
+    private static final long   HOLD_AFTER_DOWN  = 60000;
+    private static final long   MIN_SAMPLE_BYTES = 128 * 1024;
+    private static final double SMOOTHING        = 0.3;
+
+    private static StreamQuality instance = null;
+
+    private final long[] streams   = new long[BITRATES.length];
+    private final long[] rebuffers = new long[BITRATES.length];
+
+    private int    level          = 0;
+    private double estimateKbps   = -1;
+    private int    goodSamples    = 0;
+    private long   lastDownMillis = 0;
+    private long   levelChanges   = 0;
+
+
+    private StreamQuality()
+    {
+    }
+
+
+    static synchronized StreamQuality getInstance()
+    {
+        if (instance == null) {
+            instance = new StreamQuality();
+        }
+        return instance;
+    }
+
+
+    // Ampache's play URL takes the transcoding parameters in the query, the rewritten (path style) URLs are left alone
+    static boolean isRewritable(URL url)
+    {
+        return (url != null) && (url.getQuery() != null) && !url.getQuery().isEmpty();
+    }
+
+
+    static URL rewrite(@NotNull URL url, int bitrate)
+    {
+        if ((bitrate <= 0) || !isRewritable(url)) {
+            return url;
+        }
+
+        String rewritten = url.toString().replaceAll("([?&])(format|bitrate)=[^&]*&?", "$1").replaceAll("[?&]$", "");
+        rewritten += (rewritten.contains("?") ? "&" : "?") + "format=" + TRANSCODE_FORMAT + "&bitrate=" + bitrate;
+
+        try {
+            return new URL(rewritten);
+        }
+        catch (Exception e) {
+            return url;
+        }
+    }
+
+
+    // the bitrate the next song should be streamed at
+    synchronized int bitrate()
+    {
+        int effective = level;
+        if ((effective < METERED_LEVEL) && Amproid.isNetworkMetered()) {
+            effective = METERED_LEVEL;
+        }
+        return BITRATES[effective];
+    }
+
+
+    // network time only, the time spent waiting for the media player to take the data doesn't count
+    synchronized void measured(long bytes, long nanos)
+    {
+        if ((bytes < MIN_SAMPLE_BYTES) || (nanos <= 0)) {
+            return;
+        }
+
+        double sampleKbps = bytes * 8.0 * 1000000.0 / nanos;
+        estimateKbps = estimateKbps < 0 ? sampleKbps : (SMOOTHING * sampleKbps) + ((1.0 - SMOOTHING) * estimateKbps);
+
+        if ((estimateKbps < REQUIRED_KBPS[level] * HEADROOM_DOWN) && (level < BITRATES.length - 1)) {
+            // as many steps as needed at once, stalling is worse than a lower bitrate
+            while ((level < BITRATES.length - 1) && (estimateKbps < REQUIRED_KBPS[level] * HEADROOM_DOWN)) {
+                level++;
+            }
+            down();
+            return;
+        }
+
+        if ((level > 0) && (estimateKbps >= REQUIRED_KBPS[level - 1] * HEADROOM_UP)) {
+            goodSamples++;
+            if ((goodSamples >= UP_SAMPLES) && (System.currentTimeMillis() - lastDownMillis >= HOLD_AFTER_DOWN)) {
+                level--;
+                goodSamples = 0;
+                levelChanges++;
+            }
+        }
+        else {
+            goodSamples = 0;
+        }
+    }
+
+
+    synchronized void rebuffered(int bitrate)
+    {
+        int rebufferedLevel = levelOf(bitrate);
+        if (rebufferedLevel < 0) {
+            return;
+        }
+        rebuffers[rebufferedLevel]++;
+
+        // one step below where it stalled, unless it was a song started before the last step down
+        if ((rebufferedLevel >= level) && (rebufferedLevel < BITRATES.length - 1)) {
+            level = rebufferedLevel + 1;
+            down();
+        }
+    }
+
+
+    synchronized void reset()
+    {
+        for (int i = 0; i < BITRATES.length; i++) {
+            streams[i]   = 0;
+            rebuffers[i] = 0;
+        }
+        levelChanges = 0;
+    }
+
+
+    synchronized void streamed(int bitrate)
+    {
+        int streamedLevel = levelOf(bitrate);
+        if (streamedLevel >= 0) {
+            streams[streamedLevel]++;
+        }
+    }
+
+
+    synchronized String summary()
+    {
+        StringBuilder returnValue = new StringBuilder();
+        returnValue.append(String.format(Locale.US, "stream quality: bitrate=%d estimateKbps=%.0f metered=%b changes=%d\n", bitrate(), estimateKbps, Amproid.isNetworkMetered(), levelChanges));
+        for (int i = 0; i < BITRATES.length; i++) {
+            returnValue.append(String.format(Locale.US, "  %s: streams=%d rebuffers=%d\n", BITRATES[i] == 0 ? "original" : BITRATES[i] + "kbps", streams[i], rebuffers[i]));
+        }
+        return returnValue.toString();
+    }
+
+
+    private void down()
+    {
+        goodSamples    = 0;
+        lastDownMillis = System.currentTimeMillis();
+        levelChanges++;
+    }
+
+
+    private int levelOf(int bitrate)
+    {
+        for (int i = 0; i < BITRATES.length; i++) {
+            if (BITRATES[i] == bitrate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
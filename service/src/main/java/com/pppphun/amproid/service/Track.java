@@ -29,13 +29,25 @@ import android.content.res.TypedArray;
 
 import com.pppphun.amproid.shared.Amproid;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
-public class Track
+public class Track implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
+    // the session ID in Ampache's stream URLs, either as a query parameter or as a path segment
+    private static final Pattern SESSION_PATTERN = Pattern.compile("[?&]ssid=([^&]*)|/ssid/([^/?]*)");
+
     public enum ShuffleSource
     {
         SHUFFLE_SOURCE_NONE,
@@ -48,6 +60,9 @@ public class Track
     private String        albumId;
     private String        artistId;
     private URL           url;
+    private String        urlBeforeSession;
+    private String        urlAfterSession;
+    private boolean       sessionRenewed;
     private URL           pictureUrl;
     private String        title;
     private String        album;
@@ -72,6 +87,26 @@ public class Track
     }
 
 
+    public Track(Track other)
+    {
+        id            = other.id;
+        albumId       = other.albumId;
+        artistId      = other.artistId;
+        url           = other.url;
+        pictureUrl    = other.pictureUrl;
+        title         = other.title;
+        album         = other.album;
+        artist        = other.artist;
+        radio         = other.radio;
+        tags          = new Vector<>(other.tags);
+        shuffleSource = other.shuffleSource;
+
+        urlBeforeSession = other.urlBeforeSession;
+        urlAfterSession  = other.urlAfterSession;
+        sessionRenewed   = other.sessionRenewed;
+    }
+
+
     public void addTags(String twofiftyfiveSeparatedTags)
     {
         if (twofiftyfiveSeparatedTags == null) {
@@ -220,7 +255,13 @@ public class Track
 
     public void setUrl(URL url)
     {
-        this.url = url;
+        this.url       = url;
+        sessionRenewed = false;
+
+        // split once, so that a new session can be put in without parsing the URL again
+        String[] parts = splitSession(url);
+        urlBeforeSession = parts == null ? null : parts[0];
+        urlAfterSession  = parts == null ? null : parts[1];
     }
 
 
@@ -247,6 +288,13 @@ public class Track
     }
 
 
+    // downloaded for offline playback
+    public boolean isLocal()
+    {
+        return (url != null) && url.getProtocol().equals("file");
+    }
+
+
     public boolean isRadio()
     {
         return radio;
@@ -259,12 +307,147 @@ public class Track
     }
 
 
+    public ShuffleSource getShuffleSource()
+    {
+        return shuffleSource;
+    }
+
+
     public void setShuffleSource(ShuffleSource shuffleSource)
     {
         this.shuffleSource = shuffleSource;
     }
 
 
+    // compact form for the queue snapshot, much smaller and faster than serialization
+    static Track read(DataInput input) throws IOException
+    {
+        Track track = new Track();
+
+        track.id       = input.readUTF();
+        track.albumId  = readNullable(input);
+        track.artistId = readNullable(input);
+
+        String url     = readNullable(input);
+        String picture = readNullable(input);
+
+        track.setUrl(url == null ? null : new URL(url));
+        track.pictureUrl = picture == null ? null : new URL(picture);
+        track.title      = input.readUTF();
+        track.album      = input.readUTF();
+        track.artist     = input.readUTF();
+        track.radio      = input.readBoolean();
+
+        int shuffleSource = input.readByte();
+        if ((shuffleSource >= 0) && (shuffleSource < ShuffleSource.values().length)) {
+            track.shuffleSource = ShuffleSource.values()[shuffleSource];
+        }
+
+        int tagCount = input.readShort();
+        for (int i = 0; i < tagCount; i++) {
+            track.tags.add(input.readUTF());
+        }
+
+        return track;
+    }
+
+
+    // for URLs that are not kept in a track
+    static URL withSession(URL url, String authToken) throws MalformedURLException
+    {
+        String[] parts = splitSession(url);
+        if ((parts == null) || url.toString().equals(parts[0] + authToken + parts[1])) {
+            return url;
+        }
+        return new URL(parts[0] + authToken + parts[1]);
+    }
+
+
+    // the URL was put in place locally, the server hasn't accepted it yet
+    boolean isSessionRenewed()
+    {
+        return sessionRenewed;
+    }
+
+
+    // returns false if the URL doesn't have a session in it, or it's the same session
+    boolean setSession(String authToken)
+    {
+        if ((urlBeforeSession == null) || (authToken == null) || authToken.isEmpty()) {
+            return false;
+        }
+
+        String renewed = urlBeforeSession + authToken + urlAfterSession;
+        if (renewed.equals(url.toString())) {
+            return false;
+        }
+
+        try {
+            url = new URL(renewed);
+        }
+        catch (Exception e) {
+            return false;
+        }
+        sessionRenewed = true;
+
+        return true;
+    }
+
+
+    void write(DataOutput output) throws IOException
+    {
+        output.writeUTF(id == null ? "" : id);
+        writeNullable(output, albumId);
+        writeNullable(output, artistId);
+        writeNullable(output, url == null ? null : url.toString());
+        writeNullable(output, pictureUrl == null ? null : pictureUrl.toString());
+        output.writeUTF(title == null ? "" : title);
+        output.writeUTF(album == null ? "" : album);
+        output.writeUTF(artist == null ? "" : artist);
+        output.writeBoolean(radio);
+        output.writeByte(shuffleSource == null ? 0 : shuffleSource.ordinal());
+
+        int tagCount = Math.min(tags.size(), Short.MAX_VALUE);
+        output.writeShort(tagCount);
+        for (int i = 0; i < tagCount; i++) {
+            output.writeUTF(tags.get(i));
+        }
+    }
+
+
+    private static String readNullable(DataInput input) throws IOException
+    {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+
+    // what's before and after the session ID, null if there's none
+    private static String[] splitSession(URL url)
+    {
+        if (url == null) {
+            return null;
+        }
+
+        String  string  = url.toString();
+        Matcher matcher = SESSION_PATTERN.matcher(string);
+        if (!matcher.find()) {
+            return null;
+        }
+
+        int group = matcher.group(1) != null ? 1 : 2;
+        return new String[]{string.substring(0, matcher.start(group)), string.substring(matcher.end(group))};
+    }
+
+
+    private static void writeNullable(DataOutput output, String value) throws IOException
+    {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+
     private Vector<String> getFadeTags()
     {
         TypedArray fadeTags = Amproid.getAppContext().getResources().obtainTypedArray(R.array.fade_tags);
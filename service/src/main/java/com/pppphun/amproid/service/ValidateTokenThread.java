@@ -34,16 +34,25 @@ import com.pppphun.amproid.shared.Amproid;
 
 class ValidateTokenThread extends ThreadCancellable
 {
-    private final String authToken;
-    private final String url;
+    private final String  authToken;
+    private final String  url;
+    private final boolean keepAlive;
 
     private final Handler amproidServiceHandler;
 
 
     ValidateTokenThread(String authToken, String url, Handler amproidServiceHandler)
+    {
+        this(authToken, url, false, amproidServiceHandler);
+    }
+
+
+    // keepAlive: during playback, everything goes to async_keep_alive, and the network is not waited for
+    ValidateTokenThread(String authToken, String url, boolean keepAlive, Handler amproidServiceHandler)
     {
         this.authToken             = authToken;
         this.url                   = url;
+        this.keepAlive             = keepAlive;
         this.amproidServiceHandler = amproidServiceHandler;
     }
 
@@ -51,18 +60,21 @@ class ValidateTokenThread extends ThreadCancellable
     @Override
     public void run()
     {
+        int errorType  = keepAlive ? R.integer.async_keep_alive : R.integer.async_get_tracks;
+        int resultType = keepAlive ? R.integer.async_keep_alive : R.integer.async_validate_token;
+
         if ((authToken == null) || authToken.isEmpty()) {
-            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks, R.string.error_blank_token);
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, errorType, R.string.error_blank_token);
             return;
         }
         if ((url == null) || url.isEmpty()) {
-            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks, R.string.error_invalid_server_url);
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, errorType, R.string.error_invalid_server_url);
             return;
         }
 
         long                     checkStart       = System.currentTimeMillis();
         Amproid.ConnectionStatus connectionStatus = Amproid.getConnectionStatus();
-        while (!isCancelled() && ((connectionStatus == CONNECTION_UNKNOWN) || (connectionStatus == CONNECTION_NONE))) {
+        while (!keepAlive && !isCancelled() && ((connectionStatus == CONNECTION_UNKNOWN) || (connectionStatus == CONNECTION_NONE))) {
             Bundle arguments = new Bundle();
             arguments.putLong("elapsedMS", System.currentTimeMillis() - checkStart);
             Amproid.sendMessage(amproidServiceHandler, R.string.msg_async_no_network, arguments);
@@ -74,21 +86,26 @@ class ValidateTokenThread extends ThreadCancellable
 
         AmpacheAPICaller ampacheAPICaller = new AmpacheAPICaller(url);
         if (!ampacheAPICaller.getErrorMessage().isEmpty()) {
-            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks, ampacheAPICaller.getErrorMessage());
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, errorType, ampacheAPICaller.getErrorMessage());
             return;
         }
 
-        boolean tokenValid = ampacheAPICaller.tokenTest(authToken);
+        // caches and track lookups follow a successful validation, have a pooled connection ready for them
+        ampacheAPICaller.warmUp();
+
+        // a ping is the cheapest authenticated call, and it extends the session too
+        boolean tokenValid = ampacheAPICaller.ping(authToken);
         if (isCancelled()) {
             return;
         }
         if (!ampacheAPICaller.getErrorMessage().isEmpty()) {
-            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_get_tracks, ampacheAPICaller.getErrorMessage());
+            Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, errorType, ampacheAPICaller.getErrorMessage());
             return;
         }
 
         Bundle arguments = new Bundle();
         arguments.putSerializable("isTokenValid", tokenValid);
-        Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, R.integer.async_validate_token, arguments);
+        arguments.putLong("sessionExpire", ampacheAPICaller.getSessionExpire());
+        Amproid.sendMessage(amproidServiceHandler, R.string.msg_action_async_finished, resultType, arguments);
     }
-}
\ No newline at end of file
+}
@@ -39,7 +39,6 @@ import android.view.WindowMetrics;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Vector;
 
@@ -50,9 +49,13 @@ public class Amproid extends Application
     public static final int     NETWORK_READ_TIMEOUT            = 90000;
     public static final int     NEW_TOKEN_REASON_NONE           = 0;
     public static final int     NEW_TOKEN_REASON_CACHE          = 1;
+    public static final int     NEW_TOKEN_REASON_RENEWAL        = 2;
     public static final int     DEFAULT_RECENT_SONG_COUNT       = 150;
     public static final boolean DEFAULT_SHOW_SHUFFLE_IN_TITLE   = false;
     public static final boolean DEFAULT_CURLY_IN_TITLE_IS_EXTRA = true;
+    public static final boolean DEFAULT_GAPLESS                 = true;
+    public static final String  API_FORMAT_XML                  = "xml";
+    public static final String  API_FORMAT_JSON                 = "json";
 
     public enum ScreenSizeDimension
     {
@@ -83,47 +86,6 @@ public class Amproid extends Application
     }
 
 
-    public static Vector<HashMap<String, String>> deepCopyItems(Vector<HashMap<String, String>> items)
-    {
-        Vector<HashMap<String, String>> deepCopy = new Vector<>();
-
-        for (HashMap<String, String> item : items) {
-            HashMap<String, String> copy = new HashMap<>();
-            for (String key : item.keySet()) {
-                copy.put(key, item.get(key));
-            }
-            deepCopy.add(copy);
-        }
-
-        return deepCopy;
-    }
-
-
-    public static HashMap<Integer, Vector<HashMap<String, String>>> deepCopyItems(HashMap<Integer, Vector<HashMap<String, String>>> items)
-    {
-        HashMap<Integer, Vector<HashMap<String, String>>> deepCopy = new HashMap<>();
-
-        for (Integer topKey : items.keySet()) {
-            Vector<HashMap<String, String>> vector = items.get(topKey);
-            if (vector != null) {
-                Vector<HashMap<String, String>> vectorCopy = new Vector<>();
-                for (HashMap<String, String> item : vector) {
-                    HashMap<String, String> copy = new HashMap<>();
-                    for (String key : item.keySet()) {
-                        copy.put(key, item.get(key));
-                    }
-                    vectorCopy.add(copy);
-                }
-                @SuppressWarnings("UnnecessaryUnboxing")
-                int topKeyCopy = topKey.intValue();
-                deepCopy.put(topKeyCopy, vectorCopy);
-            }
-        }
-
-        return deepCopy;
-    }
-
-
     public static Context getAppContext()
     {
         return appContext;
@@ -162,6 +124,30 @@ public class Amproid extends Application
     }
 
 
+    @NotNull
+    public static String getServerApiFormat(Account account)
+    {
+        if (account == null) {
+            return API_FORMAT_XML;
+        }
+
+        AccountManager accountManager = AccountManager.get(appContext);
+        if (accountManager == null) {
+            return API_FORMAT_XML;
+        }
+
+        // accounts added before the format was selectable don't have it
+        String apiFormat = null;
+        try {
+            apiFormat = accountManager.getUserData(account, "api_format");
+        }
+        catch (Exception ignored) {
+        }
+
+        return API_FORMAT_JSON.equals(apiFormat) ? API_FORMAT_JSON : API_FORMAT_XML;
+    }
+
+
     public static String getServerUrl(Account account)
     {
         if (account == null) {
@@ -184,6 +170,40 @@ public class Amproid extends Application
     }
 
 
+    // milliseconds since epoch, 0 if not known
+    public static long getSessionExpire(Account account)
+    {
+        if (account == null) {
+            return 0;
+        }
+
+        AccountManager accountManager = AccountManager.get(appContext);
+        if (accountManager == null) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(accountManager.getUserData(account, "session_expire"));
+        }
+        catch (Exception ignored) {
+        }
+
+        return 0;
+    }
+
+
+    // mobile data and hotspots, where every byte may cost
+    public static boolean isNetworkMetered()
+    {
+        ConnectivityManager connectivityManager = (ConnectivityManager) appContext.getSystemService(CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return false;
+        }
+
+        return connectivityManager.isActiveNetworkMetered();
+    }
+
+
     public static Vector<String> loadRecentSearches()
     {
         Vector<String>    searches    = new Vector<>();
@@ -288,6 +308,25 @@ public class Amproid extends Application
     }
 
 
+    public static void setSessionExpire(Account account, long sessionExpire)
+    {
+        if (account == null) {
+            return;
+        }
+
+        AccountManager accountManager = AccountManager.get(appContext);
+        if (accountManager == null) {
+            return;
+        }
+
+        try {
+            accountManager.setUserData(account, "session_expire", String.valueOf(sessionExpire));
+        }
+        catch (Exception ignored) {
+        }
+    }
+
+
     public static boolean stringContains(String needle, String haystack)
     {
         if ((needle == null) || needle.isEmpty() || (haystack == null) || haystack.isEmpty()) {